@@ -0,0 +1,155 @@
+package org.pseudosystems.geodaisia;
+
+import org.jscience.mathematics.number.LargeInteger;
+import org.jscience.mathematics.number.Rational;
+
+import static org.pseudosystems.geodaisia.Numbers.toRational;
+
+/**
+ * The arithmetic crossing points are generated in.
+ * <p>
+ * {@link #exact} keeps rational coordinates, and is the reference.
+ * {@link #fast} keeps x and y in doubles, which spares allocating and
+ * normalising rationals for every operation. Heights stay exact either way.
+ * Generated points remember which arithmetic made them (see
+ * {@link GeneratedPoint#isExact()}), so that comparing and rendering them
+ * follows along.
+ */
+public enum Arithmetic {
+    exact {
+        @Override
+        public GeneratedPoint interpolate (final DeclaredPoint first, final DeclaredPoint last, final LargeInteger height) {
+            return Points.interpolate(first, last, Points.heightRatio(first, last, height));
+        }
+
+        @Override
+        public GeneratedPoint interpolate (final CrossingEdge edge, final long height, final Rational z) {
+            GeneratedPoint result;
+
+            try {
+                result = GeneratedPoint.createCrossing(edge.getXNumerator(height), edge.getYNumerator(height), edge.getDenominator(), height, z);
+            }
+            catch (final ArithmeticException ex) {
+                result = interpolate(edge.getFirst(), edge.getLast(), LargeInteger.valueOf(height));
+            }
+
+            return result;
+        }
+
+        @Override
+        void interpolate (final CrossingBuffer into, final CrossingEdge edge, final long height) {
+            final long xnum, ynum;
+
+            try {
+                xnum = edge.getXNumerator(height);
+                ynum = edge.getYNumerator(height);
+            }
+            catch (final ArithmeticException ex) {
+                into.append(interpolate(edge.getFirst(), edge.getLast(), LargeInteger.valueOf(height)));
+                return;
+            }
+
+            into.appendCrossing(xnum, ynum, edge.getDenominator(), height);
+        }
+    },
+    fast {
+        @Override
+        public GeneratedPoint interpolate (final CrossingEdge edge, final long height, final Rational z) {
+            return GeneratedPoint.createApproximate(edge.getDoubleX(height), edge.getDoubleY(height), z);
+        }
+
+        @Override
+        void interpolate (final CrossingBuffer into, final CrossingEdge edge, final long height) {
+            into.appendApproximate(edge.getDoubleX(height), edge.getDoubleY(height), height);
+        }
+
+        @Override
+        public GeneratedPoint interpolate (final DeclaredPoint first, final DeclaredPoint last, final LargeInteger height) {
+            // crossings at the height of an end are that end, whichever side
+            // they are found on: scaling its coordinates by the height
+            // difference and back may not round back to them
+            final DeclaredPoint end = height.equals(first.getZ())? first : height.equals(last.getZ())? last : null;
+            if (end != null)
+                return GeneratedPoint.createApproximate(end.getX().doubleValue(), end.getY().doubleValue(), toRational(height));
+
+            final double    za  = first.getZ().doubleValue(),
+                            zb  = last.getZ().doubleValue(),
+                            h   = height.doubleValue(),
+                            x   = (first.getX().doubleValue() * (zb - h) + last.getX().doubleValue() * (h - za)) / (zb - za),
+                            y   = (first.getY().doubleValue() * (zb - h) + last.getY().doubleValue() * (h - za)) / (zb - za);
+            return GeneratedPoint.createApproximate(x, y, toRational(height));
+        }
+    };
+
+    /**
+     * @return the point at the given height on the edge from first to last,
+     *          where first is the lower one
+     */
+    public abstract GeneratedPoint interpolate (DeclaredPoint first, DeclaredPoint last, LargeInteger height);
+
+    /**
+     * Same as {@link #interpolate(DeclaredPoint, DeclaredPoint, LargeInteger)}
+     * on the ends of the edge, in long arithmetic as far as possible.
+     *
+     * @param z the height as a rational, for the crossing to keep, so that
+     *          crossings at the same height can share it
+     */
+    public abstract GeneratedPoint interpolate (CrossingEdge edge, long height, Rational z);
+
+    /**
+     * Same as {@link #interpolate(CrossingEdge, long, Rational)}, but appends
+     * the crossing to the edge being generated in the buffer, rather than
+     * making a point of it.
+     */
+    abstract void interpolate (CrossingBuffer into, CrossingEdge edge, long height);
+
+    /**
+     * How far apart the coordinates of a {@link #fast} point may be from
+     * those of the {@link #exact} point, relative to their magnitude (or
+     * absolutely, below 1).
+     */
+    public static final double Tolerance = 1e-9;
+
+    private static double compare (final CrossingBuffer.Cursor exact, final CrossingBuffer.Cursor fast) {
+        if (!exact.getHeight().equals(fast.getHeight()))
+            throw new IllegalStateException("crossing " + fast.getPoint().toCoordString() + " should be at the height of " + exact.getPoint().toCoordString());
+
+        final double    x           = exact.getX(),
+                        y           = exact.getY(),
+                        deviation   = Math.max(
+                                Math.abs(fast.getX() - x) / Math.max(1, Math.abs(x)),
+                                Math.abs(fast.getY() - y) / Math.max(1, Math.abs(y)));
+        if (deviation > Tolerance)
+            throw new IllegalStateException("crossing " + fast.getPoint().toCoordString() + " is too far from " + exact.getPoint().toCoordString());
+
+        return deviation;
+    }
+
+    /**
+     * Differential check of the crossings generated for the same grid in
+     * two arithmetics: the cells, their edges and the heights crossed on each
+     * edge must be the same, and the coordinates must be within
+     * {@link #Tolerance} of each other.
+     * @return the largest relative deviation of a coordinate
+     * @throws IllegalStateException on the first difference
+     */
+    public static double compare (final CrossingBuffer exact, final CrossingBuffer fast) {
+        if (exact.getCellCount() != fast.getCellCount())
+            throw new IllegalStateException(fast.getCellCount() + " cells have crossings, but " + exact.getCellCount() + " should");
+
+        double deviation = 0;
+        for (int cell = 0; cell < exact.getCellCount(); ++cell)
+            for (int k = 0; k < CrossingBuffer.Edges; ++k) {
+                if (exact.hasEdge(cell, k) != fast.hasEdge(cell, k))
+                    throw new IllegalStateException("edge " + k + " of cell #" + cell + " should " + (exact.hasEdge(cell, k)? "" : "not ") + "be there");
+                if (exact.getEdgeSize(cell, k) != fast.getEdgeSize(cell, k))
+                    throw new IllegalStateException("edge " + k + " of cell #" + cell + " has " + fast.getEdgeSize(cell, k) + " crossings, but " + exact.getEdgeSize(cell, k) + " should");
+
+                final CrossingBuffer.Cursor exactEdge = exact.edge(cell, k), fastEdge = fast.edge(cell, k);
+                while (exactEdge.next() && fastEdge.next())
+                    deviation = Math.max(deviation, compare(exactEdge, fastEdge));
+            }
+
+        return deviation;
+    }
+}
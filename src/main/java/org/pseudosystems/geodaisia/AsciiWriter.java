@@ -0,0 +1,229 @@
+package org.pseudosystems.geodaisia;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import org.jscience.mathematics.number.LargeInteger;
+
+/**
+ * Writes ASCII text straight into a reusable buffer of bytes, which is
+ * written out to a stream whenever it fills up, so that nothing is built as
+ * a string and nothing is encoded on the way out. Integers are written digit
+ * by digit, and doubles are appended to a reused {@link StringBuilder} as
+ * {@link Double#toString(double)} prints them.
+ * <p>
+ * Without a stream, the buffer grows instead, so that pieces of text can be
+ * kept (see {@link #toByteArray()}) and written again later.
+ */
+abstract class AsciiWriter implements Closeable, Flushable {
+
+    private final OutputStream  outs;
+    private byte[]              buffer;
+    private int                 size;
+    // doubles are printed into it
+    private final StringBuilder digits          = new StringBuilder(32);
+
+    /**
+     * @param outs where the buffer is written out to, whenever it fills up
+     *          and when flushed, or null to keep everything
+     */
+    protected AsciiWriter (final OutputStream outs, final int capacity) {
+        this.outs   = outs;
+        this.buffer = new byte[capacity];
+    }
+
+    protected static byte[] ascii (final String s) {
+        final byte[] result = new byte[s.length()];
+        for (int k = 0; k < result.length; ++k) {
+            assert(s.charAt(k) < 0x80);
+            result[k] = (byte) s.charAt(k);
+        }
+        return result;
+    }
+
+    /**
+     * Makes room in the buffer: writes it out, or grows it without a stream.
+     */
+    private void drain () throws IOException {
+        if (outs == null)
+            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        else {
+            outs.write(buffer, 0, size);
+            size = 0;
+        }
+    }
+
+    public void write (final int b) throws IOException {
+        if (size == buffer.length)
+            drain();
+        buffer[size++] = (byte) b;
+    }
+
+    public void write (final byte[] bytes) throws IOException {
+        for (int written = 0; written < bytes.length;) {
+            if (size == buffer.length)
+                drain();
+            final int n = Math.min(bytes.length - written, buffer.length - size);
+            System.arraycopy(bytes, written, buffer, size, n);
+            size    += n;
+            written += n;
+        }
+    }
+
+    /**
+     * Writes s, which must be all ASCII.
+     */
+    protected void write (final CharSequence s) throws IOException {
+        for (int k = 0; k < s.length(); ++k) {
+            assert(s.charAt(k) < 0x80);
+            write(s.charAt(k));
+        }
+    }
+
+    /**
+     * Writes n in decimal, padded with zeros to width as {@code %0<width>d}
+     * pads it, the sign counting in the width.
+     */
+    protected void write (final long n, final int width) throws IOException {
+        if (n < 0) {
+            write('-');
+            if (n == Long.MIN_VALUE) {
+                write(Long.toString(n).substring(1));
+                return;
+            }
+            write(-n, width - 1);
+            return;
+        }
+
+        long scale = 1;
+        int length = 1;
+        while (scale <= n / 10) {
+            scale *= 10;
+            ++length;
+        }
+        for (; length < width; ++length)
+            write('0');
+        for (; scale > 0; scale /= 10)
+            write('0' + (int) (n / scale % 10));
+    }
+
+    protected void write (final double d) throws IOException {
+        digits.setLength(0);
+        write(digits.append(d));
+    }
+
+    /**
+     * Writes n units of the last of the given decimals.
+     */
+    protected void writeFixed (final long n, final int decimals) throws IOException {
+        if (decimals == 0) {
+            write(n, 0);
+            return;
+        }
+
+        long unit = 1;
+        for (int k = 0; k < decimals; ++k)
+            unit *= 10;
+        if (n < 0)
+            write('-');
+        // of a negative n, both parts come out negative
+        write(Math.abs(n / unit), 0);
+        write('.');
+        write(Math.abs(n % unit), decimals);
+    }
+
+    /**
+     * Writes n units of the last of the given decimals, with no trailing
+     * zeros: 1.5 rather than 1.50, and 2 rather than 2.00.
+     */
+    protected void writeTrimmed (final long n, final int decimals) throws IOException {
+        long unit = 1;
+        for (int k = 0; k < decimals; ++k)
+            unit *= 10;
+
+        long fraction = Math.abs(n % unit);
+        int digits = decimals;
+        if (fraction == 0) {
+            write(n / unit, 0);
+            return;
+        }
+        for (; fraction % 10 == 0; fraction /= 10)
+            --digits;
+        if (n < 0)
+            write('-');
+        write(Math.abs(n / unit), 0);
+        write('.');
+        write(fraction, digits);
+    }
+
+    /**
+     * Writes n units of the last of the given decimals, as
+     * {@link #writeFixed(long, int)}, from the digits of n, however large.
+     */
+    protected void writeFixed (final LargeInteger n, final int decimals) throws IOException {
+        writeDigits(n, decimals, false);
+    }
+
+    /**
+     * Writes n units of the last of the given decimals, as
+     * {@link #writeTrimmed(long, int)}, however large.
+     */
+    protected void writeTrimmed (final LargeInteger n, final int decimals) throws IOException {
+        writeDigits(n, decimals, true);
+    }
+
+    private void writeDigits (final LargeInteger n, final int decimals, final boolean trimmed) throws IOException {
+        final CharSequence  text        = n.abs().toText();
+        // of the fraction, digit k is at k + point, before the text if < 0
+        final int           point       = text.length() - decimals;
+        int                 end         = decimals;
+
+        if (trimmed)
+            while (end > 0 && (end + point - 1 < 0 || text.charAt(end + point - 1) == '0'))
+                --end;
+        if (n.isNegative())
+            write('-');
+        if (point > 0)
+            write(text.subSequence(0, point));
+        else
+            write('0');
+        if (end > 0)
+            write('.');
+        for (int k = 0; k < end; ++k)
+            write(k + point < 0? '0' : text.charAt(k + point));
+    }
+
+    /**
+     * @return the text kept so far, of a writer without a stream
+     */
+    public byte[] toByteArray () {
+        assert(outs == null);
+        return Arrays.copyOf(buffer, size);
+    }
+
+    /**
+     * Drops the text kept so far, of a writer without a stream.
+     */
+    public void reset () {
+        assert(outs == null);
+        size = 0;
+    }
+
+    @Override
+    public void flush () throws IOException {
+        if (outs != null) {
+            drain();
+            outs.flush();
+        }
+    }
+
+    @Override
+    public void close () throws IOException {
+        if (outs != null) {
+            drain();
+            outs.close();
+        }
+    }
+}
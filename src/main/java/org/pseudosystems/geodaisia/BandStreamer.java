@@ -0,0 +1,181 @@
+package org.pseudosystems.geodaisia;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import org.jscience.mathematics.number.Rational;
+
+import static org.pseudosystems.geodaisia.IntermediatePointsGenerator.collectBandIntermediateHeights;
+import static org.pseudosystems.geodaisia.IntermediatePointsGenerator.colourisePoints;
+import static org.pseudosystems.geodaisia.IntermediatePointsGenerator.generateBandIntermediateHeightPoints;
+import static org.pseudosystems.geodaisia.IntermediatePointsGenerator.makeColourscales;
+import static org.pseudosystems.geodaisia.Renderer.writePointsToSvg;
+
+/**
+ * Renders a point file band by band: only two rows of points, and the
+ * crossings and lines of the band of cells between them, are kept in memory
+ * at any time.
+ * <p>
+ * The file is read twice. The first pass only collects the levels, so that
+ * all bands are colourised with the same colour scale; features are
+ * exported without colours, in a single pass. Lines are generated
+ * within each band, so they are not joined across band boundaries the way
+ * {@link IntermediatePointsGenerator#generateHeightLines2(List, long)} joins
+ * them over a whole grid.
+ */
+public class BandStreamer {
+
+    private static abstract class BandConsumer implements Persistance.RowConsumer {
+        private List<? extends DeclaredPoint> previous;
+        private int previousJ;
+
+        protected abstract void consumeBand (List<? extends DeclaredPoint> row0, List<? extends DeclaredPoint> row1) throws IOException;
+
+        protected void retireRow (final List<? extends DeclaredPoint> row) throws IOException {
+        }
+
+        @Override
+        public void consumeRow (final int j, final List<? extends DeclaredPoint> row) throws IOException {
+            if (previous != null) {
+                if (j == previousJ + 1)
+                    consumeBand(previous, row);
+                retireRow(previous);
+            }
+            previous = row;
+            previousJ = j;
+        }
+
+        public void finish () throws IOException {
+            if (previous != null)
+                retireRow(previous);
+            previous = null;
+        }
+    }
+
+    private static final class LevelCollector extends BandConsumer {
+        public final SortedSet<Rational> levels = new TreeSet<>();
+        private final Contours contours;
+
+        public LevelCollector (final Contours contours) {
+            this.contours = contours;
+        }
+
+        @Override
+        protected void consumeBand (final List<? extends DeclaredPoint> row0, final List<? extends DeclaredPoint> row1) {
+            collectBandIntermediateHeights(levels, row0, row1, contours);
+        }
+    }
+
+    private static final class BandRenderer extends BandConsumer {
+        private final SvgWriter svg;
+        private final Map<? super Rational, ? extends Colour> colours;
+        private final long distanceThreshold;
+        private final Arithmetic arithmetic;
+        private final ContourEngine engine;
+        private final Contours contours;
+        private final LineForm form;
+        private CrossingBuffer generated = CrossingBuffer.Empty;
+        private Colour[] generatedColours = new Colour[0];
+
+        public BandRenderer (final SvgWriter svg, final Map<? super Rational, ? extends Colour> colours, final long distanceThreshold, final Arithmetic arithmetic, final ContourEngine engine, final Contours contours, final LineForm form) {
+            this.svg = svg;
+            this.colours = colours;
+            this.distanceThreshold = distanceThreshold;
+            this.arithmetic = arithmetic;
+            this.engine = engine;
+            this.contours = contours;
+            this.form = form;
+        }
+
+        @Override
+        protected void consumeBand (final List<? extends DeclaredPoint> row0, final List<? extends DeclaredPoint> row1) throws IOException {
+            generated = generateBandIntermediateHeightPoints(row0, row1, arithmetic, contours);
+            generatedColours = colourisePoints(generated, colours);
+            form.write(svg, engine.generateLines(generated, distanceThreshold, null), colours, contours);
+        }
+
+        @Override
+        protected void retireRow (final List<? extends DeclaredPoint> row) throws IOException {
+            writePointsToSvg(svg, row, generated, generatedColours);
+            generated = CrossingBuffer.Empty;
+            generatedColours = new Colour[0];
+        }
+    }
+
+    private static final class BandExporter extends BandConsumer {
+        // the side of each cell along row0 (see
+        // generateBandIntermediateHeightPoints)
+        private static final int TopSide = 3;
+
+        private final FeatureWriter features;
+        private final long distanceThreshold;
+        private final Arithmetic arithmetic;
+        private final ContourEngine engine;
+        private final Contours contours;
+        private CrossingBuffer generated = CrossingBuffer.Empty;
+        // whether the band goes on from the one before, whose crossings along
+        // row1 are those of this band along row0
+        private boolean joined;
+        private List<? extends DeclaredPoint> lastRow;
+
+        public BandExporter (final FeatureWriter features, final long distanceThreshold, final Arithmetic arithmetic, final ContourEngine engine, final Contours contours) {
+            this.features = features;
+            this.distanceThreshold = distanceThreshold;
+            this.arithmetic = arithmetic;
+            this.engine = engine;
+            this.contours = contours;
+        }
+
+        @Override
+        protected void consumeBand (final List<? extends DeclaredPoint> row0, final List<? extends DeclaredPoint> row1) throws IOException {
+            generated = generateBandIntermediateHeightPoints(row0, row1, arithmetic, contours);
+            joined = row0 == lastRow;
+            lastRow = row1;
+            Exporter.exportContours(features, engine.generateLines(generated, distanceThreshold, null), contours);
+        }
+
+        @Override
+        protected void retireRow (final List<? extends DeclaredPoint> row) throws IOException {
+            for (final CrossingBuffer.Cursor c = generated.crossings(); c.next();)
+                if (!joined || c.getEdge() != TopSide)
+                    features.writeCrossing(c.getPoint());
+            Exporter.exportPoints(features, row, CrossingBuffer.Empty);
+            generated = CrossingBuffer.Empty;
+            joined = false;
+        }
+    }
+
+    public static void render (final FileChannel points, final SvgWriter svg, final long distanceThreshold, final Arithmetic arithmetic, final ContourEngine engine, final Contours contours, final LineForm form) throws IOException {
+        final LevelCollector collector = new LevelCollector(contours);
+        Persistance.streamPoints(points, collector);
+        collector.finish();
+
+        final Map<? super Rational, ? extends Colour> colours = collector.levels.isEmpty()? new HashMap<Rational, Colour>() : makeColourscales(collector.levels);
+        final BandRenderer renderer = new BandRenderer(svg, colours, distanceThreshold, arithmetic, engine, contours, form);
+
+        svg.writeHeader();
+        Persistance.streamPoints(points, renderer);
+        renderer.finish();
+        svg.writeFooter();
+    }
+
+    /**
+     * As {@link #render(FileChannel, SvgWriter, long, Arithmetic, ContourEngine, Contours, LineForm)},
+     * but with no colours to scale, in a single pass.
+     */
+    public static void export (final FileChannel points, final FeatureWriter features, final long distanceThreshold, final Arithmetic arithmetic, final ContourEngine engine, final Contours contours) throws IOException {
+        final BandExporter exporter = new BandExporter(features, distanceThreshold, arithmetic, engine, contours);
+
+        features.writeStart();
+        Persistance.streamPoints(points, exporter);
+        exporter.finish();
+        features.writeEnd();
+    }
+
+    private BandStreamer () {
+    }
+}
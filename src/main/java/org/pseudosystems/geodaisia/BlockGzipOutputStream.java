@@ -0,0 +1,189 @@
+package org.pseudosystems.geodaisia;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Compresses into gzip on a pool, the way pigz does: the bytes are cut into
+ * blocks, each deflated as a task of its own, primed with the last 32 KB
+ * before it as a dictionary, so that it compresses about as well as one
+ * stream would. Every block but the last ends in a sync flush, on a byte
+ * boundary, so that the deflated blocks are simply written one after the
+ * other, in order, into a single, standard gzip member.
+ * <p>
+ * The checksum is kept on the writing thread. Only so many blocks are in
+ * flight at once, so that memory stays bounded when the pool falls behind.
+ */
+public class BlockGzipOutputStream extends OutputStream {
+
+    private static final int        BlockSize       = 1 << 17;
+    // the window of deflate, as far back as it can refer
+    private static final int        DictionarySize  = 1 << 15;
+    private static final byte[]     Header          = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0};
+
+    private final OutputStream                      out;
+    private final ForkJoinPool                      pool;
+    private final int                               inFlight;
+    private final ArrayDeque<Block>                 pending = new ArrayDeque<>();
+    private final CRC32                             crc     = new CRC32();
+    private long                                    size;
+    private byte[]                                  block   = new byte[BlockSize],
+                                                    dictionary;
+    private int                                     length;
+    private boolean                                 closed;
+
+    private static final class Block extends RecursiveTask<byte[]> {
+        private static final long serialVersionUID = 1l;
+
+        private final byte[]    data, dictionary;
+        private final int       length;
+        private final boolean   last;
+
+        private Block (final byte[] data, final int length, final byte[] dictionary, final boolean last) {
+            this.data       = data;
+            this.length     = length;
+            this.dictionary = dictionary;
+            this.last       = last;
+        }
+
+        @Override
+        protected byte[] compute () {
+            return deflate(data, length, dictionary, last, length + (length >> 3) + 64);
+        }
+    }
+
+    /**
+     * @param capacity of the buffer the block is deflated into at first,
+     *          which is grown for as long as deflate fills it up
+     * @return the raw deflated block, primed with the dictionary, if any,
+     *          ending in a sync flush unless it is the last one
+     */
+    static byte[] deflate (final byte[] data, final int length, final byte[] dictionary, final boolean last, final int capacity) {
+        final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        try {
+            if (dictionary != null)
+                deflater.setDictionary(dictionary);
+            deflater.setInput(data, 0, length);
+            if (last)
+                deflater.finish();
+
+            byte[] result = new byte[capacity];
+            int n = 0;
+            for (;;) {
+                n += deflater.deflate(result, n, result.length - n, last? Deflater.NO_FLUSH : Deflater.SYNC_FLUSH);
+                // a flush is complete once it leaves room to spare
+                if (last? deflater.finished() : n < result.length)
+                    break;
+                if (n == result.length)
+                    result = Arrays.copyOf(result, result.length * 2);
+            }
+            return Arrays.copyOf(result, n);
+        }
+        finally {
+            deflater.end();
+        }
+    }
+
+    public BlockGzipOutputStream (final OutputStream out, final ForkJoinPool pool) throws IOException {
+        this.out    = out;
+        this.pool   = pool;
+        inFlight    = 2 * pool.getParallelism();
+        out.write(Header);
+    }
+
+    @Override
+    public void write (final int b) throws IOException {
+        if (length == block.length)
+            submit(false);
+        block[length++] = (byte) b;
+    }
+
+    @Override
+    public void write (final byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            if (length == block.length)
+                submit(false);
+            final int n = Math.min(len, block.length - length);
+            System.arraycopy(b, off, block, length, n);
+            length  += n;
+            off     += n;
+            len     -= n;
+        }
+    }
+
+    /**
+     * Hands the block to the pool, keeping its tail as the dictionary of the
+     * next one, and writes out the blocks which are too many in flight.
+     */
+    private void submit (final boolean last) throws IOException {
+        crc.update(block, 0, length);
+        size += length;
+
+        final Block task = new Block(block, length, dictionary, last);
+        pool.execute(task);
+        pending.add(task);
+
+        if (length >= DictionarySize)
+            dictionary = Arrays.copyOfRange(block, length - DictionarySize, length);
+        else
+        if (length > 0) {
+            final byte[] previous = dictionary == null? new byte[0] : dictionary;
+            final int kept = Math.min(previous.length, DictionarySize - length);
+            dictionary = Arrays.copyOfRange(previous, previous.length - kept, previous.length + length);
+            System.arraycopy(block, 0, dictionary, kept, length);
+        }
+        block   = new byte[BlockSize];
+        length  = 0;
+
+        while (pending.size() > inFlight)
+            out.write(pending.remove().join());
+    }
+
+    private void drain () throws IOException {
+        while (!pending.isEmpty())
+            out.write(pending.remove().join());
+    }
+
+    /**
+     * Deflates what has been written so far, short of a block as it may be,
+     * and flushes it out.
+     */
+    @Override
+    public void flush () throws IOException {
+        if (length > 0)
+            submit(false);
+        drain();
+        out.flush();
+    }
+
+    @Override
+    public void close () throws IOException {
+        if (closed)
+            return;
+        closed = true;
+
+        try {
+            submit(true);
+            drain();
+            writeInt((int) crc.getValue());
+            writeInt((int) size);
+            out.flush();
+        }
+        finally {
+            out.close();
+        }
+    }
+
+    private void writeInt (final int n) throws IOException {
+        out.write(n);
+        out.write(n >>> 8);
+        out.write(n >>> 16);
+        out.write(n >>> 24);
+    }
+}
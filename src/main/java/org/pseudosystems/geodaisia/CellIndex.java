@@ -0,0 +1,220 @@
+package org.pseudosystems.geodaisia;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * An index of the cells of a grid by the range of the heights of their
+ * corners, so that the crossings of a single level, at any height, can be
+ * generated from the cells it runs through alone, rather than from all
+ * crossings of all levels (compare
+ * {@link IntermediatePointsGenerator#generateHeightLines2(List, long, long)}).
+ * <p>
+ * The index is an implicit tree, as {@link PointTree} is: subtrees are ranges
+ * of the cells, split at their middle, with no lower height before and no
+ * greater one after the middle cell. Each middle cell also keeps the highest
+ * height of its subtree. A search for a height then only descends where
+ * some cell may reach up to it, and stops going right where the cells start
+ * above it, which takes time in proportion to the cells found, up to a
+ * logarithmic factor.
+ * <p>
+ * Heights which do not fit in longs are clamped, which only ever lets more
+ * cells through; the crossings of each cell found are generated exactly.
+ */
+public class CellIndex {
+
+    // the offsets of the corners of a cell, in the order of the dealers
+    private static final int[]  CornerJ = {0, 1, 1, 0},
+                                CornerI = {0, 0, 1, 1};
+
+    private final PointGrid points;
+    // the cells with an edge, as corner (j, i)
+    private final int[]     js, is;
+    // the lowest and highest heights of each cell, and the highest of the
+    // subtree split at each position
+    private final long[]    lows, highs, reaches;
+
+    public CellIndex (final PointGrid points) {
+        final int rows = points.getRows(), columns = points.getColumns();
+        int n = 0;
+
+        this.points = points;
+        for (int j = 0; j < rows - 1; ++j)
+            for (int i = 0; i < columns - 1; ++i)
+                if (countCorners(j, i) > 1)
+                    ++n;
+
+        js      = new int[n];
+        is      = new int[n];
+        lows    = new long[n];
+        highs   = new long[n];
+        reaches = new long[n];
+
+        int k = 0;
+        for (int j = 0; j < rows - 1; ++j)
+            for (int i = 0; i < columns - 1; ++i)
+                if (countCorners(j, i) > 1) {
+                    long low = Long.MAX_VALUE, high = Long.MIN_VALUE;
+                    for (int c = 0; c < 4; ++c)
+                        if (points.isValid(j + CornerJ[c], i + CornerI[c])) {
+                            final long z = getZ(j + CornerJ[c], i + CornerI[c]);
+                            low     = Math.min(low, z);
+                            high    = Math.max(high, z);
+                        }
+                    js[k]       = j;
+                    is[k]       = i;
+                    lows[k]     = low;
+                    highs[k]    = high;
+                    ++k;
+                }
+
+        build(0, n);
+    }
+
+    private int countCorners (final int j, final int i) {
+        int result = 0;
+
+        for (int c = 0; c < 4; ++c)
+            if (points.isValid(j + CornerJ[c], i + CornerI[c]))
+                ++result;
+
+        return result;
+    }
+
+    /**
+     * @return the height at valid (j, i), clamped into a long
+     */
+    private long getZ (final int j, final int i) {
+        final int k = points.indexOf(j, i);
+
+        if (!points.isExact(k))
+            return points.getZ(k);
+
+        final DeclaredPoint p = points.get(j, i);
+        return p.getZ().compareTo(Long.MAX_VALUE) > 0? Long.MAX_VALUE
+                : p.getZ().compareTo(Long.MIN_VALUE) < 0? Long.MIN_VALUE
+                : p.getZ().longValue();
+    }
+
+    /**
+     * @return the number of cells indexed, those with at least two valid
+     *          corners
+     */
+    public int size () {
+        return js.length;
+    }
+
+    private void swap (final int a, final int b) {
+        final int   j       = js[a],
+                    i       = is[a];
+        final long  low     = lows[a],
+                    high    = highs[a];
+
+        js[a]       = js[b];
+        is[a]       = is[b];
+        lows[a]     = lows[b];
+        highs[a]    = highs[b];
+        js[b]       = j;
+        is[b]       = i;
+        lows[b]     = low;
+        highs[b]    = high;
+    }
+
+    /**
+     * Moves the cell whose lowest height sorts at mid into place, with no
+     * lower height before and no greater one after it.
+     */
+    private void select (int lo, int hi, final int mid) {
+        while (hi - lo > 1) {
+            final long pivot = lows[(lo + hi) >>> 1];
+            int a = lo, b = hi - 1;
+
+            while (a <= b) {
+                while (lows[a] < pivot)
+                    ++a;
+                while (lows[b] > pivot)
+                    --b;
+                if (a <= b)
+                    swap(a++, b--);
+            }
+
+            if (mid <= b)
+                hi = b + 1;
+            else
+            if (mid >= a)
+                lo = a;
+            else
+                return;
+        }
+    }
+
+    /**
+     * @return the highest height of the subtree
+     */
+    private long build (final int lo, final int hi) {
+        if (lo >= hi)
+            return Long.MIN_VALUE;
+
+        final int mid = (lo + hi) >>> 1;
+        select(lo, hi, mid);
+        reaches[mid] = Math.max(highs[mid], Math.max(build(lo, mid), build(mid + 1, hi)));
+        return reaches[mid];
+    }
+
+    private void find (final List<Integer> into, final long height, final int lo, final int hi) {
+        if (lo >= hi)
+            return;
+
+        final int mid = (lo + hi) >>> 1;
+        if (reaches[mid] < height)
+            return;
+
+        find(into, height, lo, mid);
+        if (lows[mid] > height)
+            return;
+        if (highs[mid] >= height)
+            into.add(mid);
+        find(into, height, mid + 1, hi);
+    }
+
+    /**
+     * Generates the cells whose corners span the given height, with the
+     * crossings at that height only, in the order of the cells in the grid.
+     * Any contour engine can then make the level line out of them.
+     */
+    public CrossingBuffer generateLevel (final long height, final Arithmetic arithmetic) {
+        final CrossingBuffer result = new CrossingBuffer();
+        generateLevel(result, height, arithmetic);
+        return result.finish();
+    }
+
+    private void generateLevel (final CrossingBuffer into, final long height, final Arithmetic arithmetic) {
+        final List<Integer> found = new ArrayList<>();
+        find(found, height, 0, js.length);
+
+        final long[] cells = new long[found.size()];
+        for (int k = 0; k < cells.length; ++k)
+            cells[k] = (long) js[found.get(k)] << 32 | is[found.get(k)];
+        Arrays.sort(cells);
+
+        IntermediatePointsGenerator.generateLevelIntermediateHeightPoints(into, points, cells, height, arithmetic);
+    }
+
+    /**
+     * Generates the cells of each of the given heights, each once, as
+     * {@link #generateLevel(long, Arithmetic)} does, lowest first, one after
+     * the other. A cell several of them run through comes once for each.
+     */
+    public CrossingBuffer generateLevels (final long[] heights, final Arithmetic arithmetic) {
+        final long[]            sorted  = heights.clone();
+        final CrossingBuffer    result  = new CrossingBuffer();
+
+        Arrays.sort(sorted);
+        for (int k = 0; k < sorted.length; ++k)
+            if (k == 0 || sorted[k] != sorted[k - 1])
+                generateLevel(result, sorted[k], arithmetic);
+
+        return result.finish();
+    }
+}
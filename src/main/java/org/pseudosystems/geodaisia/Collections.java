@@ -108,7 +108,10 @@ public class Collections {
 
             @Override
             public int size () {
-                throw new UnsupportedOperationException("Not supported.");
+                int result = 0;
+                for (final Iterator<T> ite = iterable.iterator(); ite.hasNext(); ite.next())
+                    ++result;
+                return result;
             }
         };
     }
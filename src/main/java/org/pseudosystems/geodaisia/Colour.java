@@ -21,6 +21,10 @@ public class Colour {
         assert(inv());
     }
 
+    public int getRgb () {
+        return rgb;
+    }
+
     public String toRgbString () {
         if (rgbstr == null)
             rgbstr = String.format("%06x", rgb);
@@ -98,8 +102,8 @@ public class Colour {
             b = chroma;
         }
         else
-        if (isLessThanOrEqualTo(5l, hpart) && isLessThan(hpart, 6l)) {
-            // (c, 0, x)
+        if (isLessThanOrEqualTo(5l, hpart) && isLessThanOrEqualTo(hpart, 6l)) {
+            // (c, 0, x), where 360 degrees come out as 0
             r = chroma;
             g = Rational.ZERO;
             b = x;
@@ -0,0 +1,33 @@
+package org.pseudosystems.geodaisia;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * How the output is compressed.
+ * <p>
+ * {@link #gzip} compresses on this thread, or in blocks on the pool when
+ * given one (see {@link BlockGzipOutputStream}). {@link #none} leaves the
+ * output as it is, for pipelines which compress it further down.
+ */
+public enum Compression {
+    gzip {
+        @Override
+        public OutputStream compress (final OutputStream outs, final ForkJoinPool pool) throws IOException {
+            return pool == null? new GZIPOutputStream(outs, 10240, true) : new BlockGzipOutputStream(outs, pool);
+        }
+    },
+    none {
+        @Override
+        public OutputStream compress (final OutputStream outs, final ForkJoinPool pool) {
+            return outs;
+        }
+    };
+
+    /**
+     * @return a stream compressing into outs, which closes outs when closed
+     */
+    public abstract OutputStream compress (OutputStream outs, ForkJoinPool pool) throws IOException;
+}
@@ -0,0 +1,34 @@
+package org.pseudosystems.geodaisia;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * How level lines are made out of the crossings of the cells.
+ * <p>
+ * {@link #nearest} chains the crossings of each level to their nearest
+ * neighbours, as far as the distance threshold, one level per task when
+ * given a pool. {@link #marching} follows the
+ * cells the crossings were generated in (see {@link MarchingSquares}), and
+ * needs no threshold.
+ */
+public enum ContourEngine {
+    nearest {
+        @Override
+        public List<? extends Line> generateLines (final CrossingBuffer crossings, final long distanceThreshold, final ForkJoinPool pool) {
+            return IntermediatePointsGenerator.generateHeightLines2(crossings, distanceThreshold, -1l, pool);
+        }
+    },
+    marching {
+        @Override
+        public List<? extends Line> generateLines (final CrossingBuffer crossings, final long distanceThreshold, final ForkJoinPool pool) {
+            return MarchingSquares.traceHeightLines(crossings);
+        }
+    };
+
+    /**
+     * @param pool to generate lines on, or null to generate them on this
+     *          thread
+     */
+    public abstract List<? extends Line> generateLines (CrossingBuffer crossings, long distanceThreshold, ForkJoinPool pool);
+}
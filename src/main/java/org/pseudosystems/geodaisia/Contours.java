@@ -0,0 +1,154 @@
+package org.pseudosystems.geodaisia;
+
+import java.util.Arrays;
+import org.jscience.mathematics.number.LargeInteger;
+import org.jscience.mathematics.number.Rational;
+
+/**
+ * The levels contour lines are drawn at: base + k * interval, for every
+ * integer k. Several intervals may be given, finest first, each a multiple of
+ * the one before; the coarser ones pick the index contours out of the levels
+ * of the finest, so that all tiers come out of one pass over the edges.
+ * <p>
+ * An edge is crossed at every level from the height of its lower end, if
+ * that is a level, up to but not including its higher end, so that a level
+ * through a corner is crossed once, on the edges going up from it. The first
+ * of those levels and their number are worked out directly from the ends,
+ * rather than by stepping from one level to the next.
+ */
+public final class Contours {
+
+    public static final Contours    Default     = new Contours(0, 10);
+
+    // the intervals, finest first, and the base within the coarsest
+    private final long[]            intervals;
+    private final long              base;
+
+    /**
+     * @throws IllegalArgumentException unless there is an interval, all are
+     *          positive and each is a multiple of the one before
+     */
+    public Contours (final long base, final long... intervals) {
+        if (intervals.length == 0)
+            throw new IllegalArgumentException("no contour interval");
+        for (int k = 0; k < intervals.length; ++k)
+            if (intervals[k] < 1 || k > 0 && (intervals[k] <= intervals[k - 1] || intervals[k] % intervals[k - 1] != 0))
+                throw new IllegalArgumentException("contour intervals must be positive, each a multiple of the one before " + Arrays.toString(intervals));
+
+        this.intervals  = intervals.clone();
+        this.base       = Math.floorMod(base, intervals[intervals.length - 1]);
+    }
+
+    /**
+     * @return the interval of the finest tier
+     */
+    public long getInterval () {
+        return intervals[0];
+    }
+
+    public long getBase () {
+        return base;
+    }
+
+    public int getTiers () {
+        return intervals.length;
+    }
+
+    /**
+     * @return how far above the last level at or below h it is, between 0
+     *          and the interval of tier
+     */
+    private long offset (final long h, final int tier) {
+        final long interval = intervals[tier];
+        return Math.floorMod(Math.floorMod(h, interval) - Math.floorMod(base, interval), interval);
+    }
+
+    private long offset (final LargeInteger h, final int tier) {
+        final long interval = intervals[tier];
+        // mod may come out equal to the modulus, for negative h
+        return Math.floorMod(Math.floorMod(h.mod(LargeInteger.valueOf(interval)).longValue(), interval) - Math.floorMod(base, interval), interval);
+    }
+
+    /**
+     * @return the first level above h; undefined when it would not fit in a
+     *          long, which it does whenever
+     *          {@link #countBetween(long, long)} from h is positive
+     */
+    public long firstAbove (final long h) {
+        return h + (intervals[0] - offset(h, 0));
+    }
+
+    public LargeInteger firstAbove (final LargeInteger h) {
+        return h.plus(intervals[0] - offset(h, 0));
+    }
+
+    public boolean isLevel (final long h) {
+        return offset(h, 0) == 0;
+    }
+
+    public boolean isLevel (final LargeInteger h) {
+        return offset(h, 0) == 0;
+    }
+
+    /**
+     * @return the first level at or above h, as
+     *          {@link #firstAbove(long)} when h is not a level
+     */
+    public long firstFrom (final long h) {
+        return isLevel(h)? h : firstAbove(h);
+    }
+
+    public LargeInteger firstFrom (final LargeInteger h) {
+        return isLevel(h)? h : firstAbove(h);
+    }
+
+    /**
+     * @param upper above lower, no more than {@link Long#MAX_VALUE} over it
+     * @return the number of levels from lower, inclusive, to upper, exclusive:
+     *          those an edge between them is crossed at
+     */
+    public long countFrom (final long lower, final long upper) {
+        return countBetween(lower, upper) + (isLevel(lower)? 1 : 0);
+    }
+
+    public LargeInteger countFrom (final LargeInteger lower, final LargeInteger upper) {
+        final LargeInteger first = firstFrom(lower);
+        if (!first.isLessThan(upper))
+            return LargeInteger.ZERO;
+        return upper.minus(first).minus(LargeInteger.ONE).divide(LargeInteger.valueOf(intervals[0])).plus(LargeInteger.ONE);
+    }
+
+    /**
+     * @param upper above lower, no more than {@link Long#MAX_VALUE} over it
+     * @return the number of levels strictly between lower and upper
+     */
+    public long countBetween (final long lower, final long upper) {
+        final long  difference  = upper - lower,
+                    step        = intervals[0] - offset(lower, 0);
+
+        assert(difference > 0);
+        return step >= difference? 0 : (difference - step - 1) / intervals[0] + 1;
+    }
+
+    /**
+     * @return the coarsest tier h is a level of, or -1 if it is not a level
+     */
+    public int getTier (final long h) {
+        int result = -1;
+
+        for (int k = 0; k < intervals.length && offset(h, k) == 0; ++k)
+            result = k;
+
+        return result;
+    }
+
+    public int getTier (final Rational h) {
+        int result = -1;
+
+        if (Numbers.isRound(h))
+            for (int k = 0; k < intervals.length && offset(h.getDividend(), k) == 0; ++k)
+                result = k;
+
+        return result;
+    }
+}
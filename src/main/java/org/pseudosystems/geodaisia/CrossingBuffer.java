@@ -0,0 +1,691 @@
+package org.pseudosystems.geodaisia;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import org.jscience.mathematics.number.LargeInteger;
+import org.jscience.mathematics.number.Rational;
+
+/**
+ * The crossings of a list of cells, generated straight into parallel
+ * arrays: x and y as doubles, the numerators and denominator of exact
+ * crossings (see {@link CrossingPoint}), the height, and the cell and edge
+ * each was first generated on. Crossings past the longs, which are rare,
+ * are kept as points, by index. Points are only made when asked for (see
+ * {@link Cursor#getPoint()}).
+ * <p>
+ * Each cell keeps the heights of its corners, which diagonal was crossed,
+ * and the range of the crossings of each of its edges. The corners are
+ * (j,i), (j+1,i), (j+1,i+1) and (j,i+1); side k, between corners k and
+ * k + 1, is edge k, missing when a corner is, and the diagonal, if crossed,
+ * is edge 4. A side shared by two cells is generated once, and both cells
+ * have its range.
+ * <p>
+ * Each crossing is kept once, in the order it was first generated in. The
+ * crossings first generated in a cell are contiguous, and so are those of
+ * each edge, by increasing height. The levels are numbered by increasing
+ * height, and the crossings of each level are indexed in the order they
+ * were first generated in, as
+ * {@link IntermediatePointsGenerator#makeHeightequalGroups(Iterable)} groups
+ * them.
+ * <p>
+ * {@link IntermediatePointsGenerator} fills a buffer cell by cell, and edge
+ * by edge, then finishes it, after which it is only read. Crossings are
+ * walked through a {@link Cursor}, of all of them once, of a level, or of
+ * every edge of a cell or of every cell, shared sides twice.
+ */
+public class CrossingBuffer {
+
+    // the edges of each cell: its four sides and its diagonal
+    static final int                Edges           = 5;
+    private static final int        InitialCapacity = 64;
+    // where an edge missing a corner starts, and one along the top row of a
+    // band, whose crossings are those of the band above (see concat)
+    private static final int        Missing         = -1,
+                                    Above           = -2;
+
+    public static final CrossingBuffer Empty        = new CrossingBuffer().finish();
+
+    private double[]                xs              = new double[InitialCapacity],
+                                    ys              = new double[InitialCapacity];
+    // made along with the first exact crossing; the denominator is zero for
+    // the others
+    private long[]                  xnums, ynums, denominators;
+    private long[]                  zs              = new long[InitialCapacity];
+    private int[]                   cells           = new int[InitialCapacity];
+    private byte[]                  edges           = new byte[InitialCapacity];
+    // the crossings past the longs, by index, and whether any of them is at
+    // a height past the longs too
+    private final Map<Integer, GeneratedPoint> large = new HashMap<>();
+    private boolean                 largeHeights;
+    private int                     size;
+    // the first crossing of each cell, the heights of its four corners, its
+    // diagonal, and the range of each edge, Edges per cell
+    private int[]                   cellStarts      = new int[InitialCapacity + 1];
+    private LargeInteger[]          corners         = new LargeInteger[InitialCapacity * 4];
+    private byte[]                  diagonals       = new byte[InitialCapacity];
+    private int[]                   edgeStarts      = new int[InitialCapacity * Edges],
+                                    edgeEnds        = new int[InitialCapacity * Edges];
+    private int                     cellCount;
+    // the edge being generated, or -1
+    private int                     current         = -1;
+    // the edges along the bottom row of a band, by column (see concat)
+    private int[]                   bottomSides;
+    // the height of each level, the level of each crossing, and the
+    // crossings of each level from levelStarts[l] to levelStarts[l + 1]
+    private Rational[]              heights;
+    private int[]                   levels,
+                                    byLevel, levelStarts;
+
+    CrossingBuffer () {
+    }
+
+    /**
+     * @param groups lists of the crossings of each edge of a cell, a side
+     *          shared by two cells being the same list in both, and null
+     *          for no edge; a group of more than five lists, such as an
+     *          octadity, takes as many cells as it needs. The cells have no
+     *          corners.
+     */
+    public static CrossingBuffer of (final List<? extends List<? extends List<? extends GeneratedPoint>>> groups) {
+        final CrossingBuffer                                result  = new CrossingBuffer();
+        final Map<List<? extends GeneratedPoint>, Integer>  shared  = new IdentityHashMap<>();
+        final DeclaredPoint[]                               none    = new DeclaredPoint[4];
+
+        for (final List<? extends List<? extends GeneratedPoint>> group: groups) {
+            int c = -1;
+            for (int k = 0; k < group.size(); ++k) {
+                if (k % Edges == 0)
+                    c = result.addCell(none, -1);
+
+                final List<? extends GeneratedPoint> edge = group.get(k);
+                if (edge == null)
+                    continue;
+
+                final Integer first = shared.get(edge);
+                if (first != null)
+                    result.shareEdge(c, k % Edges, first);
+                else {
+                    shared.put(edge, slot(c, k % Edges));
+                    result.beginEdge(c, k % Edges);
+                    for (final GeneratedPoint p: edge)
+                        result.append(p);
+                    result.endEdge();
+                }
+            }
+        }
+
+        return result.finish();
+    }
+
+    /**
+     * @return the number by which edge k of cell c is shared
+     */
+    static int slot (final int c, final int k) {
+        return c * Edges + k;
+    }
+
+    /**
+     * @return the number by which the side along the top row of a band, at
+     *          the given column, is shared, before the band is concatenated
+     *          to the one above it, whose bottom side it is
+     */
+    static int above (final int column) {
+        return Above - column;
+    }
+
+    private void reserve (final int n) {
+        if (size + n > xs.length) {
+            final int capacity = Math.max(size + n, xs.length * 2);
+            xs      = Arrays.copyOf(xs, capacity);
+            ys      = Arrays.copyOf(ys, capacity);
+            zs      = Arrays.copyOf(zs, capacity);
+            cells   = Arrays.copyOf(cells, capacity);
+            edges   = Arrays.copyOf(edges, capacity);
+            if (denominators != null) {
+                xnums           = Arrays.copyOf(xnums, capacity);
+                ynums           = Arrays.copyOf(ynums, capacity);
+                denominators    = Arrays.copyOf(denominators, capacity);
+            }
+        }
+    }
+
+    private void reserveNumerators () {
+        if (denominators == null) {
+            xnums           = new long[xs.length];
+            ynums           = new long[xs.length];
+            denominators    = new long[xs.length];
+        }
+    }
+
+    private void reserveCells (final int n) {
+        if (cellCount + n > diagonals.length) {
+            final int capacity = Math.max(cellCount + n, diagonals.length * 2);
+            cellStarts  = Arrays.copyOf(cellStarts, capacity + 1);
+            corners     = Arrays.copyOf(corners, capacity * 4);
+            diagonals   = Arrays.copyOf(diagonals, capacity);
+            edgeStarts  = Arrays.copyOf(edgeStarts, capacity * Edges);
+            edgeEnds    = Arrays.copyOf(edgeEnds, capacity * Edges);
+        }
+    }
+
+    private int newCell (final int diagonal) {
+        assert(current == -1 && levels == null);
+        reserveCells(1);
+
+        final int c = cellCount++;
+        cellStarts[c]   = size;
+        diagonals[c]    = (byte) diagonal;
+        Arrays.fill(edgeStarts, c * Edges, (c + 1) * Edges, Missing);
+        Arrays.fill(edgeEnds, c * Edges, (c + 1) * Edges, Missing);
+        return c;
+    }
+
+    /**
+     * Starts a cell, with no edges yet.
+     *
+     * @param dealers its corners, or null for those without a valid point
+     * @param diagonal 0 for the diagonal from corner 0 to corner 2, 1 for the
+     *          one from corner 1 to corner 3, or -1 for neither
+     * @return the cell
+     */
+    int addCell (final DeclaredPoint[] dealers, final int diagonal) {
+        assert(dealers.length == 4);
+        final int c = newCell(diagonal);
+        for (int k = 0; k < 4; ++k)
+            corners[c * 4 + k] = dealers[k] == null? null : dealers[k].getZ();
+        return c;
+    }
+
+    /**
+     * Copies cell c of another buffer, with the crossings of its edges,
+     * but for the sides shared with cells of this one.
+     *
+     * @param shared for each side, the edge whose crossings it shares (see
+     *          {@link #slot(int, int)}), or -1 to copy them
+     * @return the cell
+     */
+    int copyCell (final CrossingBuffer from, final int c, final int[] shared) {
+        final int result = newCell(from.diagonals[c]);
+
+        System.arraycopy(from.corners, c * 4, corners, result * 4, 4);
+        for (int k = 0; k < Edges; ++k)
+            if (from.hasEdge(c, k)) {
+                if (k < 4 && shared[k] != -1)
+                    shareEdge(result, k, shared[k]);
+                else
+                    copyEdge(result, k, from, slot(c, k));
+            }
+
+        return result;
+    }
+
+    /**
+     * Starts edge k of cell c, which the crossings appended from now on,
+     * until {@link #endEdge()}, are on.
+     */
+    void beginEdge (final int c, final int k) {
+        assert(current == -1 && c < cellCount);
+        current = slot(c, k);
+        edgeStarts[current] = size;
+    }
+
+    void endEdge () {
+        assert(current != -1);
+        edgeEnds[current] = size;
+        current = -1;
+    }
+
+    /**
+     * Gives edge k of cell c the crossings of another edge.
+     *
+     * @param slot the edge (see {@link #slot(int, int)} and
+     *          {@link #above(int)})
+     */
+    void shareEdge (final int c, final int k, final int slot) {
+        final int e = slot(c, k);
+
+        if (slot >= 0) {
+            edgeStarts[e]   = edgeStarts[slot];
+            edgeEnds[e]     = edgeEnds[slot];
+        }
+        else {
+            edgeStarts[e]   = Above;
+            edgeEnds[e]     = Above - slot;
+        }
+    }
+
+    /**
+     * Appends the crossings of an edge of another buffer as those of edge k
+     * of cell c.
+     */
+    void copyEdge (final int c, final int k, final CrossingBuffer from, final int slot) {
+        beginEdge(c, k);
+        for (int q = from.edgeStarts[slot]; q < from.edgeEnds[slot]; ++q) {
+            final GeneratedPoint p = from.large.isEmpty()? null : from.large.get(q);
+            if (p != null)
+                append(p);
+            else
+            if (from.denominators != null && from.denominators[q] != 0)
+                appendCrossing(from.xnums[q], from.ynums[q], from.denominators[q], from.zs[q]);
+            else
+                appendApproximate(from.xs[q], from.ys[q], from.zs[q]);
+        }
+        endEdge();
+    }
+
+    /**
+     * @param sides the edges along the bottom row of the band, by column,
+     *          which the band below shares (see {@link #above(int)})
+     */
+    void setBottomSides (final int[] sides) {
+        bottomSides = sides;
+    }
+
+    private int add (final double x, final double y, final long z) {
+        assert(current != -1);
+        reserve(1);
+
+        final int k = size++;
+        xs[k]       = x;
+        ys[k]       = y;
+        zs[k]       = z;
+        cells[k]    = current / Edges;
+        edges[k]    = (byte) (current % Edges);
+        return k;
+    }
+
+    /**
+     * Appends an exact crossing, at xnum / denominator, ynum / denominator.
+     */
+    void appendCrossing (final long xnum, final long ynum, final long denominator, final long z) {
+        assert(denominator > 0);
+        reserveNumerators();
+
+        final int k = add(CrossingPoint.toDouble(xnum, denominator), CrossingPoint.toDouble(ynum, denominator), z);
+        xnums[k]        = xnum;
+        ynums[k]        = ynum;
+        denominators[k] = denominator;
+    }
+
+    /**
+     * Appends a crossing made with {@link Arithmetic#fast}.
+     */
+    void appendApproximate (final double x, final double y, final long z) {
+        add(x, y, z);
+    }
+
+    /**
+     * Appends a crossing which has been made a point already, such as those
+     * past the longs.
+     */
+    void append (final GeneratedPoint p) {
+        final Rational z = p.getZ();
+        final boolean longZ = Numbers.isRound(z) && z.getDividend().bitLength() < 64;
+
+        if (p instanceof CrossingPoint) {
+            final CrossingPoint c = (CrossingPoint) p;
+            appendCrossing(c.getXNumerator(), c.getYNumerator(), c.getDenominator(), c.getLongZ());
+        }
+        else
+        if (!p.isExact() && longZ)
+            appendApproximate(p.getDoubleX(), p.getDoubleY(), z.getDividend().longValue());
+        else {
+            large.put(add(p.getDoubleX(), p.getDoubleY(), longZ? z.getDividend().longValue() : 0), p);
+            largeHeights |= !longZ;
+        }
+    }
+
+    /**
+     * Concatenates the buffers of consecutive bands of rows of cells, each
+     * generated on its own: the sides along the top row of each band but the
+     * first are then given the crossings of the bottom row of the band
+     * above, where they were generated.
+     */
+    static CrossingBuffer concat (final List<CrossingBuffer> bands) {
+        final CrossingBuffer result = new CrossingBuffer();
+        int[] bottomSides = null;
+        int   bottomCells = 0;
+
+        for (final CrossingBuffer band: bands) {
+            assert(band.current == -1 && band.levels == null);
+            final int offset = result.size, cellOffset = result.cellCount;
+
+            result.reserve(band.size);
+            System.arraycopy(band.xs, 0, result.xs, offset, band.size);
+            System.arraycopy(band.ys, 0, result.ys, offset, band.size);
+            System.arraycopy(band.zs, 0, result.zs, offset, band.size);
+            System.arraycopy(band.edges, 0, result.edges, offset, band.size);
+            for (int k = 0; k < band.size; ++k)
+                result.cells[offset + k] = band.cells[k] + cellOffset;
+            if (band.denominators != null) {
+                result.reserveNumerators();
+                System.arraycopy(band.xnums, 0, result.xnums, offset, band.size);
+                System.arraycopy(band.ynums, 0, result.ynums, offset, band.size);
+                System.arraycopy(band.denominators, 0, result.denominators, offset, band.size);
+            }
+            for (final Map.Entry<Integer, GeneratedPoint> entry: band.large.entrySet())
+                result.large.put(entry.getKey() + offset, entry.getValue());
+            result.largeHeights |= band.largeHeights;
+            result.size += band.size;
+
+            result.reserveCells(band.cellCount);
+            System.arraycopy(band.corners, 0, result.corners, cellOffset * 4, band.cellCount * 4);
+            System.arraycopy(band.diagonals, 0, result.diagonals, cellOffset, band.cellCount);
+            for (int c = 0; c < band.cellCount; ++c)
+                result.cellStarts[cellOffset + c] = band.cellStarts[c] + offset;
+            for (int e = 0; e < band.cellCount * Edges; ++e) {
+                final int   start   = band.edgeStarts[e],
+                            to      = cellOffset * Edges + e;
+                if (start == Above) {
+                    assert(bottomSides != null);
+                    final int from = bottomCells * Edges + bottomSides[band.edgeEnds[e]];
+                    result.edgeStarts[to]   = result.edgeStarts[from];
+                    result.edgeEnds[to]     = result.edgeEnds[from];
+                }
+                else {
+                    result.edgeStarts[to]   = start == Missing? Missing : start + offset;
+                    result.edgeEnds[to]     = start == Missing? Missing : band.edgeEnds[e] + offset;
+                }
+            }
+            result.cellCount += band.cellCount;
+
+            bottomSides = band.bottomSides;
+            bottomCells = cellOffset;
+        }
+
+        result.bottomSides = bottomSides;
+        return result;
+    }
+
+    /**
+     * Numbers the levels, after which nothing more is appended.
+     *
+     * @return this
+     */
+    CrossingBuffer finish () {
+        assert(current == -1 && levels == null);
+        cellStarts[cellCount] = size;
+        for (int e = 0; e < cellCount * Edges; ++e)
+            assert(edgeStarts[e] != Above);
+
+        levels = new int[size];
+        if (!largeHeights) {
+            final long[] distinct = Arrays.copyOf(zs, size);
+            Arrays.sort(distinct);
+            int n = 0;
+            for (int k = 0; k < size; ++k)
+                if (n == 0 || distinct[k] != distinct[n - 1])
+                    distinct[n++] = distinct[k];
+
+            heights = new Rational[n];
+            for (int l = 0; l < n; ++l)
+                heights[l] = Rational.valueOf(distinct[l], 1l);
+            for (int k = 0; k < size; ++k)
+                levels[k] = Arrays.binarySearch(distinct, 0, n, zs[k]);
+        }
+        else {
+            final TreeMap<Rational, Integer> numbers = new TreeMap<>();
+            for (int k = 0; k < size; ++k)
+                numbers.put(getZ(k), null);
+
+            heights = numbers.keySet().toArray(new Rational[numbers.size()]);
+            for (int l = 0; l < heights.length; ++l)
+                numbers.put(heights[l], l);
+            for (int k = 0; k < size; ++k)
+                levels[k] = numbers.get(getZ(k));
+        }
+
+        levelStarts = new int[heights.length + 1];
+        for (int k = 0; k < size; ++k)
+            ++levelStarts[levels[k] + 1];
+        for (int l = 0; l < heights.length; ++l)
+            levelStarts[l + 1] += levelStarts[l];
+
+        final int[] filled = Arrays.copyOf(levelStarts, heights.length);
+        byLevel = new int[size];
+        for (int k = 0; k < size; ++k)
+            byLevel[filled[levels[k]]++] = k;
+
+        return this;
+    }
+
+    private Rational getZ (final int k) {
+        final GeneratedPoint p = large.isEmpty()? null : large.get(k);
+        return p != null? p.getZ() : Rational.valueOf(zs[k], 1l);
+    }
+
+    /**
+     * @return crossing k, made a point
+     */
+    GeneratedPoint getPoint (final int k) {
+        final GeneratedPoint p = large.isEmpty()? null : large.get(k);
+        if (p != null)
+            return p;
+
+        return denominators != null && denominators[k] != 0?
+                GeneratedPoint.createCrossing(xnums[k], ynums[k], denominators[k], zs[k], heights[levels[k]])
+                : GeneratedPoint.createApproximate(xs[k], ys[k], heights[levels[k]]);
+    }
+
+    /**
+     * @return the level of crossing k
+     */
+    int levelOf (final int k) {
+        return levels[k];
+    }
+
+    /**
+     * @return the first crossing of edge k of cell c, the same as its end if
+     *          it has none
+     */
+    int getEdgeStart (final int c, final int k) {
+        return edgeStarts[slot(c, k)];
+    }
+
+    int getEdgeEnd (final int c, final int k) {
+        return edgeEnds[slot(c, k)];
+    }
+
+    /**
+     * @return the number of crossings, each counted once
+     */
+    public int size () {
+        return size;
+    }
+
+    public int getCellCount () {
+        return cellCount;
+    }
+
+    /**
+     * @return the number of crossings first generated in cell c
+     */
+    public int getCellSize (final int c) {
+        return cellStarts[c + 1] - cellStarts[c];
+    }
+
+    /**
+     * @return the height of corner k of cell c, or null if it has no valid
+     *          point
+     */
+    public LargeInteger getCorner (final int c, final int k) {
+        return corners[c * 4 + k];
+    }
+
+    /**
+     * @return 0 for the diagonal from corner 0 to corner 2 of cell c, 1 for
+     *          the one from corner 1 to corner 3, or -1 if neither was
+     *          crossed
+     */
+    public int getDiagonal (final int c) {
+        return diagonals[c];
+    }
+
+    /**
+     * @return whether cell c has edge k: a side with both corners, or the
+     *          diagonal crossed
+     */
+    public boolean hasEdge (final int c, final int k) {
+        return edgeStarts[slot(c, k)] != Missing;
+    }
+
+    /**
+     * @return the number of crossings of edge k of cell c
+     */
+    public int getEdgeSize (final int c, final int k) {
+        return edgeEnds[slot(c, k)] - edgeStarts[slot(c, k)];
+    }
+
+    public int getLevelCount () {
+        return heights.length;
+    }
+
+    public Rational getHeight (final int level) {
+        return heights[level];
+    }
+
+    /**
+     * @return the level at the given height, or -1 if no crossing is there
+     */
+    public int getLevel (final Rational height) {
+        final int level = Arrays.binarySearch(heights, height);
+        return level < 0? -1 : level;
+    }
+
+    public int getLevelSize (final int level) {
+        return levelStarts[level + 1] - levelStarts[level];
+    }
+
+    /**
+     * @return a cursor over all crossings, each once, in the order they were
+     *          first generated in
+     */
+    public Cursor crossings () {
+        return new Cursor(null, 0, size, 0, 0);
+    }
+
+    /**
+     * @return a cursor over the crossings first generated in cell c
+     */
+    public Cursor cell (final int c) {
+        return new Cursor(null, cellStarts[c], cellStarts[c + 1], 0, 0);
+    }
+
+    /**
+     * @return a cursor over the crossings of a level, in the order they were
+     *          first generated in
+     */
+    public Cursor level (final int level) {
+        return new Cursor(byLevel, levelStarts[level], levelStarts[level + 1], 0, 0);
+    }
+
+    /**
+     * @return a cursor over the crossings of edge k of cell c, wherever they
+     *          were first generated
+     */
+    public Cursor edge (final int c, final int k) {
+        return new Cursor(null, 0, 0, slot(c, k), slot(c, k) + 1);
+    }
+
+    /**
+     * @return a cursor over the crossings of every edge of cell c, by edge,
+     *          wherever they were first generated
+     */
+    public Cursor edges (final int c) {
+        return new Cursor(null, 0, 0, slot(c, 0), slot(c + 1, 0));
+    }
+
+    /**
+     * @return a cursor over the crossings of every edge of every cell, in
+     *          order, so that those of a shared side come twice
+     */
+    public Cursor occurrences () {
+        return new Cursor(null, 0, 0, 0, cellCount * Edges);
+    }
+
+    /**
+     * Walks a range of crossings, either directly or through an index, or
+     * the ranges of a run of edges. It starts before the first crossing:
+     * {@link #next()} moves to each in turn.
+     */
+    public final class Cursor {
+        private final int[]     order;
+        private int             next, end,
+                                edge;
+        private final int       lastEdge;
+        private int             k = -1;
+
+        private Cursor (final int[] order, final int next, final int end, final int edge, final int lastEdge) {
+            this.order      = order;
+            this.next       = next;
+            this.end        = end;
+            this.edge       = edge;
+            this.lastEdge   = lastEdge;
+        }
+
+        /**
+         * @return whether there was a crossing to move to
+         */
+        public boolean next () {
+            while (next == end) {
+                if (edge == lastEdge)
+                    return false;
+                next    = edgeStarts[edge];
+                end     = edgeEnds[edge];
+                ++edge;
+            }
+
+            k = order == null? next++ : order[next++];
+            return true;
+        }
+
+        /**
+         * @return the position of the crossing in the buffer
+         */
+        public int getIndex () {
+            return k;
+        }
+
+        /**
+         * @return the crossing, made a point anew on each call
+         */
+        public GeneratedPoint getPoint () {
+            return CrossingBuffer.this.getPoint(k);
+        }
+
+        public double getX () {
+            return xs[k];
+        }
+
+        public double getY () {
+            return ys[k];
+        }
+
+        public int getLevel () {
+            return levels[k];
+        }
+
+        public Rational getHeight () {
+            return heights[levels[k]];
+        }
+
+        /**
+         * @return the cell the crossing was first generated in
+         */
+        public int getCell () {
+            return cells[k];
+        }
+
+        /**
+         * @return the edge of {@link #getCell()} the crossing is on: side 0 to
+         *          3, or 4 for the diagonal
+         */
+        public int getEdge () {
+            return edges[k];
+        }
+    }
+}
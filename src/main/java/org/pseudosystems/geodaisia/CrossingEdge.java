@@ -0,0 +1,113 @@
+package org.pseudosystems.geodaisia;
+
+import org.jscience.mathematics.number.LargeInteger;
+
+import static org.pseudosystems.geodaisia.Constants.maxLong;
+import static org.pseudosystems.geodaisia.Constants.minLong;
+
+/**
+ * An edge between two declared points, the lower one first, whose
+ * coordinates all fit in a long.
+ * <p>
+ * Since coordinates and heights are integers, the crossing at height h is
+ * exactly
+ * <pre>
+ * (a * (zb - h) + b * (h - za)) / (zb - za)
+ * </pre>
+ * for both x and y. All crossings of an edge share the denominator, so a
+ * crossing only needs to keep its two numerators.
+ */
+public final class CrossingEdge {
+
+    private final DeclaredPoint first, last;
+    private final long          xa, ya, za,
+                                xb, yb, zb,
+                                denominator;
+
+    private CrossingEdge (final DeclaredPoint first, final DeclaredPoint last) {
+        this.first          = first;
+        this.last           = last;
+        this.xa             = first.getX().longValue();
+        this.ya             = first.getY().longValue();
+        this.za             = first.getZ().longValue();
+        this.xb             = last.getX().longValue();
+        this.yb             = last.getY().longValue();
+        this.zb             = last.getZ().longValue();
+        this.denominator    = zb - za;
+    }
+
+    private static boolean fitsInLong (final LargeInteger li) {
+        return !(li.isLessThan(minLong) || li.isGreaterThan(maxLong));
+    }
+
+    /**
+     * @param first the lower end of the edge
+     * @param last the higher end of the edge
+     * @return the edge, or null if a coordinate or the height difference do
+     *          not fit in a long
+     */
+    public static CrossingEdge create (final DeclaredPoint first, final DeclaredPoint last) {
+        CrossingEdge result = null;
+
+        assert(first.getZ().isLessThan(last.getZ()));
+        if (fitsInLong(first.getX()) && fitsInLong(first.getY()) && fitsInLong(first.getZ())
+                && fitsInLong(last.getX()) && fitsInLong(last.getY()) && fitsInLong(last.getZ())
+                && fitsInLong(last.getZ().minus(first.getZ())))
+            result = new CrossingEdge(first, last);
+
+        return result;
+    }
+
+    public DeclaredPoint getFirst () {
+        return first;
+    }
+
+    public DeclaredPoint getLast () {
+        return last;
+    }
+
+    public long getLowerZ () {
+        return za;
+    }
+
+    public long getUpperZ () {
+        return zb;
+    }
+
+    public long getDenominator () {
+        return denominator;
+    }
+
+    private static long numerator (final long a, final long b, final long za, final long zb, final long h) {
+        return Math.addExact(Math.multiplyExact(a, zb - h), Math.multiplyExact(b, h - za));
+    }
+
+    /**
+     * @throws ArithmeticException if the numerator overflows a long
+     */
+    public long getXNumerator (final long h) {
+        assert(za <= h && h <= zb);
+        return numerator(xa, xb, za, zb, h);
+    }
+
+    /**
+     * @throws ArithmeticException if the numerator overflows a long
+     */
+    public long getYNumerator (final long h) {
+        assert(za <= h && h <= zb);
+        return numerator(ya, yb, za, zb, h);
+    }
+
+    /**
+     * Same as the numerators over the denominator, in doubles. At the
+     * height of an end, that is its coordinate itself, which scaling by the
+     * denominator and back may not round back to.
+     */
+    public double getDoubleX (final long h) {
+        return h == za? xa : h == zb? xb : ((double) xa * (zb - h) + (double) xb * (h - za)) / denominator;
+    }
+
+    public double getDoubleY (final long h) {
+        return h == za? ya : h == zb? yb : ((double) ya * (zb - h) + (double) yb * (h - za)) / denominator;
+    }
+}
@@ -0,0 +1,86 @@
+package org.pseudosystems.geodaisia;
+
+import org.jscience.mathematics.number.Rational;
+
+/**
+ * An exact crossing of an edge, with x and y kept as long numerators over
+ * the denominator of the edge, and z as a long. Rationals are only made when
+ * asked for; callers which can work in longs test for this class and read
+ * the longs instead.
+ */
+public final class CrossingPoint extends GeneratedPoint {
+
+    private static final double MaxExactDouble = 1l << 53;
+
+    private final long xnum, ynum, denominator, z;
+    private final Rational height;
+
+    CrossingPoint (long xnum, long ynum, long denominator, long z, Rational height) {
+        super(-1, -1, -1);
+        assert(Numbers.isRound(height) && height.getDividend().longValue() == z);
+        this.xnum = xnum;
+        this.ynum = ynum;
+        this.denominator = denominator;
+        this.z = z;
+        this.height = height;
+    }
+
+    /**
+     * @return numerator / denominator, correctly rounded as long as both are
+     *          exact in a double
+     */
+    static double toDouble (long numerator, long denominator) {
+        return Math.abs(numerator) < MaxExactDouble && denominator < MaxExactDouble? numerator / (double) denominator : Rational.valueOf(numerator, denominator).doubleValue();
+    }
+
+    public long getXNumerator () {
+        return xnum;
+    }
+
+    public long getYNumerator () {
+        return ynum;
+    }
+
+    public long getDenominator () {
+        return denominator;
+    }
+
+    public long getLongZ () {
+        return z;
+    }
+
+    @Override
+    public Rational getX () {
+        return Rational.valueOf(xnum, denominator);
+    }
+
+    @Override
+    public Rational getY () {
+        return Rational.valueOf(ynum, denominator);
+    }
+
+    @Override
+    public Rational getZ () {
+        return height;
+    }
+
+    @Override
+    public double getDoubleX () {
+        return toDouble(xnum, denominator);
+    }
+
+    @Override
+    public double getDoubleY () {
+        return toDouble(ynum, denominator);
+    }
+
+    @Override
+    public double getDoubleZ () {
+        return z;
+    }
+
+    @Override
+    public String toCoordString () {
+        return "(" + getX() + ',' + getY() + ',' + z + ')';
+    }
+}
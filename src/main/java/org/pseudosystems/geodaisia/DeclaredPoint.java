@@ -4,8 +4,28 @@ import org.jscience.mathematics.number.LargeInteger;
 
 public class DeclaredPoint extends Point<LargeInteger> {
 
+    private final LargeInteger x, y, z;
+
     private DeclaredPoint (final LargeInteger x, final LargeInteger y, final LargeInteger z, final int j, final int i, final int n) {
-        super(x, y, z, j, i, n);
+        super(j, i, n);
+        this.x = x;
+        this.y = y;
+        this.z = z;
+    }
+
+    @Override
+    public LargeInteger getX () {
+        return x;
+    }
+
+    @Override
+    public LargeInteger getY () {
+        return y;
+    }
+
+    @Override
+    public LargeInteger getZ () {
+        return z;
     }
 
     public static DeclaredPoint create (long x, long y, long z, int j, int i, int n) {
@@ -0,0 +1,27 @@
+package org.pseudosystems.geodaisia;
+
+import java.io.OutputStream;
+
+/**
+ * The vector formats features can be exported in, instead of drawn.
+ */
+public enum ExportFormat {
+    geojson {
+        @Override
+        public FeatureWriter open (final OutputStream outs, final int decimals) {
+            return new GeoJsonWriter(outs, decimals);
+        }
+    },
+    wkb {
+        @Override
+        public FeatureWriter open (final OutputStream outs, final int decimals) {
+            return new WkbWriter(outs);
+        }
+    };
+
+    /**
+     * @param decimals of generated coordinates, where the format writes them
+     *          as text, or {@link SvgWriter#AsPrinted}
+     */
+    public abstract FeatureWriter open (OutputStream outs, int decimals);
+}
@@ -0,0 +1,40 @@
+package org.pseudosystems.geodaisia;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import org.jscience.mathematics.number.Rational;
+
+/**
+ * Writes what {@link Renderer} draws out as features instead (see
+ * {@link FeatureWriter}): contour lines, as the polylines of each level (see
+ * {@link Leveler}), crossings, each once, and the declared points.
+ */
+public class Exporter {
+
+    public static void exportContours (final FeatureWriter features, final Iterable<? extends Line> lines, final Contours contours) throws IOException {
+        final SortedMap<? extends Rational, ? extends List<? extends Path<GeneratedPoint>>> levels = Leveler.generateLevelLines(lines);
+        for (final Map.Entry<? extends Rational, ? extends List<? extends Path<GeneratedPoint>>> entry: levels.entrySet()) {
+            final int tier = contours.getTier(entry.getKey());
+            for (final Path<GeneratedPoint> path: entry.getValue())
+                features.writeContour(entry.getKey(), tier, path);
+        }
+    }
+
+    public static void exportPoints (final FeatureWriter features, final Iterable<? extends DeclaredPoint> declared, final CrossingBuffer generated) throws IOException {
+        for (final CrossingBuffer.Cursor c = generated.crossings(); c.next();)
+            features.writeCrossing(c.getPoint());
+
+        for (final DeclaredPoint p: declared)
+            if (Points.isPointValid(p))
+                features.writePoint(p);
+    }
+
+    public static void exportPoints (final FeatureWriter features, final PointGrid declared, final CrossingBuffer generated) throws IOException {
+        exportPoints(features, declared.getPoints(), generated);
+    }
+
+    private Exporter () {
+    }
+}
@@ -0,0 +1,32 @@
+package org.pseudosystems.geodaisia;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import org.jscience.mathematics.number.Rational;
+
+/**
+ * Writes points, crossings and contour lines out as features of a vector
+ * format, one at a time, as they are given, each with its height: nothing
+ * but the feature being written is kept. Coordinates are those of the point
+ * file, rather than those of the drawing.
+ * <p>
+ * {@link #writeStart()} comes first and {@link #writeEnd()} last, with any
+ * number of features in between (see {@link Exporter}).
+ */
+public interface FeatureWriter extends Closeable, Flushable {
+
+    void writeStart () throws IOException;
+
+    void writePoint (DeclaredPoint p) throws IOException;
+
+    void writeCrossing (GeneratedPoint p) throws IOException;
+
+    /**
+     * @param tier of contours the height is at, or -1 if it is not a level
+     *          of them (see {@link Contours#getTier(Rational)})
+     */
+    void writeContour (Rational height, int tier, Path<GeneratedPoint> path) throws IOException;
+
+    void writeEnd () throws IOException;
+}
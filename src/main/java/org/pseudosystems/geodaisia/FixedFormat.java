@@ -0,0 +1,208 @@
+package org.pseudosystems.geodaisia;
+
+import java.math.BigDecimal;
+import org.jscience.mathematics.number.LargeInteger;
+import org.jscience.mathematics.number.Rational;
+
+import static org.pseudosystems.geodaisia.Constants.maxLong;
+import static org.pseudosystems.geodaisia.Constants.minLong;
+
+/**
+ * Takes coordinates through a display transform, x * factor + offset, to a
+ * fixed number of decimals. The transform is folded into integers once, so
+ * that each coordinate is then scaled and rounded with integer arithmetic
+ * alone, into a long of units of the last decimal: 1234 for 12.34 with two
+ * decimals.
+ * <p>
+ * Exact coordinates are rounded half up. Longs are used as long as they do
+ * not overflow, and large integers beyond that. Doubles are rounded as
+ * {@link Math#round(double)} rounds them.
+ * <p>
+ * Scaled coordinates which do not fit in a long make the long methods throw
+ * an {@link ArithmeticException}, as {@link Math#multiplyExact(long, long)}
+ * does, and the large methods scale them into large integers instead.
+ */
+public class FixedFormat {
+
+    // beyond nanometres, the long of a millimetre coordinate soon overflows
+    public static final int     MaxDecimals = 9;
+
+    private final int           decimals;
+    private final long          unit;
+    // display * unit = (x * numerator + offset) / denominator
+    private final long          numerator, offset, denominator;
+    private final LargeInteger  largeNumerator, largeOffset, largeDenominator;
+    private final double        doubleFactor, doubleOffset;
+
+    public FixedFormat (final int decimals, final Rational factor, final long offset) {
+        if (decimals < 0 || decimals > MaxDecimals)
+            throw new IllegalArgumentException("decimals must be between 0 and " + MaxDecimals + " (" + decimals + ")");
+        if (factor.getDivisor().bitLength() > 31 || factor.getDividend().bitLength() > 31)
+            throw new IllegalArgumentException("factor " + factor + " does not fit in ints");
+
+        long unit = 1;
+        for (int k = 0; k < decimals; ++k)
+            unit *= 10;
+
+        this.decimals       = decimals;
+        this.unit           = unit;
+        numerator           = Math.multiplyExact(factor.getDividend().longValue(), unit);
+        denominator         = factor.getDivisor().longValue();
+        this.offset         = Math.multiplyExact(Math.multiplyExact(offset, denominator), unit);
+        largeNumerator      = LargeInteger.valueOf(numerator);
+        largeOffset         = LargeInteger.valueOf(this.offset);
+        largeDenominator    = LargeInteger.valueOf(denominator);
+        doubleFactor        = factor.doubleValue();
+        doubleOffset        = offset;
+    }
+
+    public int getDecimals () {
+        return decimals;
+    }
+
+    /**
+     * @return 10 to the number of decimals: the scaled value of 1
+     */
+    public long getUnit () {
+        return unit;
+    }
+
+    private static long toLongExact (final LargeInteger li) {
+        if (li.isLessThan(minLong) || li.isGreaterThan(maxLong))
+            throw new ArithmeticException(li + " does not fit in a long");
+        return li.longValue();
+    }
+
+    /**
+     * @return x / q, transformed and scaled
+     * @throws ArithmeticException if that does not fit in a long
+     */
+    public long scale (final long x, final long q) {
+        try {
+            long    n   = Math.addExact(Math.multiplyExact(x, numerator), Math.multiplyExact(q, offset)),
+                    d   = Math.multiplyExact(q, denominator);
+            if (d < 0) {
+                n   = Math.negateExact(n);
+                d   = Math.negateExact(d);
+            }
+            // floor((n + d / 2) / d), in halves
+            return Math.floorDiv(Math.addExact(Math.multiplyExact(n, 2), d), Math.multiplyExact(d, 2));
+        }
+        catch (final ArithmeticException ex) {
+            return toLongExact(scaleLarge(LargeInteger.valueOf(x), LargeInteger.valueOf(q)));
+        }
+    }
+
+    /**
+     * @return x / q, transformed and scaled
+     * @throws ArithmeticException if that does not fit in a long
+     */
+    public long scale (final LargeInteger x, final LargeInteger q) {
+        if (x.bitLength() < 63 && q.bitLength() < 63)
+            return scale(x.longValue(), q.longValue());
+        return toLongExact(scaleLarge(x, q));
+    }
+
+    /**
+     * @return x / q, transformed and scaled, however large
+     */
+    public LargeInteger scaleLarge (final LargeInteger x, final LargeInteger q) {
+        LargeInteger    n   = x.times(largeNumerator).plus(q.times(largeOffset)),
+                        d   = q.times(largeDenominator);
+        if (d.isNegative()) {
+            n   = n.opposite();
+            d   = d.opposite();
+        }
+        final LargeInteger  halves  = n.times(2).plus(d),
+                            whole   = d.times(2);
+        // division truncates, so negative quotients are floored by hand
+        return halves.isNegative()? halves.opposite().plus(whole).minus(LargeInteger.ONE).divide(whole).opposite() : halves.divide(whole);
+    }
+
+    public long scale (final LargeInteger x) {
+        return scale(x, LargeInteger.ONE);
+    }
+
+    public LargeInteger scaleLarge (final LargeInteger x) {
+        return scaleLarge(x, LargeInteger.ONE);
+    }
+
+    public long scale (final Rational x) {
+        return scale(x.getDividend(), x.getDivisor());
+    }
+
+    public LargeInteger scaleLarge (final Rational x) {
+        return scaleLarge(x.getDividend(), x.getDivisor());
+    }
+
+    /**
+     * @return the sign of x, transformed but neither scaled nor rounded,
+     *          minus value
+     */
+    public int compare (final LargeInteger x, final long value) {
+        if (x.bitLength() < 63)
+            try {
+                return Long.signum(Math.subtractExact(Math.addExact(Math.multiplyExact(x.longValue(), numerator), offset), Math.multiplyExact(Math.multiplyExact(value, unit), denominator)));
+            }
+            catch (final ArithmeticException ex) {
+            }
+
+        return x.times(largeNumerator).plus(largeOffset).minus(LargeInteger.valueOf(value).times(unit).times(largeDenominator)).compareTo(LargeInteger.ZERO);
+    }
+
+    private double scaleDouble (final double x) {
+        return (x * doubleFactor + doubleOffset) * unit;
+    }
+
+    public long scale (final double x) {
+        final double scaled = scaleDouble(x);
+        // Math.round would saturate
+        if (!(Math.abs(scaled) < 0x1p63))
+            throw new ArithmeticException(scaled + " does not fit in a long");
+        return Math.round(scaled);
+    }
+
+    public LargeInteger scaleLarge (final double x) {
+        final double scaled = scaleDouble(x);
+        // doubles this large have no fraction left to round
+        return Math.abs(scaled) < 0x1p63? LargeInteger.valueOf(Math.round(scaled)) : LargeInteger.valueOf(new BigDecimal(scaled).toBigInteger());
+    }
+
+    /**
+     * @return the x of p, transformed and scaled, exactly unless p was
+     *          generated in doubles
+     * @throws ArithmeticException if that does not fit in a long
+     */
+    public long scaleX (final GeneratedPoint p) {
+        if (p instanceof CrossingPoint)
+            return scale(((CrossingPoint) p).getXNumerator(), ((CrossingPoint) p).getDenominator());
+        return p.isExact()? scale(p.getX()) : scale(p.getDoubleX());
+    }
+
+    /**
+     * @return the y of p, as {@link #scaleX(GeneratedPoint)}
+     */
+    public long scaleY (final GeneratedPoint p) {
+        if (p instanceof CrossingPoint)
+            return scale(((CrossingPoint) p).getYNumerator(), ((CrossingPoint) p).getDenominator());
+        return p.isExact()? scale(p.getY()) : scale(p.getDoubleY());
+    }
+
+    /**
+     * @return the x of p, as {@link #scaleX(GeneratedPoint)}, however large
+     */
+    public LargeInteger scaleLargeX (final GeneratedPoint p) {
+        if (p instanceof CrossingPoint)
+            return scaleLarge(LargeInteger.valueOf(((CrossingPoint) p).getXNumerator()), LargeInteger.valueOf(((CrossingPoint) p).getDenominator()));
+        return p.isExact()? scaleLarge(p.getX()) : scaleLarge(p.getDoubleX());
+    }
+
+    /**
+     * @return the y of p, as {@link #scaleLargeX(GeneratedPoint)}
+     */
+    public LargeInteger scaleLargeY (final GeneratedPoint p) {
+        if (p instanceof CrossingPoint)
+            return scaleLarge(LargeInteger.valueOf(((CrossingPoint) p).getYNumerator()), LargeInteger.valueOf(((CrossingPoint) p).getDenominator()));
+        return p.isExact()? scaleLarge(p.getY()) : scaleLarge(p.getDoubleY());
+    }
+}
@@ -2,10 +2,32 @@ package org.pseudosystems.geodaisia;
 
 import org.jscience.mathematics.number.Rational;
 
-public class GeneratedPoint extends Point<Rational> {
+public abstract class GeneratedPoint extends Point<Rational> {
 
-    private GeneratedPoint (Rational x, Rational y, Rational z, int j, int i, int n) {
-        super(x, y, z, j, i, n);
+    GeneratedPoint (int j, int i, int n) {
+        super(j, i, n);
+    }
+
+    /**
+     * Whether the coordinates are exact. Points generated with
+     * {@link Arithmetic#fast} are not: their x and y are doubles, and
+     * {@link #getX()} and {@link #getY()} give the exact value of those
+     * doubles.
+     */
+    public boolean isExact () {
+        return true;
+    }
+
+    public double getDoubleX () {
+        return getX().doubleValue();
+    }
+
+    public double getDoubleY () {
+        return getY().doubleValue();
+    }
+
+    public double getDoubleZ () {
+        return getZ().doubleValue();
     }
 
     public static GeneratedPoint create (long x, long y, long z, int j, int i, int n) {
@@ -21,6 +43,97 @@ public class GeneratedPoint extends Point<Rational> {
     }
 
     public static GeneratedPoint create (Rational x, Rational y, Rational z, int j, int i, int n) {
-        return new GeneratedPoint(x, y, z, j, i, n);
+        return new RationalPoint(x, y, z, j, i, n);
+    }
+
+    /**
+     * @param z exact, since points are grouped by height
+     */
+    public static GeneratedPoint createApproximate (double x, double y, Rational z) {
+        return new ApproximatePoint(x, y, z, -1, -1, -1);
+    }
+
+    /**
+     * An exact crossing of an edge at height z, kept as numerators over the
+     * denominator of the edge (see {@link CrossingPoint}).
+     *
+     * @param height z as a rational, which may be shared by all crossings
+     *          at that height
+     */
+    public static CrossingPoint createCrossing (long xnum, long ynum, long denominator, long z, Rational height) {
+        return new CrossingPoint(xnum, ynum, denominator, z, height);
+    }
+
+    private static final class RationalPoint extends GeneratedPoint {
+        private final Rational x, y, z;
+
+        private RationalPoint (Rational x, Rational y, Rational z, int j, int i, int n) {
+            super(j, i, n);
+            this.x = x;
+            this.y = y;
+            this.z = z;
+        }
+
+        @Override
+        public Rational getX () {
+            return x;
+        }
+
+        @Override
+        public Rational getY () {
+            return y;
+        }
+
+        @Override
+        public Rational getZ () {
+            return z;
+        }
+    }
+
+    private static final class ApproximatePoint extends GeneratedPoint {
+        private final double x, y;
+        private final Rational z;
+
+        private ApproximatePoint (double x, double y, Rational z, int j, int i, int n) {
+            super(j, i, n);
+            this.x = x;
+            this.y = y;
+            this.z = z;
+        }
+
+        @Override
+        public boolean isExact () {
+            return false;
+        }
+
+        @Override
+        public Rational getX () {
+            return Numbers.toRational(x);
+        }
+
+        @Override
+        public Rational getY () {
+            return Numbers.toRational(y);
+        }
+
+        @Override
+        public Rational getZ () {
+            return z;
+        }
+
+        @Override
+        public double getDoubleX () {
+            return x;
+        }
+
+        @Override
+        public double getDoubleY () {
+            return y;
+        }
+
+        @Override
+        public String toCoordString () {
+            return "(" + x + ',' + y + ',' + getZ() + ')';
+        }
     }
 }
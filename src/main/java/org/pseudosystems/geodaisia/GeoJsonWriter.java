@@ -0,0 +1,166 @@
+package org.pseudosystems.geodaisia;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import org.jscience.mathematics.number.LargeInteger;
+import org.jscience.mathematics.number.Rational;
+
+/**
+ * Writes features as a GeoJSON FeatureCollection, one feature to a line, as
+ * they come (see {@link AsciiWriter}). Declared points are Points with their
+ * height and their column, row and ordinal, null where unknown; crossings are
+ * Points with their height; contour lines are LineStrings with their height
+ * and tier, closed ones ending where they start.
+ * <p>
+ * Declared coordinates and round heights are written as the integers they
+ * are. Generated coordinates are written as doubles print, or with a number
+ * of decimals, rounded by a {@link FixedFormat}, in large integers if they
+ * do not fit in longs.
+ */
+public class GeoJsonWriter extends AsciiWriter implements FeatureWriter {
+
+    private static final int        Capacity        = 1 << 16;
+    private static final byte[]     Start           = ascii("{\"type\":\"FeatureCollection\",\"features\":["),
+                                    End             = ascii("\n]}\n"),
+                                    PointStart      = ascii("{\"type\":\"Feature\",\"geometry\":{\"type\":\"Point\",\"coordinates\":"),
+                                    LineStart       = ascii("{\"type\":\"Feature\",\"geometry\":{\"type\":\"LineString\",\"coordinates\":["),
+                                    PointKind       = ascii("},\"properties\":{\"kind\":\"point\",\"height\":"),
+                                    CrossingKind    = ascii("},\"properties\":{\"kind\":\"crossing\",\"height\":"),
+                                    ContourKind     = ascii("]},\"properties\":{\"kind\":\"contour\",\"height\":"),
+                                    J               = ascii(",\"j\":"),
+                                    I               = ascii(",\"i\":"),
+                                    N               = ascii(",\"n\":"),
+                                    Tier            = ascii(",\"tier\":"),
+                                    Null            = ascii("null"),
+                                    FeatureEnd      = ascii("}}");
+
+    private final FixedFormat   xs, ys;
+    private boolean             first           = true;
+
+    public GeoJsonWriter (final OutputStream outs) {
+        this(outs, SvgWriter.AsPrinted);
+    }
+
+    /**
+     * @param decimals of generated coordinates, or {@link SvgWriter#AsPrinted}
+     */
+    public GeoJsonWriter (final OutputStream outs, final int decimals) {
+        super(outs, Capacity);
+        if (decimals == SvgWriter.AsPrinted)
+            xs = ys = null;
+        else
+            xs = ys = new FixedFormat(decimals, Rational.ONE, 0);
+    }
+
+    private void writeSeparator () throws IOException {
+        if (!first)
+            write(',');
+        write('\n');
+        first = false;
+    }
+
+    private void write (final LargeInteger n) throws IOException {
+        write(n.toText());
+    }
+
+    private void writeHeight (final Rational h) throws IOException {
+        if (Numbers.isRound(h))
+            write(h.getDividend());
+        else
+            write(h.doubleValue());
+    }
+
+    private void writeOrdinal (final int k) throws IOException {
+        if (k == -1)
+            write(Null);
+        else
+            write(k, 0);
+    }
+
+    private void writeCoordinates (final GeneratedPoint p) throws IOException {
+        write('[');
+        if (xs == null)
+            write(p.getDoubleX());
+        else
+            try {
+                writeTrimmed(xs.scaleX(p), xs.getDecimals());
+            }
+            catch (final ArithmeticException ex) {
+                writeTrimmed(xs.scaleLargeX(p), xs.getDecimals());
+            }
+        write(',');
+        if (ys == null)
+            write(p.getDoubleY());
+        else
+            try {
+                writeTrimmed(ys.scaleY(p), ys.getDecimals());
+            }
+            catch (final ArithmeticException ex) {
+                writeTrimmed(ys.scaleLargeY(p), ys.getDecimals());
+            }
+        write(']');
+    }
+
+    @Override
+    public void writeStart () throws IOException {
+        write(Start);
+    }
+
+    @Override
+    public void writePoint (final DeclaredPoint p) throws IOException {
+        writeSeparator();
+        write(PointStart);
+        write('[');
+        write(p.getX());
+        write(',');
+        write(p.getY());
+        write(']');
+        write(PointKind);
+        write(p.getZ());
+        write(J);
+        writeOrdinal(p.getJ());
+        write(I);
+        writeOrdinal(p.getI());
+        write(N);
+        writeOrdinal(p.getN());
+        write(FeatureEnd);
+    }
+
+    @Override
+    public void writeCrossing (final GeneratedPoint p) throws IOException {
+        writeSeparator();
+        write(PointStart);
+        writeCoordinates(p);
+        write(CrossingKind);
+        writeHeight(p.getZ());
+        write(FeatureEnd);
+    }
+
+    @Override
+    public void writeContour (final Rational height, final int tier, final Path<GeneratedPoint> path) throws IOException {
+        writeSeparator();
+        write(LineStart);
+        GeneratedPoint start = null;
+        for (final GeneratedPoint p: path) {
+            if (start == null)
+                start = p;
+            else
+                write(',');
+            writeCoordinates(p);
+        }
+        if (path.isClosed()) {
+            write(',');
+            writeCoordinates(start);
+        }
+        write(ContourKind);
+        writeHeight(height);
+        write(Tier);
+        write(tier, 0);
+        write(FeatureEnd);
+    }
+
+    @Override
+    public void writeEnd () throws IOException {
+        write(End);
+    }
+}
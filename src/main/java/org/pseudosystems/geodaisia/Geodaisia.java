@@ -2,6 +2,7 @@ package org.pseudosystems.geodaisia;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
@@ -9,21 +10,21 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
-import java.util.List;
-import java.util.zip.GZIPOutputStream;
+import java.io.Reader;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileSystems;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
 
-import static org.pseudosystems.geodaisia.Collections.flattenIterables;
 import static org.pseudosystems.geodaisia.Constants.utf8;
-import static org.pseudosystems.geodaisia.IntermediatePointsGenerator.colouriseLines;
 import static org.pseudosystems.geodaisia.IntermediatePointsGenerator.generateAllIntermediateHeightPoints;
-import static org.pseudosystems.geodaisia.IntermediatePointsGenerator.generateHeightLines2;
 import static org.pseudosystems.geodaisia.IntermediatePointsGenerator.colourisePoints;
-import static org.pseudosystems.geodaisia.Persistance.loadPoints;
-import static org.pseudosystems.geodaisia.Renderer.writeLinesToSvg;
 import static org.pseudosystems.geodaisia.Renderer.writePointsToSvg;
-import static org.pseudosystems.geodaisia.Renderer.writeSvgFooter;
-import static org.pseudosystems.geodaisia.Renderer.writeSvgHeader;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
 import static java.lang.System.out;
 
 public class Geodaisia {
@@ -31,59 +32,406 @@ public class Geodaisia {
     private static class Config {
         OutputStream base_outs;
         InputStream base_inps;
+        // the names given, for watching
+        String output, input;
+        // only for regular files, which can be memory-mapped
+        FileChannel base_inch;
+        int parallelism = 1;
+        String binary_output;
+        boolean streaming;
+        boolean watching;
+        Arithmetic arithmetic = Arithmetic.exact;
+        ContourEngine engine = ContourEngine.nearest;
+        Contours contours = Contours.Default;
+        // the only levels to draw, or null for all
+        long[] levels;
+        int decimals = SvgWriter.AsPrinted;
+        LineForm form = LineForm.lines;
+        Compression compression = Compression.gzip;
+        // a format to export features in, or null to draw an SVG
+        ExportFormat export;
     }
 
     private static final String OPTION_OUTPUT = "o";
+    private static final String OPTION_PARALLELISM = "p";
+    private static final String OPTION_BINARY_OUTPUT = "b";
+    private static final String OPTION_MODE = "m";
+    private static final String OPTION_ARITHMETIC = "a";
+    private static final String OPTION_CONTOUR_ENGINE = "c";
+    private static final String OPTION_CONTOUR_INTERVALS = "i";
+    private static final String OPTION_CONTOUR_BASE = "z";
+    private static final String OPTION_LEVEL = "l";
+    private static final String OPTION_DECIMALS = "d";
+    private static final String OPTION_LINE_FORM = "f";
+    private static final String OPTION_COMPRESSION = "k";
+    private static final String OPTION_EXPORT = "e";
+    private static final String MODE_GRID = "grid";
+    private static final String MODE_STREAM = "stream";
+    private static final String MODE_WATCH = "watch";
+    private static final String EXPORT_SVG = "svg";
+    private static final long DISTANCE_THRESHOLD = 30;
+    // how long to wait for more events after a point file changes, since
+    // saving it usually makes several
+    private static final long WATCH_SETTLE_MILLIS = 50;
 
     private static Config parseArgs (final String[] args) throws FileNotFoundException {
         final Config config = new Config();
         final ArgumentParser argparser = new ArgumentParser();
 
         argparser.addOption(OPTION_OUTPUT);
+        argparser.addOption(OPTION_PARALLELISM);
+        argparser.addOption(OPTION_BINARY_OUTPUT);
+        argparser.addOption(OPTION_MODE);
+        argparser.addOption(OPTION_ARITHMETIC);
+        argparser.addOption(OPTION_CONTOUR_ENGINE);
+        argparser.addOption(OPTION_CONTOUR_INTERVALS);
+        argparser.addOption(OPTION_CONTOUR_BASE);
+        argparser.addOption(OPTION_LEVEL);
+        argparser.addOption(OPTION_DECIMALS);
+        argparser.addOption(OPTION_LINE_FORM);
+        argparser.addOption(OPTION_COMPRESSION);
+        argparser.addOption(OPTION_EXPORT);
 
         argparser.parse(args);
 
+        {
+            final String mode = argparser.getArgument(OPTION_MODE);
+            if (mode == null || mode.equals(MODE_GRID))
+                config.streaming = false;
+            else
+            if (mode.equals(MODE_STREAM))
+                config.streaming = true;
+            else
+            if (mode.equals(MODE_WATCH))
+                config.watching = true;
+            else
+                throw new IllegalArgumentException("unknown mode: " + mode);
+        }
+
         {
             final String output = argparser.getArgument(OPTION_OUTPUT);
             if (output == null || output.equals("-"))
                 config.base_outs = System.out;
             else
+            if (!config.watching)
                 config.base_outs = new FileOutputStream(output);
+            config.output = output;
+        }
+
+        {
+            final String parallelism = argparser.getArgument(OPTION_PARALLELISM);
+            if (parallelism != null)
+                try {
+                    config.parallelism = Integer.parseInt(parallelism);
+                }
+                catch (final NumberFormatException ex) {
+                    throw new IllegalArgumentException("unknown parallelism: " + parallelism);
+                }
+            if (config.parallelism < 1)
+                throw new IllegalArgumentException("parallelism must be at least 1 (" + parallelism + ")");
+        }
+
+        config.binary_output = argparser.getArgument(OPTION_BINARY_OUTPUT);
+
+        {
+            final String arithmetic = argparser.getArgument(OPTION_ARITHMETIC);
+            if (arithmetic == null)
+                {} // exact
+            else
+                try {
+                    config.arithmetic = Arithmetic.valueOf(arithmetic);
+                }
+                catch (final IllegalArgumentException ex) {
+                    throw new IllegalArgumentException("unknown arithmetic: " + arithmetic);
+                }
+        }
+
+        {
+            final String engine = argparser.getArgument(OPTION_CONTOUR_ENGINE);
+            if (engine != null)
+                try {
+                    config.engine = ContourEngine.valueOf(engine);
+                }
+                catch (final IllegalArgumentException ex) {
+                    throw new IllegalArgumentException("unknown contour engine: " + engine);
+                }
+        }
 
+        {
+            final String intervals = argparser.getArgument(OPTION_CONTOUR_INTERVALS);
+            final String base = argparser.getArgument(OPTION_CONTOUR_BASE);
+            if (intervals != null || base != null) {
+                final String[] parts = (intervals == null? Long.toString(Contours.Default.getInterval()) : intervals).split(",");
+                final long[] longs = new long[parts.length];
+                for (int k = 0; k < parts.length; ++k)
+                    try {
+                        longs[k] = Long.parseLong(parts[k]);
+                    }
+                    catch (final NumberFormatException ex) {
+                        throw new IllegalArgumentException("unknown contour interval: " + parts[k]);
+                    }
+                long baseHeight = 0;
+                if (base != null)
+                    try {
+                        baseHeight = Long.parseLong(base);
+                    }
+                    catch (final NumberFormatException ex) {
+                        throw new IllegalArgumentException("unknown contour base: " + base);
+                    }
+                config.contours = new Contours(baseHeight, longs);
+            }
+        }
+
+        {
+            final String levels = argparser.getArgument(OPTION_LEVEL);
+            if (levels != null) {
+                final String[] parts = levels.split(",");
+                config.levels = new long[parts.length];
+                for (int k = 0; k < parts.length; ++k)
+                    try {
+                        config.levels[k] = Long.parseLong(parts[k]);
+                    }
+                    catch (final NumberFormatException ex) {
+                        throw new IllegalArgumentException("unknown level: " + parts[k]);
+                    }
+            }
+        }
+
+        {
+            final String decimals = argparser.getArgument(OPTION_DECIMALS);
+            if (decimals != null) {
+                try {
+                    config.decimals = Integer.parseInt(decimals);
+                }
+                catch (final NumberFormatException ex) {
+                    throw new IllegalArgumentException("unknown decimals: " + decimals);
+                }
+                if (config.decimals < 0 || config.decimals > FixedFormat.MaxDecimals)
+                    throw new IllegalArgumentException("decimals must be between 0 and " + FixedFormat.MaxDecimals + " (" + decimals + ")");
+            }
+        }
+
+        {
+            final String form = argparser.getArgument(OPTION_LINE_FORM);
+            if (form != null)
+                try {
+                    config.form = LineForm.valueOf(form);
+                }
+                catch (final IllegalArgumentException ex) {
+                    throw new IllegalArgumentException("unknown line form: " + form);
+                }
+        }
+
+        {
+            final String compression = argparser.getArgument(OPTION_COMPRESSION);
+            if (compression != null)
+                try {
+                    config.compression = Compression.valueOf(compression);
+                }
+                catch (final IllegalArgumentException ex) {
+                    throw new IllegalArgumentException("unknown compression: " + compression);
+                }
+        }
+
+        {
+            final String export = argparser.getArgument(OPTION_EXPORT);
+            if (export == null || export.equals(EXPORT_SVG))
+                {} // drawn
+            else
+                try {
+                    config.export = ExportFormat.valueOf(export);
+                }
+                catch (final IllegalArgumentException ex) {
+                    throw new IllegalArgumentException("unknown export format: " + export);
+                }
+            if (config.export != null && config.watching)
+                throw new IllegalArgumentException("features cannot be exported when watching");
         }
 
         if (argparser.getArgumentsLength() > 0) {
             final String input = argparser.getArguments().iterator().next();
+            config.input = input;
             if (input.equals("-"))
                 config.base_inps = System.in;
-            else
-                config.base_inps = new FileInputStream(input);
+            else {
+                final FileInputStream fins = new FileInputStream(input);
+                config.base_inps = fins;
+                if (new File(input).isFile())
+                    config.base_inch = fins.getChannel();
+            }
         }
         else
             config.base_inps = System.in;
 
+        if (config.streaming && config.base_inch == null)
+            throw new IllegalArgumentException("streaming needs a point file, since it reads it twice");
+        if (config.streaming && config.binary_output != null)
+            throw new IllegalArgumentException("streaming never holds all points, so it cannot save them");
+        if (config.streaming && config.levels != null)
+            throw new IllegalArgumentException("streaming never holds all cells, so it cannot index them for a level");
+        if (config.watching && config.base_inch == null)
+            throw new IllegalArgumentException("watching needs a point file, which it reads again whenever it changes");
+        if (config.watching && config.base_outs == System.out)
+            throw new IllegalArgumentException("watching needs an output file, which it writes again whenever the points change");
+        if (config.watching && config.levels != null)
+            throw new IllegalArgumentException("watching keeps all levels, so it cannot draw only some");
+
         return config;
     }
 
+    private static PointGrid loadPoints (final Config config, final Reader r, final ForkJoinPool pool) throws IOException {
+        final PointGrid points;
+
+        if (config.base_inch == null)
+            points = Persistance.loadPoints(r);
+        else
+        if (Persistance.isBinaryPoints(config.base_inch))
+            points = Persistance.loadBinaryPoints(config.base_inch);
+        else
+        if (pool == null)
+            points = Persistance.loadPoints(config.base_inch);
+        else
+            points = Persistance.loadPoints(config.base_inch, pool);
+
+        if (config.binary_output != null)
+            try (final FileOutputStream bouts = new FileOutputStream(config.binary_output)) {
+                Persistance.saveBinaryPoints(points, bouts);
+            }
+
+        return points;
+    }
+
+    private static CrossingBuffer generateIntermediates (final Config config, final PointGrid points, final CellIndex index, final Arithmetic arithmetic, final ForkJoinPool pool) {
+        if (index != null)
+            return index.generateLevels(config.levels, arithmetic);
+        else
+            return generateAllIntermediateHeightPoints(points, arithmetic, config.contours, pool);
+    }
+
+    private static PointGrid reloadPoints (final Config config) throws IOException {
+        try (
+                final FileInputStream fins = new FileInputStream(config.input);
+                final InputStreamReader r = new InputStreamReader(fins, utf8);
+        ) {
+            config.base_inch = fins.getChannel();
+            return loadPoints(config, r, null);
+        }
+    }
+
+    private static void writeWatched (final Config config, final IncrementalRenderer renderer, final ForkJoinPool pool) throws IOException {
+        try (
+                final BufferedOutputStream bouts = new BufferedOutputStream(new FileOutputStream(config.output), 10240);
+                final OutputStream zouts = config.compression.compress(bouts, pool);
+                final SvgWriter svg = new SvgWriter(zouts, config.decimals);
+        ) {
+            renderer.write(svg);
+        }
+    }
+
+    /**
+     * Renders the point file, then renders it again whenever it changes,
+     * keeping everything in memory in between, so that only what changed is
+     * generated and rendered again. It runs until interrupted. A point file
+     * which cannot be loaded, as it may be halfway through being saved, is
+     * skipped until it changes again.
+     */
+    private static void watch (final Config config, final ForkJoinPool pool) throws IOException {
+        final java.nio.file.Path    input       = new File(config.input).getAbsoluteFile().toPath(),
+                                    name        = input.getFileName();
+        final IncrementalRenderer   renderer    = new IncrementalRenderer(loadPoints(config, new InputStreamReader(config.base_inps, utf8), pool), DISTANCE_THRESHOLD, config.arithmetic, config.engine, config.contours, config.decimals, config.form, pool);
+        config.base_inps.close();
+        writeWatched(config, renderer, pool);
+        out.println("points loaded, level lines and intermediate points generated and written, watching " + input);
+
+        try (final WatchService watcher = FileSystems.getDefault().newWatchService()) {
+            input.getParent().register(watcher, ENTRY_CREATE, ENTRY_MODIFY);
+            for (;;) {
+                boolean changed = false;
+                for (WatchKey key = watcher.take(); key != null; key = watcher.poll(WATCH_SETTLE_MILLIS, TimeUnit.MILLISECONDS)) {
+                    for (final WatchEvent<?> event: key.pollEvents())
+                        if (name.equals(event.context()))
+                            changed = true;
+                    key.reset();
+                }
+                if (!changed)
+                    continue;
+
+                final long started = System.nanoTime();
+                final PointGrid points;
+                try {
+                    points = reloadPoints(config);
+                }
+                catch (final IOException | RuntimeException ex) {
+                    out.println("points not reloaded: " + ex);
+                    continue;
+                }
+                final int cells = renderer.update(points);
+                writeWatched(config, renderer, pool);
+                out.println("points reloaded, " + (cells == -1? "all" : Integer.toString(cells)) + " cells generated again and written in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started) + "ms");
+            }
+        }
+        catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
     public static void main (final String[] args) throws IOException {
         final Config config = parseArgs(args);
+        final ForkJoinPool pool = config.parallelism > 1? new ForkJoinPool(config.parallelism) : null;
+        if (config.watching) {
+            try {
+                watch(config, pool);
+            }
+            finally {
+                if (pool != null)
+                    pool.shutdown();
+            }
+            return;
+        }
         try (
                 final BufferedOutputStream bouts = new BufferedOutputStream(config.base_outs, 10240);
-                final GZIPOutputStream gzouts = new GZIPOutputStream(bouts, 10240, true);
-                final OutputStreamWriter w = new OutputStreamWriter(gzouts, utf8);
+                final OutputStream zouts = config.compression.compress(bouts, pool);
+                // either, the other one null
+                final SvgWriter svg = config.export == null? new SvgWriter(zouts, config.decimals) : null;
+                final FeatureWriter features = config.export == null? null : config.export.open(zouts, config.decimals);
                 final BufferedInputStream bins = new BufferedInputStream(config.base_inps, 10240);
                 final InputStreamReader r = new InputStreamReader(bins, utf8);
         ) {
-            final List<? extends List<? extends DeclaredPoint>> points = loadPoints(r);
+            if (config.streaming && features != null) {
+                BandStreamer.export(config.base_inch, features, DISTANCE_THRESHOLD, config.arithmetic, config.engine, config.contours);
+                out.println("points streamed, level lines and intermediate points generated and exported");
+                return;
+            }
+            if (config.streaming) {
+                BandStreamer.render(config.base_inch, svg, DISTANCE_THRESHOLD, config.arithmetic, config.engine, config.contours, config.form);
+                out.println("points streamed, level lines and intermediate points generated, colourised and written");
+                return;
+            }
+
+            final PointGrid points = loadPoints(config, r, pool);
             out.println("points loaded");
-            final List<? extends List<? extends List<? extends GeneratedPoint>>> intermediates = generateAllIntermediateHeightPoints(points);
+            final CellIndex index = config.levels == null? null : new CellIndex(points);
+            final CrossingBuffer crossings = generateIntermediates(config, points, index, config.arithmetic, pool);
             out.println("intermediates generated");
-            writeSvgHeader(w);
-            writeLinesToSvg(w, colouriseLines(generateHeightLines2(intermediates, 30)));
+            if (features != null) {
+                features.writeStart();
+                Exporter.exportContours(features, config.engine.generateLines(crossings, DISTANCE_THRESHOLD, pool), config.contours);
+                out.println("level lines generated and exported");
+                Exporter.exportPoints(features, points, crossings);
+                out.println("intermediate points exported");
+                features.writeEnd();
+                return;
+            }
+            svg.writeHeader();
+            config.form.write(svg, config.engine.generateLines(crossings, DISTANCE_THRESHOLD, pool), config.contours);
             out.println("level lines generated, colourised and written");
-            writePointsToSvg(w, flattenIterables(points), colourisePoints(flattenIterables(flattenIterables(intermediates))));
+            writePointsToSvg(svg, points, crossings, colourisePoints(crossings));
             out.println("intermediate points colourised and written");
-            writeSvgFooter(w);
+            svg.writeFooter();
+        }
+        finally {
+            if (pool != null)
+                pool.shutdown();
         }
     }
 
@@ -8,6 +8,7 @@ import org.jscience.mathematics.number.Real;
 import static org.pseudosystems.geodaisia.Constants.half;
 import static org.pseudosystems.geodaisia.Numbers.det;
 import static org.pseudosystems.geodaisia.Points.distance;
+import static org.pseudosystems.geodaisia.Predicates.orientation;
 
 public class Geometry {
 
@@ -41,8 +42,29 @@ public class Geometry {
         return half.times(area);
     }
 
-//    public static boolean intersect (final Line l1, final Line l2) {
-//
-//    }
+    private static boolean overlap (final Rational a0, final Rational a1, final Rational b0, final Rational b1) {
+        final Rational  alo = a0.isLessThan(a1)? a0 : a1,
+                        ahi = a0.isLessThan(a1)? a1 : a0,
+                        blo = b0.isLessThan(b1)? b0 : b1,
+                        bhi = b0.isLessThan(b1)? b1 : b0;
+        return !ahi.isLessThan(blo) && !bhi.isLessThan(alo);
+    }
+
+    /**
+     * @return whether the segments of the two lines meet, at an end too,
+     *          decided exactly by the orientations of their ends
+     */
+    public static boolean intersect (final Line l1, final Line l2) {
+        final GeneratedPoint    a   = l1.getBeginning(),    b   = l1.getEnd(),
+                                c   = l2.getBeginning(),    d   = l2.getEnd();
+        final int               abc = orientation(a, b, c), abd = orientation(a, b, d),
+                                cda = orientation(c, d, a), cdb = orientation(c, d, b);
+
+        if (abc == 0 && abd == 0 && cda == 0 && cdb == 0)
+            // all on one line, where they meet if they overlap
+            return overlap(a.getX(), b.getX(), c.getX(), d.getX()) && overlap(a.getY(), b.getY(), c.getY(), d.getY());
+
+        return abc * abd <= 0 && cda * cdb <= 0;
+    }
 
 }
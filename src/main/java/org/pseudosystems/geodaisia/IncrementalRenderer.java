@@ -0,0 +1,403 @@
+package org.pseudosystems.geodaisia;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+import org.jscience.mathematics.number.Rational;
+
+import static org.pseudosystems.geodaisia.IntermediatePointsGenerator.generateAllIntermediateHeightPoints;
+import static org.pseudosystems.geodaisia.IntermediatePointsGenerator.generateCellIntermediateHeightPoints;
+import static org.pseudosystems.geodaisia.IntermediatePointsGenerator.generateLevelLines;
+import static org.pseudosystems.geodaisia.IntermediatePointsGenerator.makeColourscales;
+
+/**
+ * Keeps the crossings, the lines and the rendered SVG of a grid of points,
+ * so that when a new version of the grid comes, with a few points corrected,
+ * only the cells around the changed points are generated, traced and
+ * rendered again.
+ * <p>
+ * The crossings are kept in a buffer, which is built again, cell by cell,
+ * in the order of the grid: the unchanged cells are copied over, and so are
+ * the sides of the changed cells which run between unchanged points; the
+ * rest are generated once, shared by the changed cells on both sides. With
+ * {@link ContourEngine#nearest} lines chain all the crossings of a level, so
+ * each level with a crossing in a changed cell, before or after, is chained
+ * again. With {@link ContourEngine#marching} tracing is linear, so all
+ * cells are traced again.
+ * <p>
+ * The SVG is kept in pieces: the lines of each level, or each line by its
+ * points, the crossings of each cell, and each point of the grid. Only the
+ * pieces of what changed are rendered again, unless the levels change, along
+ * with the colour scale. The output is then the same as that of the new
+ * grid rendered from scratch. Lines written as {@link LineForm#paths} are
+ * kept by level, for nearest, but not at all for marching, since each path
+ * may run through any of the cells.
+ */
+public class IncrementalRenderer {
+
+    // the offsets of the corners of a cell, in the order of the dealers
+    private static final int[]  CornerJ = {0, 1, 1, 0},
+                                CornerI = {0, 0, 1, 1};
+
+    private final long                              distanceThreshold;
+    private final Arithmetic                        arithmetic;
+    private final ContourEngine                     engine;
+    private final Contours                          contours;
+    private final LineForm                          form;
+    // the grid is generated on, whenever it is generated from scratch, or
+    // null for this thread
+    private final ForkJoinPool                      pool;
+    private PointGrid                               points;
+    // the cell of the buffer of each cell of the grid, (j, i) at
+    // j * (columns - 1) + i, or -1 for cells without a valid corner
+    private int[]                                   cells;
+    private CrossingBuffer                          crossings;
+    // the lines of each level, for nearest, or all of them, for marching
+    private final SortedMap<Rational, List<Line>>   levelLines  = new TreeMap<>();
+    private List<? extends Line>                    lines;
+    // the number of lines at each height, whose heights the lines are
+    // coloured by
+    private final SortedMap<Rational, Integer>      lineCounts  = new TreeMap<>();
+    private Map<? super Rational, ? extends Colour> lineColours, crossingColours;
+    private SortedSet<Rational>                     lineLevels, crossingLevels;
+    // the rendered pieces, null or missing where they are to be rendered
+    // again
+    private final Map<Rational, byte[]>             renderedLevels  = new HashMap<>();
+    private Map<Segment, byte[]>                    renderedLines   = new HashMap<>();
+    private byte[][]                                renderedCrossings, renderedPoints;
+    // renders each piece, kept in memory
+    private final SvgWriter                         piece;
+
+    /**
+     * A line, by the locations it runs between, since its points are made
+     * anew each time the lines are traced.
+     */
+    private static final class Segment {
+        private final Location beginning, end;
+
+        private Segment (final Line line) {
+            this.beginning  = Location.of(line.getBeginning());
+            this.end        = Location.of(line.getEnd());
+        }
+
+        @Override
+        public boolean equals (final Object o) {
+            return o instanceof Segment && ((Segment) o).beginning.equals(beginning) && ((Segment) o).end.equals(end);
+        }
+
+        @Override
+        public int hashCode () {
+            return beginning.hashCode() * 31 + end.hashCode();
+        }
+    }
+
+    /**
+     * Generates everything for the given grid, on the pool if one is given.
+     */
+    public IncrementalRenderer (final PointGrid points, final long distanceThreshold, final Arithmetic arithmetic, final ContourEngine engine, final Contours contours, final ForkJoinPool pool) {
+        this(points, distanceThreshold, arithmetic, engine, contours, SvgWriter.AsPrinted, LineForm.lines, pool);
+    }
+
+    /**
+     * @param decimals of the coordinates of the pieces (see
+     *          {@link SvgWriter#SvgWriter(int)})
+     * @param form the lines are written in
+     */
+    public IncrementalRenderer (final PointGrid points, final long distanceThreshold, final Arithmetic arithmetic, final ContourEngine engine, final Contours contours, final int decimals, final LineForm form, final ForkJoinPool pool) {
+        this.distanceThreshold  = distanceThreshold;
+        this.arithmetic         = arithmetic;
+        this.engine             = engine;
+        this.contours           = contours;
+        this.form               = form;
+        this.pool               = pool;
+        piece                   = new SvgWriter(decimals);
+        reset(points);
+    }
+
+    private int getCellRows () {
+        return Math.max(points.getRows() - 1, 0);
+    }
+
+    private int getCellColumns () {
+        return Math.max(points.getColumns() - 1, 0);
+    }
+
+    private boolean hasValidCorner (final int j, final int i) {
+        for (int c = 0; c < 4; ++c)
+            if (points.isValid(j + CornerJ[c], i + CornerI[c]))
+                return true;
+        return false;
+    }
+
+    private void reset (final PointGrid newPoints) {
+        points = newPoints;
+
+        final int cellRows = getCellRows(), cellColumns = getCellColumns();
+        crossings = generateAllIntermediateHeightPoints(points, arithmetic, contours, pool);
+        cells = new int[cellRows * cellColumns];
+        {
+            // the cells with a valid corner, in order
+            int c = 0;
+            for (int g = 0; g < cells.length; ++g)
+                cells[g] = hasValidCorner(g / cellColumns, g % cellColumns)? c++ : -1;
+            assert(c == crossings.getCellCount());
+        }
+
+        levelLines.clear();
+        lineCounts.clear();
+        if (engine == ContourEngine.nearest)
+            for (final Line line: engine.generateLines(crossings, distanceThreshold, pool)) {
+                final Rational height = Points.getHeight(line);
+                List<Line> level = levelLines.get(height);
+                if (level == null)
+                    levelLines.put(height, level = new ArrayList<>());
+                level.add(line);
+                count(height, 1);
+            }
+        else
+            traceLines();
+
+        renderedLevels.clear();
+        renderedLines.clear();
+        renderedCrossings   = new byte[cells.length][];
+        renderedPoints      = new byte[points.getRows() * points.getColumns()][];
+        lineLevels          = null;
+        crossingLevels      = null;
+    }
+
+    private void count (final Rational height, final int added) {
+        final Integer count = lineCounts.get(height);
+        final int result = (count == null? 0 : count) + added;
+        if (result == 0)
+            lineCounts.remove(height);
+        else
+            lineCounts.put(height, result);
+    }
+
+    /**
+     * Traces all cells again, which takes time linear in the crossings; only
+     * the lines are rendered again which were not there before.
+     */
+    private void traceLines () {
+        lines = MarchingSquares.traceHeightLines(crossings);
+        lineCounts.clear();
+        for (final Line line: lines)
+            count(Points.getHeight(line), 1);
+    }
+
+    private void setLevelLines (final Rational height, final List<Line> level) {
+        final List<Line> old = level.isEmpty()? levelLines.remove(height) : levelLines.put(height, level);
+        count(height, level.size() - (old == null? 0 : old.size()));
+    }
+
+    private static boolean isSame (final PointGrid a, final PointGrid b, final int j, final int i) {
+        final boolean valid = a.isValid(j, i);
+        if (valid != b.isValid(j, i))
+            return false;
+        if (!valid)
+            return true;
+
+        final int ka = a.indexOf(j, i), kb = b.indexOf(j, i);
+        if (!a.isExact(ka) && !b.isExact(kb))
+            return a.getX(ka) == b.getX(kb) && a.getY(ka) == b.getY(kb) && a.getZ(ka) == b.getZ(kb) && a.getN(ka) == b.getN(kb);
+
+        final DeclaredPoint p = a.get(j, i), q = b.get(j, i);
+        return p.getX().equals(q.getX()) && p.getY().equals(q.getY()) && p.getZ().equals(q.getZ()) && p.getN() == q.getN();
+    }
+
+    private static void collectHeights (final SortedSet<? super Rational> into, final CrossingBuffer buffer, final int c) {
+        if (c != -1)
+            for (final CrossingBuffer.Cursor p = buffer.edges(c); p.next();)
+                into.add(p.getHeight());
+    }
+
+    /**
+     * Takes the new version of the grid in: only the cells with a changed
+     * corner are generated and traced again, unless the grid is of another
+     * size, when everything is, on the pool the renderer was made with.
+     *
+     * @return the number of cells generated again, or -1 if all were
+     */
+    public int update (final PointGrid newPoints) {
+        if (newPoints.getRows() != points.getRows() || newPoints.getColumns() != points.getColumns()) {
+            reset(newPoints);
+            return -1;
+        }
+
+        final int               rows        = points.getRows(),
+                                columns     = points.getColumns(),
+                                cellColumns = getCellColumns();
+        final boolean[]         changed     = new boolean[rows * columns],
+                                marked      = new boolean[cells.length];
+        final List<Integer>     dirty       = new ArrayList<>();
+        for (int j = 0; j < rows; ++j)
+            for (int i = 0; i < columns; ++i)
+                if (!isSame(points, newPoints, j, i)) {
+                    changed[j * columns + i]        = true;
+                    renderedPoints[j * columns + i] = null;
+                    for (int cj = Math.max(j - 1, 0); cj <= j && cj < rows - 1; ++cj)
+                        for (int ci = Math.max(i - 1, 0); ci <= i && ci < columns - 1; ++ci)
+                            marked[cj * cellColumns + ci] = true;
+                }
+        for (int c = 0; c < marked.length; ++c)
+            if (marked[c])
+                dirty.add(c);
+        points = newPoints;
+        if (dirty.isEmpty())
+            return 0;
+
+        // the cells are taken over or generated in the order of the grid, so
+        // the side of each cell shared with the one to its left and the one
+        // above it, where it has them, is already in the new buffer
+        final CrossingBuffer    generated   = new CrossingBuffer();
+        final int[]             newCells    = new int[cells.length],
+                                above       = new int[cellColumns],
+                                shared      = new int[4],
+                                kept        = new int[4];
+        final SortedSet<Rational> heights   = new TreeSet<>();
+
+        Arrays.fill(above, -1);
+        for (int c = 0; c < cells.length; ++c) {
+            final int   j   = c / cellColumns, i = c % cellColumns,
+                        old = cells[c];
+
+            Arrays.fill(shared, -1);
+            if (i > 0 && newCells[c - 1] != -1)
+                shared[0] = CrossingBuffer.slot(newCells[c - 1], 2);
+            shared[3] = above[i];
+
+            if (!marked[c])
+                newCells[c] = old == -1? -1 : generated.copyCell(crossings, old, shared);
+            else {
+                collectHeights(heights, crossings, old);
+                for (int k = 0; k < 4; ++k) {
+                    final int   j0  = j + CornerJ[k],           i0  = i + CornerI[k],
+                                j1  = j + CornerJ[(k + 1) % 4], i1  = i + CornerI[(k + 1) % 4];
+                    kept[k] = old != -1 && !changed[j0 * columns + i0] && !changed[j1 * columns + i1]? CrossingBuffer.slot(old, k) : -1;
+                }
+                newCells[c] = hasValidCorner(j, i)? generateCellIntermediateHeightPoints(generated, points, j, i, shared, crossings, kept, arithmetic, contours) : -1;
+                renderedCrossings[c] = null;
+            }
+
+            above[i] = newCells[c] == -1? -1 : CrossingBuffer.slot(newCells[c], 1);
+        }
+        cells       = newCells;
+        crossings   = generated.finish();
+        for (final int c: dirty)
+            collectHeights(heights, crossings, cells[c]);
+
+        if (engine == ContourEngine.nearest)
+            for (final Rational height: heights) {
+                final int level = crossings.getLevel(height);
+                setLevelLines(height, level == -1? new ArrayList<Line>() : generateLevelLines(crossings, level, distanceThreshold));
+                renderedLevels.remove(height);
+            }
+        else
+            traceLines();
+
+        return dirty.size();
+    }
+
+    /**
+     * Makes the colour scales of the current levels, and drops the pieces
+     * rendered with a scale which no longer holds.
+     */
+    private void updateColours () {
+        final SortedSet<Rational> newLineLevels = new TreeSet<>(lineCounts.keySet());
+        if (!newLineLevels.equals(lineLevels)) {
+            lineLevels  = newLineLevels;
+            lineColours = makeColourscales(lineLevels);
+            renderedLevels.clear();
+            renderedLines.clear();
+        }
+
+        final SortedSet<Rational> newCrossingLevels = new TreeSet<>();
+        for (int level = 0; level < crossings.getLevelCount(); ++level)
+            newCrossingLevels.add(crossings.getHeight(level));
+        if (!newCrossingLevels.equals(crossingLevels)) {
+            crossingLevels  = newCrossingLevels;
+            crossingColours = makeColourscales(crossingLevels);
+            Arrays.fill(renderedCrossings, null);
+        }
+    }
+
+    private byte[] renderLines (final List<? extends Line> lines) throws IOException {
+        piece.reset();
+        form.write(piece, lines, lineColours, contours);
+        return piece.toByteArray();
+    }
+
+    private byte[] renderCrossings (final int c) throws IOException {
+        piece.reset();
+        for (final CrossingBuffer.Cursor p = crossings.edges(c); p.next();) {
+            piece.writePoint(p.getPoint(), crossingColours.get(p.getHeight()));
+            piece.write('\n');
+        }
+        return piece.toByteArray();
+    }
+
+    private byte[] renderPoint (final DeclaredPoint p) throws IOException {
+        piece.reset();
+        piece.writePoint(p);
+        piece.write('\n');
+        return piece.toByteArray();
+    }
+
+    /**
+     * Writes the whole SVG, as {@link Geodaisia} does, rendering again only
+     * the pieces which changed.
+     */
+    public void write (final SvgWriter svg) throws IOException {
+        updateColours();
+        svg.writeHeader();
+
+        if (engine == ContourEngine.nearest)
+            for (final Map.Entry<Rational, List<Line>> entry: levelLines.entrySet()) {
+                byte[] rendered = renderedLevels.get(entry.getKey());
+                if (rendered == null)
+                    renderedLevels.put(entry.getKey(), rendered = renderLines(entry.getValue()));
+                svg.write(rendered);
+            }
+        else
+        if (form == LineForm.paths)
+            form.write(svg, lines, lineColours, contours);
+        else {
+            // the lines no longer there are dropped
+            final Map<Segment, byte[]> rendered = new HashMap<>(lines.size() * 2);
+            for (final Line line: lines) {
+                final Segment segment = new Segment(line);
+                byte[] markup = renderedLines.get(segment);
+                if (markup == null)
+                    markup = renderLines(java.util.Collections.singletonList(line));
+                rendered.put(segment, markup);
+                svg.write(markup);
+            }
+            renderedLines = rendered;
+        }
+
+        for (int c = 0; c < cells.length; ++c)
+            if (cells[c] != -1) {
+                if (renderedCrossings[c] == null)
+                    renderedCrossings[c] = renderCrossings(cells[c]);
+                svg.write(renderedCrossings[c]);
+            }
+
+        for (int j = 0; j < points.getRows(); ++j)
+            for (int i = points.nextValid(j, 0); i != -1; i = points.nextValid(j, i + 1)) {
+                final int k = j * points.getColumns() + i;
+                if (renderedPoints[k] == null)
+                    renderedPoints[k] = renderPoint(points.get(j, i));
+                svg.write(renderedPoints[k]);
+            }
+
+        svg.writeFooter();
+    }
+}
@@ -1,48 +1,86 @@
 package org.pseudosystems.geodaisia;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.SortedMap;
 import java.util.SortedSet;
+import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 import org.jscience.mathematics.number.LargeInteger;
 import org.jscience.mathematics.number.Rational;
 
-import static org.pseudosystems.geodaisia.Constants.ten;
 import static org.pseudosystems.geodaisia.Numbers.isGreaterThanOrEqualTo;
-import static org.pseudosystems.geodaisia.Numbers.isLessThanOrEqualTo;
 import static org.pseudosystems.geodaisia.Numbers.isRound;
 import static org.pseudosystems.geodaisia.Numbers.toInt;
 import static org.pseudosystems.geodaisia.Numbers.toRational;
 import static org.pseudosystems.geodaisia.Numbers.toLargeInt;
 import static org.pseudosystems.geodaisia.Numbers.minus;
-import static org.pseudosystems.geodaisia.Points.distance;
 import static org.pseudosystems.geodaisia.Points.lessZ;
 import static org.pseudosystems.geodaisia.Points.maxZ;
-import static org.jscience.mathematics.number.LargeInteger.ZERO;
 
 public class IntermediatePointsGenerator {
 
-    public static LargeInteger nextHeightmark (final LargeInteger currentHeightmark) {
-        // find remaining distance to next round value
-        final LargeInteger remains = currentHeightmark.mod(ten);
-        assert(isGreaterThanOrEqualTo(remains, ZERO));
+    // rows of cells generated as a task, at the least
+    private static final int MinBandRows = 4;
 
-        final LargeInteger stepToNext = ten.minus(remains);
-        assert(isLessThanOrEqualTo(stepToNext, ten));
-        assert(isGreaterThanOrEqualTo(stepToNext, ZERO));
+    /**
+     * @return the next level of {@link Contours#Default} above the given
+     *          height
+     */
+    public static LargeInteger nextHeightmark (final LargeInteger currentHeightmark) {
+        return Contours.Default.firstAbove(currentHeightmark);
+    }
 
-        final LargeInteger next = currentHeightmark.plus(stepToNext);
-        assert(next.mod(ten).equals(ZERO));
-        return next;
+    public static long nextHeightmark (final long currentHeightmark) {
+        return Contours.Default.firstAbove(currentHeightmark);
     }
 
     public static int generateAllIntermediateHeightPointsBetween (final List<? super GeneratedPoint> into, final DeclaredPoint p1, final DeclaredPoint p2) {
+        return generateAllIntermediateHeightPointsBetween(into, p1, p2, Arithmetic.exact);
+    }
+
+    public static int generateAllIntermediateHeightPointsBetween (final List<? super GeneratedPoint> into, final DeclaredPoint p1, final DeclaredPoint p2, final Arithmetic arithmetic) {
+        return generateAllIntermediateHeightPointsBetween(into, p1, p2, arithmetic, Contours.Default);
+    }
+
+    public static int generateAllIntermediateHeightPointsBetween (final List<? super GeneratedPoint> into, final DeclaredPoint p1, final DeclaredPoint p2, final Arithmetic arithmetic, final Contours contours) {
+        return generateAllIntermediateHeightPointsBetween(into, p1, p2, arithmetic, contours, new HashMap<Long, Rational>());
+    }
+
+    /**
+     * @param heights the rationals of the heights crossed so far, by height
+     * @return the rational of the given height, made once per map, so that
+     *          the crossings generated with it all share it
+     */
+    private static Rational getHeight (final Map<Long, Rational> heights, final long height) {
+        Rational result = heights.get(height);
+
+        if (result == null) {
+            result = Rational.valueOf(height, 1l);
+            heights.put(height, result);
+        }
+
+        return result;
+    }
+
+    /**
+     * Generates the crossings of the edge between p1 and p2 (see
+     * {@link Contours}), by increasing height.
+     *
+     * @param heights the rationals of the heights crossed so far, by height,
+     *          which the crossings share and to which new ones are added; a
+     *          map is only ever used by one thread at a time
+     */
+    public static int generateAllIntermediateHeightPointsBetween (final List<? super GeneratedPoint> into, final DeclaredPoint p1, final DeclaredPoint p2, final Arithmetic arithmetic, final Contours contours, final Map<Long, Rational> heights) {
         int result = 0;
 
         if (p1.getZ().equals(p2.getZ()))
@@ -50,13 +88,66 @@ public class IntermediatePointsGenerator {
             {}
         else {
             final DeclaredPoint first = lessZ(p1, p2), last = maxZ(p1, p2);
-            final LargeInteger zfirst = first.getZ(), zlast = last.getZ();
+            final CrossingEdge edge = CrossingEdge.create(first, last);
+
+            if (edge != null) {
+                final long  interval    = contours.getInterval(),
+                            count       = contours.countFrom(edge.getLowerZ(), edge.getUpperZ());
 
-            for (LargeInteger height = zfirst; height.isLessThan(zlast); height = nextHeightmark(height)) {
-                GeneratedPoint interpolated = Points.interpolate(first, last, Points.heightRatio(first, last, height));
-                assert(isRound(interpolated.getZ()) && interpolated.getZ().getDividend().equals(height));
-                into.add(interpolated);
-                ++result;
+                for (long k = 0, height = contours.firstFrom(edge.getLowerZ()); k < count; ++k, height += interval) {
+                    final GeneratedPoint interpolated = arithmetic.interpolate(edge, height, getHeight(heights, height));
+                    assert(isRound(interpolated.getZ()) && interpolated.getZ().getDividend().longValue() == height);
+                    into.add(interpolated);
+                    ++result;
+                }
+            }
+            else {
+                final LargeInteger  interval    = LargeInteger.valueOf(contours.getInterval()),
+                                    count       = contours.countFrom(first.getZ(), last.getZ());
+
+                LargeInteger height = contours.firstFrom(first.getZ());
+                for (LargeInteger k = LargeInteger.ZERO; k.isLessThan(count); k = k.plus(LargeInteger.ONE), height = height.plus(interval)) {
+                    GeneratedPoint interpolated = arithmetic.interpolate(first, last, height);
+                    assert(isRound(interpolated.getZ()) && interpolated.getZ().getDividend().equals(height));
+                    into.add(interpolated);
+                    ++result;
+                }
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Generates the crossings of the edge between p1 and p2, as
+     * {@link #generateAllIntermediateHeightPointsBetween(List, DeclaredPoint, DeclaredPoint, Arithmetic, Contours)}
+     * does, into the edge being generated in the buffer.
+     */
+    static int generateAllIntermediateHeightPointsBetween (final CrossingBuffer into, final DeclaredPoint p1, final DeclaredPoint p2, final Arithmetic arithmetic, final Contours contours) {
+        int result = 0;
+
+        if (!p1.getZ().equals(p2.getZ())) {
+            final DeclaredPoint first = lessZ(p1, p2), last = maxZ(p1, p2);
+            final CrossingEdge edge = CrossingEdge.create(first, last);
+
+            if (edge != null) {
+                final long  interval    = contours.getInterval(),
+                            count       = contours.countFrom(edge.getLowerZ(), edge.getUpperZ());
+
+                for (long k = 0, height = contours.firstFrom(edge.getLowerZ()); k < count; ++k, height += interval) {
+                    arithmetic.interpolate(into, edge, height);
+                    ++result;
+                }
+            }
+            else {
+                final LargeInteger  interval    = LargeInteger.valueOf(contours.getInterval()),
+                                    count       = contours.countFrom(first.getZ(), last.getZ());
+
+                LargeInteger height = contours.firstFrom(first.getZ());
+                for (LargeInteger k = LargeInteger.ZERO; k.isLessThan(count); k = k.plus(LargeInteger.ONE), height = height.plus(interval)) {
+                    into.append(arithmetic.interpolate(first, last, height));
+                    ++result;
+                }
             }
         }
 
@@ -77,68 +168,417 @@ public class IntermediatePointsGenerator {
         return result;
     }
 
-    public static List<? extends List<? extends List<? extends GeneratedPoint>>> generateAllIntermediateHeightPoints (final List<? extends List<? extends DeclaredPoint>> points) {
-        final int width = points.size();
-        assert(width > 1);
-        final int height = points.get(0).size();
-        assert(height > 1);
+    private static DeclaredPoint getPointIfValid (final List<? extends DeclaredPoint> row, final int i) {
+        DeclaredPoint result = null;
 
-        final LinkedList<ArrayList<LinkedList<GeneratedPoint>>> result = new LinkedList<>();
+        if (i >= 0 && i < row.size()) {
+            final DeclaredPoint p = row.get(i);
+            if (Points.isPointValid(p))
+                result = p;
+        }
 
-        for (int j = 0; j < width - 1; ++j)
-            for (int i = 0; i < height - 1; ++i) {
-                assert(points.get(j).size() == height);
-                final ArrayList<LinkedList<GeneratedPoint>> quartet = new ArrayList<>(5);
-                result.add(quartet);
-
-                final DeclaredPoint
-                        dealer0 = getPointIfValid(points, width, height, j, i),
-                        dealer1 = getPointIfValid(points, width, height, j + 1, i),
-                        dealer2 = getPointIfValid(points, width, height, j + 1, i + 1),
-                        dealer3 = getPointIfValid(points, width, height, j, i + 1);
-                final DeclaredPoint dealers[] = { dealer0, dealer1, dealer2, dealer3 };
-
-                assert(dealers.length == 4);
-
-                for (int k = 0; k < 4; ++k) {
-                    final DeclaredPoint p0 = dealers[k];
-                    final DeclaredPoint p1 = dealers[(k +1 ) % 4];
-
-                    if (p0 != null && p1 != null) {
-                        final LinkedList<GeneratedPoint> intermediates = new LinkedList<>();
-                        quartet.add(intermediates);
-                        assert(quartet.get(k) == intermediates);
-                        final int added = generateAllIntermediateHeightPointsBetween(intermediates, p0, p1);
-                        assert(intermediates.size() == added);
-                        assert(Collections.isSorted(intermediates, new Points.ZPointComparator()));
-                    }
-                    else
-                        quartet.add(null);
-                }
+        return result;
+    }
 
-                assert(quartet.size() == 4);
+    /**
+     * Which diagonal of a quartet gets crossing points too: 0 for
+     * dealer0-dealer2, 1 for dealer1-dealer3, or -1 for none.
+     */
+    private static int chooseDiagonal (final DeclaredPoint dealers[]) {
+        final LargeInteger diffs[] = {
+            dealers[0] != null && dealers[2] != null? minus(dealers[0].getZ(), dealers[2].getZ()) : toLargeInt(0l),
+            dealers[1] != null && dealers[3] != null? minus(dealers[1].getZ(), dealers[3].getZ()) : toLargeInt(0l)
+        };
+        for (int k = 0; k < 2; ++k)
+            if (isGreaterThanOrEqualTo(diffs[k], diffs[(k + 1) % 2]) && dealers[k] != null && dealers[k + 2] != null)
+                return k;
+        return -1;
+    }
 
-                final LargeInteger diffs[] = {
-                    dealer0 != null && dealer2 != null? minus(dealer0.getZ(), dealer2.getZ()) : toLargeInt(0l),
-                    dealer1 != null && dealer3 != null? minus(dealer1.getZ(), dealer3.getZ()) : toLargeInt(0l)
-                };
-                boolean added = false;
-                for (int k = 0; !added && k < 2; ++k) {
-                    if (isGreaterThanOrEqualTo(diffs[k], diffs[(k + 1) % 2]) && dealers[k] != null && dealers[k + 2] != null) {
-                        final LinkedList<GeneratedPoint> intermediates = new LinkedList<>();
-                        quartet.add(intermediates);
-                        assert(quartet.get(4) == intermediates);
-                        final int numadded = generateAllIntermediateHeightPointsBetween(intermediates, dealers[k], dealers[k + 2]);
-                        assert(numadded == intermediates.size());
-                        assert(Collections.isSorted(intermediates, new Points.ZPointComparator()));
-                        added = true;
+    /**
+     * Generates the crossings of edge k of cell c, between p0 and p1, into
+     * the buffer.
+     */
+    private static void generateEdge (final CrossingBuffer into, final int c, final int k, final DeclaredPoint p0, final DeclaredPoint p1, final Arithmetic arithmetic, final Contours contours) {
+        into.beginEdge(c, k);
+        generateAllIntermediateHeightPointsBetween(into, p0, p1, arithmetic, contours);
+        into.endEdge();
+    }
+
+    /**
+     * Generates a cell into the buffer: the crossings on its four sides (none
+     * for sides missing a corner) and, possibly, on one of its diagonals.
+     *
+     * @param dealers the corners (j,i), (j+1,i), (j+1,i+1) and (j,i+1) of a
+     *          cell, or null for corners without a valid point
+     * @param shared for each side, the edge of the buffer (see
+     *          {@link CrossingBuffer#slot(int, int)}) whose crossings it
+     *          shares, if they have been generated already for the
+     *          neighbouring cell, or -1
+     * @param from a buffer to copy the crossings of other sides from, or null
+     * @param kept for each side, the edge of from with its crossings, or -1
+     *          to generate them; null if from is
+     * @return the cell
+     */
+    private static int generateCell (final CrossingBuffer into, final DeclaredPoint dealers[], final int[] shared, final CrossingBuffer from, final int[] kept, final Arithmetic arithmetic, final Contours contours) {
+        assert(dealers.length == 4);
+        final int diagonal = chooseDiagonal(dealers);
+        final int c = into.addCell(dealers, diagonal);
+
+        for (int k = 0; k < 4; ++k) {
+            final DeclaredPoint p0 = dealers[k];
+            final DeclaredPoint p1 = dealers[(k +1 ) % 4];
+
+            if (p0 != null && p1 != null) {
+                if (shared[k] != -1)
+                    into.shareEdge(c, k, shared[k]);
+                else
+                if (kept != null && kept[k] != -1)
+                    into.copyEdge(c, k, from, kept[k]);
+                else
+                    generateEdge(into, c, k, p0, p1, arithmetic, contours);
+            }
+        }
+
+        if (diagonal != -1)
+            generateEdge(into, c, 4, dealers[diagonal], dealers[diagonal + 2], arithmetic, contours);
+
+        return c;
+    }
+
+    /**
+     * Generates cell (j, i) into the buffer, as
+     * {@link #generateAllIntermediateHeightPoints(PointGrid)} would generate
+     * it, but with the crossings of some of its sides taken over rather than
+     * generated again.
+     *
+     * @param shared for each side, the edge of the buffer whose crossings it
+     *          shares, or -1
+     * @param from another buffer, with the crossings of some of the others
+     * @param kept for each side, the edge of from with its crossings, or -1
+     *          to generate them
+     * @return the cell
+     */
+    static int generateCellIntermediateHeightPoints (final CrossingBuffer into, final PointGrid points, final int j, final int i, final int[] shared, final CrossingBuffer from, final int[] kept, final Arithmetic arithmetic, final Contours contours) {
+        final DeclaredPoint dealers[] = {
+            points.get(j, i),
+            points.get(j + 1, i),
+            points.get(j + 1, i + 1),
+            points.get(j, i + 1),
+        };
+
+        assert(shared.length == 4 && kept.length == 4);
+        return generateCell(into, dealers, shared, from, kept, arithmetic, contours);
+    }
+
+    /**
+     * Generates the crossing of the edge between p1 and p2 at the given
+     * height into the buffer, if it has one there (see {@link Contours}):
+     * when its lower end is at or below the height, and its higher end above
+     * it.
+     */
+    private static void generateIntermediateHeightPointBetween (final CrossingBuffer into, final DeclaredPoint p1, final DeclaredPoint p2, final long height, final Arithmetic arithmetic) {
+        if (!p1.getZ().equals(p2.getZ())) {
+            final DeclaredPoint first = lessZ(p1, p2), last = maxZ(p1, p2);
+
+            if (first.getZ().compareTo(height) <= 0 && last.getZ().compareTo(height) > 0) {
+                final CrossingEdge edge = CrossingEdge.create(first, last);
+                if (edge != null)
+                    arithmetic.interpolate(into, edge, height);
+                else
+                    into.append(arithmetic.interpolate(first, last, LargeInteger.valueOf(height)));
+            }
+        }
+    }
+
+    /**
+     * Generates the given cells into the buffer, as
+     * {@link #generateAllIntermediateHeightPoints(PointGrid)} would generate
+     * them, but with the crossings at the given height only. Sides shared by
+     * two of the cells are generated once, as there.
+     *
+     * @param cells the corners (j, i) of the cells, as j &lt;&lt; 32 | i
+     */
+    static void generateLevelIntermediateHeightPoints (final CrossingBuffer into, final PointGrid points, final long[] cells, final long height, final Arithmetic arithmetic) {
+        // the sides along rows and along columns, by the corner they start at
+        final Map<Long, Integer> rowSides = new HashMap<>(), columnSides = new HashMap<>();
+
+        for (final long cell: cells) {
+            final int j = (int) (cell >>> 32), i = (int) cell;
+            final DeclaredPoint dealers[] = {
+                points.get(j, i),
+                points.get(j + 1, i),
+                points.get(j + 1, i + 1),
+                points.get(j, i + 1),
+            };
+            final long keys[] = {
+                cell,
+                cell + (1l << 32),
+                cell + 1,
+                cell,
+            };
+            final int diagonal = chooseDiagonal(dealers);
+            final int c = into.addCell(dealers, diagonal);
+
+            for (int k = 0; k < 4; ++k) {
+                final DeclaredPoint p0 = dealers[k];
+                final DeclaredPoint p1 = dealers[(k + 1) % 4];
+
+                if (p0 != null && p1 != null) {
+                    final Map<Long, Integer> sides = k % 2 == 0? columnSides : rowSides;
+                    final Integer shared = sides.get(keys[k]);
+                    if (shared != null)
+                        into.shareEdge(c, k, shared);
+                    else {
+                        into.beginEdge(c, k);
+                        generateIntermediateHeightPointBetween(into, p0, p1, height, arithmetic);
+                        into.endEdge();
+                        sides.put(keys[k], CrossingBuffer.slot(c, k));
                     }
                 }
             }
 
+            if (diagonal != -1) {
+                into.beginEdge(c, 4);
+                generateIntermediateHeightPointBetween(into, dealers[diagonal], dealers[diagonal + 2], height, arithmetic);
+                into.endEdge();
+            }
+        }
+    }
+
+    /**
+     * @return the valid points of row j, indexed by i, with nulls for the
+     *          empty cells
+     */
+    private static DeclaredPoint[] getRow (final PointGrid points, final int j) {
+        final DeclaredPoint[] row = new DeclaredPoint[points.getColumns()];
+        for (int i = points.nextValid(j, 0); i != -1; i = points.nextValid(j, i + 1))
+            row[i] = points.get(j, i);
+        return row;
+    }
+
+    /**
+     * Cells without any valid corner are skipped over through the validity
+     * of the grid, and left out of the result. Each row is materialised once,
+     * for the two bands of cells it borders.
+     */
+    public static CrossingBuffer generateAllIntermediateHeightPoints (final PointGrid points) {
+        return generateAllIntermediateHeightPoints(points, Arithmetic.exact);
+    }
+
+    /**
+     * @return the sides along a row, by the column they start at, none
+     *          generated yet
+     */
+    private static int[] newSidesRow (final int columns) {
+        final int[] result = new int[columns];
+        Arrays.fill(result, -1);
         return result;
     }
 
+    /**
+     * Generates the cells between rows from and to (the last of which is
+     * only read), in cell order, into the buffer. Sides shared by two of
+     * these cells are generated once, and both cells have the crossings.
+     *
+     * @param below whether the band is below another one, which generates
+     *          the sides along row from: those are then only referred to (see
+     *          {@link CrossingBuffer#above(int)})
+     */
+    private static void generateRowsIntermediateHeightPoints (final CrossingBuffer into, final PointGrid points, final Arithmetic arithmetic, final Contours contours, final int from, final int to, final boolean below) {
+        final int columns = points.getColumns();
+        DeclaredPoint[] row1 = getRow(points, from);
+        int[] sides1 = newSidesRow(columns);
+
+        if (below)
+            for (int i = 0; i < columns; ++i)
+                sides1[i] = CrossingBuffer.above(i);
+
+        for (int j = from; j < to; ++j) {
+            final DeclaredPoint[] row0 = row1;
+            final int[] sides0 = sides1;
+            int side2 = -1;
+            int previous = -1;
+            row1 = getRow(points, j + 1);
+            sides1 = newSidesRow(columns);
+
+            for (int i = 0; i < columns - 1; ++i) {
+                // skip to the first cell touching a valid column
+                final int   next0   = points.nextValid(j, i),
+                            next1   = points.nextValid(j + 1, i),
+                            next    = next0 == -1? next1 : next1 == -1? next0 : Math.min(next0, next1);
+                if (next == -1)
+                    break;
+                i = Math.max(i, next - 1);
+                if (i == columns - 1)
+                    break;
+
+                final DeclaredPoint dealers[] = {
+                    row0[i],
+                    row1[i],
+                    row1[i + 1],
+                    row0[i + 1],
+                };
+                final int c = generateCell(into, dealers, new int[] {previous == i - 1? side2 : -1, -1, -1, sides0[i]}, null, null, arithmetic, contours);
+                sides1[i] = CrossingBuffer.slot(c, 1);
+                side2 = CrossingBuffer.slot(c, 2);
+                previous = i;
+            }
+        }
+
+        into.setBottomSides(sides1);
+    }
+
+    public static CrossingBuffer generateAllIntermediateHeightPoints (final PointGrid points, final Arithmetic arithmetic) {
+        return generateAllIntermediateHeightPoints(points, arithmetic, Contours.Default);
+    }
+
+    public static CrossingBuffer generateAllIntermediateHeightPoints (final PointGrid points, final Arithmetic arithmetic, final Contours contours) {
+        final CrossingBuffer result = new CrossingBuffer();
+
+        if (points.getRows() > 1)
+            generateRowsIntermediateHeightPoints(result, points, arithmetic, contours, 0, points.getRows() - 1, false);
+
+        return result.finish();
+    }
+
+    private static final class CellRows extends RecursiveTask<CrossingBuffer> {
+        private static final long serialVersionUID = 1l;
+
+        private final PointGrid     points;
+        private final Arithmetic    arithmetic;
+        private final Contours      contours;
+        private final int           from, to;
+        // whether there is a band above, which generates the sides along
+        // row from
+        private final boolean       below;
+
+        private CellRows (final PointGrid points, final Arithmetic arithmetic, final Contours contours, final int from, final int to, final boolean below) {
+            this.points     = points;
+            this.arithmetic = arithmetic;
+            this.contours   = contours;
+            this.from       = from;
+            this.to         = to;
+            this.below      = below;
+        }
+
+        @Override
+        protected CrossingBuffer compute () {
+            final CrossingBuffer result = new CrossingBuffer();
+            generateRowsIntermediateHeightPoints(result, points, arithmetic, contours, from, to, below);
+            return result;
+        }
+    }
+
+    /**
+     * Generates the same crossings, in the same order, as
+     * {@link #generateAllIntermediateHeightPoints(PointGrid, Arithmetic, Contours)},
+     * but splits the grid into bands of rows of cells, each generated into a
+     * buffer of its own, as a task of its own on the given pool. The cells of
+     * a band only read the rows of points around them, so bands are
+     * independent: the sides along the row between two bands are generated
+     * by the band above, and only referred to by the one below, until the
+     * buffers are concatenated.
+     */
+    public static CrossingBuffer generateAllIntermediateHeightPoints (final PointGrid points, final Arithmetic arithmetic, final Contours contours, final ForkJoinPool pool) {
+        if (pool == null || points.getRows() < 2)
+            return generateAllIntermediateHeightPoints(points, arithmetic, contours);
+
+        final int                   cellRows    = points.getRows() - 1,
+                                    bandRows    = Math.max(MinBandRows, cellRows / (pool.getParallelism() * 4) + 1);
+        final List<CellRows>        tasks       = new ArrayList<>();
+        final List<CrossingBuffer>  bands       = new ArrayList<>();
+
+        for (int from = 0; from < cellRows; from += bandRows) {
+            final CellRows task = new CellRows(points, arithmetic, contours, from, Math.min(from + bandRows, cellRows), from > 0);
+            pool.execute(task);
+            tasks.add(task);
+        }
+
+        for (final CellRows task: tasks)
+            bands.add(task.join());
+
+        return CrossingBuffer.concat(bands).finish();
+    }
+
+    /**
+     * The crossings of the band of cells between two consecutive rows, as
+     * {@link #generateAllIntermediateHeightPoints(PointGrid)} would generate
+     * them for the whole grid. Cells without any valid corner are left out,
+     * and the sides shared by neighbouring cells are generated once.
+     */
+    public static CrossingBuffer generateBandIntermediateHeightPoints (final List<? extends DeclaredPoint> row0, final List<? extends DeclaredPoint> row1) {
+        return generateBandIntermediateHeightPoints(row0, row1, Arithmetic.exact);
+    }
+
+    public static CrossingBuffer generateBandIntermediateHeightPoints (final List<? extends DeclaredPoint> row0, final List<? extends DeclaredPoint> row1, final Arithmetic arithmetic) {
+        return generateBandIntermediateHeightPoints(row0, row1, arithmetic, Contours.Default);
+    }
+
+    public static CrossingBuffer generateBandIntermediateHeightPoints (final List<? extends DeclaredPoint> row0, final List<? extends DeclaredPoint> row1, final Arithmetic arithmetic, final Contours contours) {
+        final int width = Math.max(row0.size(), row1.size());
+        final CrossingBuffer result = new CrossingBuffer();
+
+        int side2 = -1;
+
+        for (int i = 0; i < width - 1; ++i) {
+            final DeclaredPoint dealers[] = {
+                getPointIfValid(row0, i),
+                getPointIfValid(row1, i),
+                getPointIfValid(row1, i + 1),
+                getPointIfValid(row0, i + 1),
+            };
+            if (dealers[0] != null || dealers[1] != null || dealers[2] != null || dealers[3] != null) {
+                final int c = generateCell(result, dealers, new int[] {side2, -1, -1, -1}, null, null, arithmetic, contours);
+                side2 = CrossingBuffer.slot(c, 2);
+            }
+            else
+                side2 = -1;
+        }
+
+        return result.finish();
+    }
+
+    private static void collectIntermediateHeightsBetween (final Set<? super Rational> into, final DeclaredPoint p1, final DeclaredPoint p2, final Contours contours) {
+        if (!p1.getZ().equals(p2.getZ())) {
+            final LargeInteger  zfirst      = lessZ(p1, p2).getZ(),
+                                interval    = LargeInteger.valueOf(contours.getInterval()),
+                                count       = contours.countFrom(zfirst, maxZ(p1, p2).getZ());
+
+            LargeInteger height = contours.firstFrom(zfirst);
+            for (LargeInteger k = LargeInteger.ZERO; k.isLessThan(count); k = k.plus(LargeInteger.ONE), height = height.plus(interval))
+                into.add(toRational(height));
+        }
+    }
+
+    /**
+     * Collects the heights of the crossings
+     * {@link #generateBandIntermediateHeightPoints(List, List)} would generate,
+     * without interpolating any of them.
+     */
+    public static void collectBandIntermediateHeights (final Set<? super Rational> into, final List<? extends DeclaredPoint> row0, final List<? extends DeclaredPoint> row1) {
+        collectBandIntermediateHeights(into, row0, row1, Contours.Default);
+    }
+
+    public static void collectBandIntermediateHeights (final Set<? super Rational> into, final List<? extends DeclaredPoint> row0, final List<? extends DeclaredPoint> row1, final Contours contours) {
+        final int width = Math.max(row0.size(), row1.size());
+
+        for (int i = 0; i < width - 1; ++i) {
+            final DeclaredPoint dealers[] = {
+                getPointIfValid(row0, i),
+                getPointIfValid(row1, i),
+                getPointIfValid(row1, i + 1),
+                getPointIfValid(row0, i + 1),
+            };
+            for (int k = 0; k < 4; ++k)
+                if (dealers[k] != null && dealers[(k + 1) % 4] != null)
+                    collectIntermediateHeightsBetween(into, dealers[k], dealers[(k + 1) % 4], contours);
+            final int k = chooseDiagonal(dealers);
+            if (k != -1)
+                collectIntermediateHeightsBetween(into, dealers[k], dealers[k + 2], contours);
+        }
+    }
+
     public static List<? extends List<? extends List<? extends GeneratedPoint>>> generateAllIntermediateHeightPoints0 (final List<? extends List<? extends DeclaredPoint>> points) {
         final int width = points.size();
         assert(width > 1);
@@ -228,80 +668,142 @@ public class IntermediatePointsGenerator {
         return result;
     }
 
-    public static Map<? extends Rational, ? extends Set<? extends GeneratedPoint>> makeHeightequalGroups (final Iterable<? extends GeneratedPoint> generated) {
-        final Map<Rational, Set<GeneratedPoint>> result = new HashMap<>();
+    /**
+     * @return the points of each height, by increasing height, each once,
+     *          in the order they were first generated in
+     */
+    public static SortedMap<? extends Rational, ? extends Set<? extends GeneratedPoint>> makeHeightequalGroups (final Iterable<? extends GeneratedPoint> generated) {
+        final SortedMap<Rational, Set<GeneratedPoint>> result = new TreeMap<>();
 
         for (final GeneratedPoint p: generated) {
             Set<GeneratedPoint> heightequals;
             final Rational height = p.getZ();
             if (isRound(height) && !result.containsKey(height)) {
-                heightequals = new HashSet<>();
+                heightequals = new LinkedHashSet<>();
                 result.put(height, heightequals);
             }
             else
                 heightequals = result.get(height);
 
-            final boolean added = heightequals.add(p);
-            assert(added);
+            // points shared by neighbouring cells come twice
+            heightequals.add(p);
         }
 
         return result;
     }
 
     private static void connectPointsUnlessTooFarApart (final List<Line> into, final GeneratedPoint p0, final GeneratedPoint p1, final long distanceThreshold) {
-        if (isLessThanOrEqualTo(distance(p0, p1), distanceThreshold))
+        if (Points.isWithinDistance(p0, p1, distanceThreshold))
             into.add(new Line(p0, p1));
     }
 
+    /**
+     * @return the lines chaining the crossings of a level, as
+     *          {@link #generateHeightLines2(CrossingBuffer, long, long, ForkJoinPool)}
+     *          generates them for that level
+     */
+    static List<Line> generateLevelLines (final CrossingBuffer crossings, final int level, final long distanceThreshold) {
+        final Rational                      height  = crossings.getHeight(level);
+        final List<Line>                    result  = new ArrayList<>();
+        final LinkedList<GeneratedPoint>    path    = new LinkedList<>();
+        final int                           n       = crossings.getLevelSize(level);
+        final GeneratedPoint[]              given   = new GeneratedPoint[n];
+        final double[]                      xs      = new double[n],
+                                            ys      = new double[n];
+
+        int k = 0;
+        for (final CrossingBuffer.Cursor c = crossings.level(level); c.next(); ++k) {
+            given[k]    = c.getPoint();
+            xs[k]       = c.getX();
+            ys[k]       = c.getY();
+        }
+        final PointTree points = new PointTree(given, xs, ys);
+
+        assert(!points.isEmpty());
+        GeneratedPoint last = points.removeFirst();
+        assert(last.getZ().equals(height));
+        path.add(last);
+
+        while (!points.isEmpty()) {
+            final GeneratedPoint closest = points.removeClosest(last);
+            assert(closest != null);
+            assert(closest.getZ().equals(height));
+            final boolean added = path.add(closest);
+            assert(added);
+            last = closest;
+        }
+
+        assert(!path.isEmpty());
+        final Iterator<GeneratedPoint> iter = path.iterator();
+        last = path.iterator().next();
+        while (iter.hasNext()) {
+            final GeneratedPoint next = iter.next();
+            connectPointsUnlessTooFarApart(result, last, next, distanceThreshold);
+            last = next;
+        }
+        connectPointsUnlessTooFarApart(result, path.getFirst(), path.getLast(), distanceThreshold);
+
+        return result;
+    }
+
+    private static final class LevelLines extends RecursiveTask<List<Line>> {
+        private static final long serialVersionUID = 1l;
+
+        private final CrossingBuffer    crossings;
+        private final int               level;
+        private final long              distanceThreshold;
+
+        private LevelLines (final CrossingBuffer crossings, final int level, final long distanceThreshold) {
+            this.crossings          = crossings;
+            this.level              = level;
+            this.distanceThreshold  = distanceThreshold;
+        }
+
+        @Override
+        protected List<Line> compute () {
+            return generateLevelLines(crossings, level, distanceThreshold);
+        }
+    }
+
     public static List<? extends Line> generateHeightLines2 (final List<? extends List<? extends List<? extends GeneratedPoint>>> generatedGroups, final long distanceThreshold)
         { return generateHeightLines2(generatedGroups, distanceThreshold, -1l); }
-    public static List<? extends Line> generateHeightLines2 (final List<? extends List<? extends List<? extends GeneratedPoint>>> generatedGroups, final long distanceThreshold, final long forHeight) {
-        final List<Line>  result = new LinkedList<>();
-        final Iterable<? extends GeneratedPoint> generated = Collections.flattenIterables(Collections.flattenIterables(generatedGroups));
-        final Map<? extends Rational, ? extends Set<? extends GeneratedPoint>> groups = makeHeightequalGroups(generated);
-
-        for (final Map.Entry<? extends Rational, ? extends Set<? extends GeneratedPoint>> groupentry: groups.entrySet()) {
-            final LinkedList<GeneratedPoint> path = new LinkedList<>();
-            final Rational height = groupentry.getKey();
+    public static List<? extends Line> generateHeightLines2 (final List<? extends List<? extends List<? extends GeneratedPoint>>> generatedGroups, final long distanceThreshold, final long forHeight)
+        { return generateHeightLines2(generatedGroups, distanceThreshold, forHeight, null); }
+    public static List<? extends Line> generateHeightLines2 (final List<? extends List<? extends List<? extends GeneratedPoint>>> generatedGroups, final long distanceThreshold, final long forHeight, final ForkJoinPool pool)
+        { return generateHeightLines2(CrossingBuffer.of(generatedGroups), distanceThreshold, forHeight, pool); }
+    /**
+     * Lines are generated level by level, by increasing height. Given a
+     * pool, each level is generated as a task of its own, and the lines of
+     * all levels are then concatenated in the same order.
+     */
+    public static List<? extends Line> generateHeightLines2 (final CrossingBuffer crossings, final long distanceThreshold, final long forHeight, final ForkJoinPool pool) {
+        final List<Line>        result  = new LinkedList<>();
+        final List<LevelLines>  tasks   = new ArrayList<>(crossings.getLevelCount());
+
+        for (int level = 0; level < crossings.getLevelCount(); ++level) {
+            final Rational height = crossings.getHeight(level);
             if (height.compareTo(Numbers.toRational(forHeight)) == 0 || forHeight == -1) {
-                final Set<? extends GeneratedPoint> points = groupentry.getValue();
-
-                assert(!points.isEmpty());
-                GeneratedPoint last = points.iterator().next();
-                assert(last.getZ().equals(height));
-                path.add(last);
-                points.remove(last);
-
-                while (!points.isEmpty()) {
-                    final GeneratedPoint closest = Points.findClosest(points, last);
-                    assert(closest != null);
-                    assert(points.contains(closest));
-                    assert(closest.getZ().equals(height));
-                    final boolean added = path.add(closest);
-                    assert(added);
-                    final boolean removed = points.remove(closest);
-                    assert(removed);
-                    last = closest;
+                if (pool == null)
+                    result.addAll(generateLevelLines(crossings, level, distanceThreshold));
+                else {
+                    final LevelLines task = new LevelLines(crossings, level, distanceThreshold);
+                    pool.execute(task);
+                    tasks.add(task);
                 }
-
-                assert(!path.isEmpty());
-                final Iterator<GeneratedPoint> iter = path.iterator();
-                last = path.iterator().next();
-                while (iter.hasNext()) {
-                    final GeneratedPoint next = iter.next();
-                    connectPointsUnlessTooFarApart(result, last, next, distanceThreshold);
-                    last = next;
-                }
-                connectPointsUnlessTooFarApart(result, path.getFirst(), path.getLast(), distanceThreshold);
             }
         }
 
+        for (final LevelLines task: tasks)
+            result.addAll(task.join());
+
         return result;
     }
 
     public static Map<? super Rational, ? extends Colour> makeColourscales (final SortedSet<? extends Rational> levels) {
         final int numberOfLevels = levels.size();
         final Map<Rational, Colour> colours = new HashMap<>(numberOfLevels);
+        if (numberOfLevels == 0)
+            return colours;
         final Rational    colourstep    = Rational.valueOf(300l, numberOfLevels),
                         _360        = toRational(360l);
         Rational        hue            = toRational(240l);
@@ -330,6 +832,14 @@ public class IntermediatePointsGenerator {
         final SortedSet<? extends Rational> levels = makeLevels(elements, toHeight);
         final Map<? super Rational, ? extends Colour> colours = makeColourscales(levels);
 
+        return colourise(elements, toHeight, fac, colours);
+    }
+
+    /**
+     * Colourises with a given colour scale, which must cover the heights of
+     * all elements.
+     */
+    public static <VT, T> List<? extends VT> colourise (final Iterable<? extends T> elements, final Points.HeightGetter<? super T> toHeight, final ColourfulElement.ColourfulElementFactory<T, VT> fac, final Map<? super Rational, ? extends Colour> colours) {
         final List<VT> result = new LinkedList<>();
         for (final T element: elements) {
             final Colour c = colours.get(toHeight.getHeight(element));
@@ -347,4 +857,37 @@ public class IntermediatePointsGenerator {
     public static List<? extends ColourfulGeneratedPoint> colourisePoints (final Iterable<? extends GeneratedPoint> unsortedPoints) {
         return colourise(unsortedPoints, new Points.GeneratedPointHeightGetter(), new ColourfulGeneratedPoint.ColourfulGeneratedPointFactory());
     }
+
+    public static List<? extends ColourfulLine> colouriseLines (final Iterable<? extends Line> unsortedLines, final Map<? super Rational, ? extends Colour> colours) {
+        return colourise(unsortedLines, new Points.LineHeightGetter(), new ColourfulLine.ColourfulLineFactory(), colours);
+    }
+
+    public static List<? extends ColourfulGeneratedPoint> colourisePoints (final Iterable<? extends GeneratedPoint> unsortedPoints, final Map<? super Rational, ? extends Colour> colours) {
+        return colourise(unsortedPoints, new Points.GeneratedPointHeightGetter(), new ColourfulGeneratedPoint.ColourfulGeneratedPointFactory(), colours);
+    }
+
+    /**
+     * @return the colour of each level of the crossings, by level
+     */
+    public static Colour[] colourisePoints (final CrossingBuffer crossings) {
+        final SortedSet<Rational> levels = new TreeSet<>();
+        for (int level = 0; level < crossings.getLevelCount(); ++level)
+            levels.add(crossings.getHeight(level));
+
+        return colourisePoints(crossings, makeColourscales(levels));
+    }
+
+    /**
+     * @param colours which must cover the heights of all crossings
+     * @return the colour of each level of the crossings, by level
+     */
+    public static Colour[] colourisePoints (final CrossingBuffer crossings, final Map<? super Rational, ? extends Colour> colours) {
+        final Colour[] result = new Colour[crossings.getLevelCount()];
+        for (int level = 0; level < result.length; ++level) {
+            result[level] = colours.get(crossings.getHeight(level));
+            assert(result[level] != null);
+        }
+
+        return result;
+    }
 }
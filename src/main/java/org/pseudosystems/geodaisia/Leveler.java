@@ -1,79 +1,115 @@
 package org.pseudosystems.geodaisia;
 
+import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
 import org.jscience.mathematics.number.Rational;
+import org.pseudosystems.geodaisia.Path.Node;
 
 import static org.pseudosystems.geodaisia.Points.*;
-import static org.pseudosystems.geodaisia.Numbers.*;
 import static org.pseudosystems.geodaisia.PathExt.*;
 
+/**
+ * Assembles the segments of level lines, as any contour engine gives them,
+ * into whole polylines, closed where a contour comes round to itself and open
+ * where it runs off the grid.
+ * <p>
+ * Segments meet where their crossings are at the same place (see
+ * {@link Location}), be they the same point object, as the crossings of a
+ * cell side shared by two cells are, or made separately, as those of two
+ * sides at their shared corner are. The open ends of the polylines of a
+ * level are kept in a hash by their location, so each segment is either a
+ * new polyline, extends one, joins two or closes one, in constant time, and
+ * a level of n segments takes O(n).
+ */
 public class Leveler {
 
-    private static class LevelWorld {
-        public final Set<Path<GeneratedPoint>> paths = new HashSet<>(5);
-        public final List<Line> lines = new LinkedList<>();
+    private static class Level {
+        public final List<Path<GeneratedPoint>>                paths  = new ArrayList<>();
+        public final Map<Location, Node<GeneratedPoint>>       ends   = new HashMap<>();
     }
 
-    private static GeneratedPoint populateAndInitialiseMapAndGetHeighestPoint (final Set<? extends GeneratedPoint> points, final Map<? super Rational, LevelWorld> map) {
-        GeneratedPoint highest = points.iterator().next();
-        Rational highestHeight = getHeight(highest);
-        assert isRound(highestHeight);
-        for (final GeneratedPoint point: points) {
-            final Rational pointHeight = getHeight(point);
-            assert isRound(pointHeight);
-
-            if (pointHeight.isGreaterThan(highestHeight)) {
-                highest = point;
-                highestHeight = pointHeight;
-            }
+    private static void addSegment (final Level level, final GeneratedPoint a, final GeneratedPoint b) {
+        final Location              locationA   = Location.of(a),
+                                    locationB   = Location.of(b);
+        final Node<GeneratedPoint>  endA        = level.ends.get(locationA),
+                                    endB        = level.ends.get(locationB);
 
-            if (!map.containsKey(pointHeight))
-                map.put(pointHeight, new LevelWorld());
-        }
+        // a segment from a place to itself adds nothing
+        if (locationA.equals(locationB))
+            return;
 
-        // Initialise map with the heightest point
-        {
-            final Path<GeneratedPoint> p = new Path<>();
-            map.get(highestHeight).paths.add(p);
 
-            final Path.Node<GeneratedPoint> n = new Path.Node<>(highest);
-            adopt(p, n);
-            points.remove(highest);
+        if (endA != null && endB != null) {
+            final Path<GeneratedPoint> pathA = endA.getParent(), pathB = endB.getParent();
+            if (pathA == pathB) {
+                // the same segment again, as both of its points may give it
+                if (areRelated(endA, endB))
+                    return;
+                pathA.close();
+            }
+            else
+                join(pathA, endA, pathB, endB);
+            level.ends.remove(locationA);
+            level.ends.remove(locationB);
+        }
+        else
+        if (endA != null)
+            extend(level, endA, b, locationB);
+        else
+        if (endB != null)
+            extend(level, endB, a, locationA);
+        else {
+            final Path<GeneratedPoint> path = new Path<>();
+            final Node<GeneratedPoint> nodeA = new Node<>(a), nodeB = new Node<>(b);
+            adopt(path, nodeA);
+            connect(path, nodeB, nodeA);
+            level.paths.add(path);
+            level.ends.put(locationA, nodeA);
+            level.ends.put(locationB, nodeB);
         }
-
-        return highest;
-    }
-
-    private static void connectToPath (final GeneratedPoint point, final Path<GeneratedPoint> path) {
     }
 
-    public static Map<? extends Rational, ? extends Set<? extends Line>> generateLevelLines (final Iterable<? extends GeneratedPoint> pointsSource) {
-        final Map<Rational, LevelWorld> map = new HashMap<>(20);
-        final Set<GeneratedPoint> points = new HashSet<>(Collections.toCollection(pointsSource));
-
-        // Find highest point -- point addition will begin from there.
-        // In the same iteration, create all levels.
-        final GeneratedPoint highest = populateAndInitialiseMapAndGetHeighestPoint(points, map);
-
-
-        for (final GeneratedPoint point: points) {
-            final Rational level = getHeight(point);
-            assert isRound(level);
-            final LevelWorld levelWorld = map.get(level);
+    private static void extend (final Level level, final Node<GeneratedPoint> end, final GeneratedPoint p, final Location location) {
+        final Node<GeneratedPoint> node = new Node<>(p);
 
+        connect(end.getParent(), node, end);
+        level.ends.remove(Location.of(end.getData()));
+        level.ends.put(location, node);
+    }
 
+    /**
+     * @param lines leveled lines, of any heights, in any order
+     * @return the polylines of each level, in the order they were started;
+     *          each segment of the lines makes one link of them
+     * @throws IllegalArgumentException if a line is not leveled
+     */
+    public static SortedMap<? extends Rational, ? extends List<? extends Path<GeneratedPoint>>> generateLevelLines (final Iterable<? extends Line> lines) {
+        final SortedMap<Rational, Level> levels = new TreeMap<>();
+
+        for (final Line line: lines) {
+            final Rational height = getHeight(line);
+            Level level = levels.get(height);
+            if (level == null)
+                levels.put(height, level = new Level());
+
+            addSegment(level, line.getBeginning(), line.getEnd());
         }
 
+        final SortedMap<Rational, List<Path<GeneratedPoint>>> result = new TreeMap<>();
+        for (final Map.Entry<Rational, Level> entry: levels.entrySet()) {
+            final List<Path<GeneratedPoint>> paths = new ArrayList<>(entry.getValue().paths.size());
+            // joined polylines are left behind empty
+            for (final Path<GeneratedPoint> path: entry.getValue().paths)
+                if (!path.isEmpty())
+                    paths.add(path);
+            result.put(entry.getKey(), paths);
+        }
 
-
-
-        return null;
-
+        return result;
     }
 
     private Leveler () {
@@ -17,6 +17,8 @@ public class Line {
     }
 
     public boolean isLeveled () {
+        if (beginning instanceof CrossingPoint && end instanceof CrossingPoint)
+            return ((CrossingPoint) beginning).getLongZ() == ((CrossingPoint) end).getLongZ();
         return beginning.getZ().equals(end.getZ());
     }
 
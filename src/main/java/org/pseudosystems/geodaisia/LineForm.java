@@ -0,0 +1,45 @@
+package org.pseudosystems.geodaisia;
+
+import java.io.IOException;
+import java.util.Map;
+import org.jscience.mathematics.number.Rational;
+
+import static org.pseudosystems.geodaisia.IntermediatePointsGenerator.colouriseLines;
+import static org.pseudosystems.geodaisia.IntermediatePointsGenerator.makeColourscales;
+import static org.pseudosystems.geodaisia.IntermediatePointsGenerator.makeLevels;
+
+/**
+ * How level lines are written out.
+ * <p>
+ * {@link #lines} writes each segment as a line of its own, as any engine
+ * gives them. {@link #paths} assembles the segments of each level into
+ * polylines first (see {@link Leveler}), and writes each as a single path,
+ * from point to point in relative, quantized coordinates, which makes a
+ * much smaller file for the same drawing.
+ */
+public enum LineForm {
+    lines {
+        @Override
+        public void write (final SvgWriter svg, final Iterable<? extends Line> lines, final Map<? super Rational, ? extends Colour> colours, final Contours contours) throws IOException {
+            Renderer.writeLinesToSvg(svg, colouriseLines(lines, colours), contours);
+        }
+    },
+    paths {
+        @Override
+        public void write (final SvgWriter svg, final Iterable<? extends Line> lines, final Map<? super Rational, ? extends Colour> colours, final Contours contours) throws IOException {
+            Renderer.writePathsToSvg(svg, Leveler.generateLevelLines(lines), colours, contours);
+        }
+    };
+
+    /**
+     * Colours the lines by a scale of their own heights.
+     */
+    public void write (final SvgWriter svg, final Iterable<? extends Line> lines, final Contours contours) throws IOException {
+        write(svg, lines, makeColourscales(makeLevels(lines, new Points.LineHeightGetter())), contours);
+    }
+
+    /**
+     * @param colours which must cover the heights of all lines
+     */
+    public abstract void write (SvgWriter svg, Iterable<? extends Line> lines, Map<? super Rational, ? extends Colour> colours, Contours contours) throws IOException;
+}
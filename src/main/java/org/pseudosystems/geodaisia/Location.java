@@ -0,0 +1,87 @@
+package org.pseudosystems.geodaisia;
+
+import java.util.Arrays;
+import org.jscience.mathematics.number.LargeInteger;
+import org.jscience.mathematics.number.Rational;
+
+/**
+ * The exact location of a crossing: reduced fractions in longs for exact
+ * crossings which fit, the bits of the doubles for approximate ones, and
+ * rationals otherwise. Crossings made separately at the same place, such as
+ * those of two sides at their shared corner, have equal locations.
+ */
+final class Location {
+
+    private final long      x, xd, y, yd, z;
+    private final Object    exact;
+
+    private Location (final long x, final long xd, final long y, final long yd, final long z, final Object exact) {
+        this.x      = x;
+        this.xd     = xd;
+        this.y      = y;
+        this.yd     = yd;
+        this.z      = z;
+        this.exact  = exact;
+    }
+
+    private static long gcd (long a, long b) {
+        while (b != 0) {
+            final long t = a % b;
+            a = b;
+            b = t;
+        }
+        return Math.abs(a);
+    }
+
+    private static boolean fitsInLong (final LargeInteger li) {
+        return li.bitLength() < 64;
+    }
+
+    private static boolean fitsInLong (final Rational r) {
+        return fitsInLong(r.getDividend()) && fitsInLong(r.getDivisor());
+    }
+
+    static Location of (final GeneratedPoint p) {
+        if (!p.isExact()) {
+            final Rational z = p.getZ();
+            if (fitsInLong(z))
+                return new Location(Double.doubleToLongBits(p.getDoubleX() + 0.0), 0, Double.doubleToLongBits(p.getDoubleY() + 0.0), 0, z.getDividend().longValue(), null);
+        }
+        else
+        if (p instanceof CrossingPoint) {
+            final CrossingPoint c   = (CrossingPoint) p;
+            final long          d   = c.getDenominator(),
+                                gx  = gcd(c.getXNumerator(), d),
+                                gy  = gcd(c.getYNumerator(), d);
+            if (gx > 0 && gy > 0)
+                return new Location(c.getXNumerator() / gx, d / gx, c.getYNumerator() / gy, d / gy, c.getLongZ(), null);
+        }
+        else {
+            // rationals are kept reduced, with a positive divisor
+            final Rational x = p.getX(), y = p.getY(), z = p.getZ();
+            if (fitsInLong(x) && fitsInLong(y) && fitsInLong(z))
+                return new Location(x.getDividend().longValue(), x.getDivisor().longValue(), y.getDividend().longValue(), y.getDivisor().longValue(), z.getDividend().longValue(), null);
+        }
+
+        return new Location(0, 0, 0, 0, 0, Arrays.asList(p.isExact(), p.getX(), p.getY(), p.getZ()));
+    }
+
+    @Override
+    public boolean equals (final Object o) {
+        if (!(o instanceof Location))
+            return false;
+        final Location other = (Location) o;
+        return x == other.x && xd == other.xd && y == other.y && yd == other.yd && z == other.z
+                && (exact == null? other.exact == null : exact.equals(other.exact));
+    }
+
+    @Override
+    public int hashCode () {
+        long h = x;
+        h = h * 31 + xd;
+        h = h * 31 + y;
+        h = h * 31 + yd;
+        h = h * 31 + z;
+        return (int) (h ^ (h >>> 32)) + (exact == null? 0 : exact.hashCode());
+    }
+}
@@ -0,0 +1,254 @@
+package org.pseudosystems.geodaisia;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import org.jscience.mathematics.number.LargeInteger;
+
+/**
+ * Traces level lines through the cells of the grid, instead of chaining
+ * crossings by distance as
+ * {@link IntermediatePointsGenerator#generateHeightLines2(List, long)} does.
+ * <p>
+ * For each level crossing a cell, the corners above the level make one of
+ * 16 cases, which tell the sides the line through the cell joins. In the two
+ * saddle cases, the corners joined by the diagonal of the cell (see
+ * {@link CrossingBuffer#getDiagonal(int)}) are taken to be connected, so the
+ * two lines cut off the other two corners. A line crossing the diagonal passes through
+ * the crossing there. Cells missing a corner are triangles, whose two
+ * crossed edges are joined.
+ * <p>
+ * Neighbouring cells share the crossings of their shared side, and the
+ * lines of the cells are joined into polylines through the locations of
+ * those crossings, which also joins crossings made separately at the same
+ * place. Each crossing is made a point once, when first met. All of this
+ * takes time linear in the number of crossings.
+ */
+public class MarchingSquares {
+
+    // the sides joined in each case, where bit k is set when corner k is
+    // above the level; the saddles (5 and 10) are joined by the diagonal
+    private static final int[][] Cases = {
+        {},     {3, 0}, {0, 1}, {3, 1},
+        {1, 2}, null,   {0, 2}, {3, 2},
+        {2, 3}, {0, 2}, null,   {1, 2},
+        {1, 3}, {0, 1}, {3, 0}, {},
+    };
+
+    private MarchingSquares () {
+    }
+
+    private static final class Node {
+        private final GeneratedPoint    point;
+        private final List<Node>        links   = new ArrayList<>(2);
+
+        private Node (final GeneratedPoint point) {
+            this.point = point;
+        }
+    }
+
+    private static final class Graph {
+        private final CrossingBuffer        crossings;
+        // the node of each crossing, once met
+        private final Node[]                met;
+        private final Map<Location, Node>   nodes   = new HashMap<>();
+        // in the order the crossings were first met, which the polylines follow
+        private final List<Node>            order   = new ArrayList<>();
+
+        private Graph (final CrossingBuffer crossings) {
+            this.crossings  = crossings;
+            this.met        = new Node[crossings.size()];
+        }
+
+        private Node getNode (final int k) {
+            Node node = met[k];
+            if (node == null) {
+                final GeneratedPoint p = crossings.getPoint(k);
+                final Location location = Location.of(p);
+                node = nodes.get(location);
+                if (node == null) {
+                    node = new Node(p);
+                    nodes.put(location, node);
+                    order.add(node);
+                }
+                met[k] = node;
+            }
+            return node;
+        }
+
+        private void link (final int p, final int q) {
+            final Node a = getNode(p), b = getNode(q);
+            if (a != b && !a.links.contains(b)) {
+                a.links.add(b);
+                b.links.add(a);
+            }
+        }
+
+        private List<GeneratedPoint> walk (final Node start) {
+            final List<GeneratedPoint> result = new LinkedList<>();
+            Node node = start;
+
+            result.add(node.point);
+            do {
+                final Node next = node.links.remove(node.links.size() - 1);
+                final boolean removed = next.links.remove(node);
+                assert(removed);
+                result.add(next.point);
+                node = next;
+            } while (node.links.size() == 1);
+
+            return result;
+        }
+
+        /**
+         * Open polylines run between crossings not joined to exactly two
+         * others; what remains are closed polylines, whose last point is
+         * their first.
+         */
+        private List<List<GeneratedPoint>> walk () {
+            final List<List<GeneratedPoint>> result = new LinkedList<>();
+
+            for (final Node node: order)
+                while (!node.links.isEmpty() && node.links.size() != 2)
+                    result.add(walk(node));
+            for (final Node node: order)
+                while (!node.links.isEmpty())
+                    result.add(walk(node));
+
+            return result;
+        }
+    }
+
+    /**
+     * @return whether sides a and b are on either side of the diagonal
+     */
+    private static boolean isAcross (final int diagonal, final int a, final int b) {
+        final boolean   ina = a == diagonal || a == (diagonal + 1) % 4,
+                        inb = b == diagonal || b == (diagonal + 1) % 4;
+        return ina != inb;
+    }
+
+    private static void joinSides (final Graph graph, final int diagonal, final int[] crossings, final int a, final int b) {
+        final int pa = crossings[a], pb = crossings[b], pd = crossings[4];
+
+        if (pa != -1 && pb != -1) {
+            if (pd != -1 && isAcross(diagonal, a, b)) {
+                graph.link(pa, pd);
+                graph.link(pd, pb);
+            }
+            else
+                graph.link(pa, pb);
+        }
+    }
+
+    /**
+     * @param crossings the crossings of cell c at the level on each side and
+     *          on the diagonal, or -1 where there is none
+     */
+    private static void traceLevel (final Graph graph, final CrossingBuffer buffer, final int c, final int[] crossings, final int level) {
+        final LargeInteger  height      = buffer.getHeight(level).getDividend();
+        final int           diagonal    = buffer.getDiagonal(c);
+        int valid = 0, above = 0;
+
+        assert(Numbers.isRound(buffer.getHeight(level)));
+        for (int k = 0; k < 4; ++k) {
+            final LargeInteger corner = buffer.getCorner(c, k);
+            if (corner != null) {
+                valid |= 1 << k;
+                if (corner.compareTo(height) > 0)
+                    above |= 1 << k;
+            }
+        }
+
+        if (valid == 15) {
+            final int[] sides = Cases[above];
+            if (sides == null) {
+                assert(diagonal != -1);
+                joinSides(graph, diagonal, crossings, diagonal, (diagonal + 1) % 4);
+                joinSides(graph, diagonal, crossings, (diagonal + 2) % 4, (diagonal + 3) % 4);
+            }
+            else
+            if (sides.length == 2)
+                joinSides(graph, diagonal, crossings, sides[0], sides[1]);
+        }
+        else
+        if (Integer.bitCount(valid) == 3) {
+            // a triangle: two of its sides and, possibly, the diagonal
+            final int[]     edges   = new int[3];
+            int             crossed = 0;
+            for (int k = 0; k < 4; ++k)
+                if (buffer.hasEdge(c, k) && ((above >>> k) & 1) != ((above >>> ((k + 1) % 4)) & 1))
+                    edges[crossed++] = k;
+            if (diagonal != -1 && ((above >>> diagonal) & 1) != ((above >>> (diagonal + 2)) & 1))
+                edges[crossed++] = 4;
+            if (crossed == 2 && crossings[edges[0]] != -1 && crossings[edges[1]] != -1)
+                graph.link(crossings[edges[0]], crossings[edges[1]]);
+        }
+    }
+
+    private static void traceCell (final Graph graph, final CrossingBuffer buffer, final int c) {
+        final int   edges       = CrossingBuffer.Edges;
+        final int[] next        = new int[edges],
+                    end         = new int[edges],
+                    crossings   = new int[edges];
+
+        for (int e = 0; e < edges; ++e) {
+            next[e] = buffer.getEdgeStart(c, e);
+            end[e]  = buffer.getEdgeEnd(c, e);
+        }
+
+        // the edges are sorted by height, and the levels numbered by it, so
+        // the levels are merged in order
+        for (;;) {
+            int level = -1;
+            for (int e = 0; e < edges; ++e)
+                if (next[e] != end[e] && (level == -1 || buffer.levelOf(next[e]) < level))
+                    level = buffer.levelOf(next[e]);
+            if (level == -1)
+                break;
+
+            for (int e = 0; e < edges; ++e)
+                if (next[e] != end[e] && buffer.levelOf(next[e]) == level)
+                    crossings[e] = next[e]++;
+                else
+                    crossings[e] = -1;
+
+            traceLevel(graph, buffer, c, crossings, level);
+        }
+    }
+
+    /**
+     * @return the polylines, open or closed, in the order the cells were
+     *          given in, as far as where they start goes
+     */
+    public static List<List<GeneratedPoint>> tracePolylines (final CrossingBuffer crossings) {
+        final Graph graph = new Graph(crossings);
+
+        for (int c = 0; c < crossings.getCellCount(); ++c)
+            traceCell(graph, crossings, c);
+
+        return graph.walk();
+    }
+
+    /**
+     * @return the lines between consecutive points of the polylines
+     */
+    public static List<? extends Line> traceHeightLines (final CrossingBuffer crossings) {
+        final List<Line> result = new LinkedList<>();
+
+        for (final List<GeneratedPoint> polyline: tracePolylines(crossings)) {
+            final Iterator<GeneratedPoint> points = polyline.iterator();
+            GeneratedPoint last = points.next();
+            while (points.hasNext()) {
+                final GeneratedPoint next = points.next();
+                result.add(new Line(last, next));
+                last = next;
+            }
+        }
+
+        return result;
+    }
+}
@@ -21,7 +21,7 @@ public class Numbers {
     }
 
     public static boolean isLessThanOrEqualTo (final Rational r, final long v) {
-        return isLessThanOrEqualTo(r, toRational(v));
+        return Predicates.compare(r, v) <= 0;
     }
 
     public static boolean isLessThanOrEqualTo (final Rational r1, final Rational r2) {
@@ -59,6 +59,29 @@ public class Numbers {
         return Rational.valueOf(n, 1l);
     }
 
+    /**
+     * @return the exact value of d, which must be finite
+     */
+    public static Rational toRational (final double d) {
+        if (Double.isNaN(d) || Double.isInfinite(d))
+            throw new IllegalArgumentException(d + " is not finite");
+
+        final int   exponent    = Math.getExponent(d) - 52;
+        final long  mantissa    = (long) Math.scalb(d, -exponent);
+        final Rational result;
+
+        if (d == 0)
+            result = Rational.ZERO;
+        else
+        if (exponent >= 0)
+            result = toRational(LargeInteger.valueOf(mantissa).shiftLeft(exponent));
+        else
+            result = Rational.valueOf(LargeInteger.valueOf(mantissa), LargeInteger.ONE.shiftLeft(-exponent));
+
+        assert(result.doubleValue() == d);
+        return result;
+    }
+
     public static boolean isBetweenZeroAndOne (final Rational u) {
         return isLessThanOrEqualTo(u, 1l) && isLessThanOrEqualTo(Rational.ZERO, u);
     }
@@ -134,7 +157,7 @@ public class Numbers {
     }
 
     public static boolean isLessThan (final Rational r, final long n) {
-        return r.isLessThan(toRational(n));
+        return Predicates.compare(r, n) < 0;
     }
 
     public static boolean isLessThanOrEqualTo (final long n, final Rational r) {
@@ -142,15 +165,15 @@ public class Numbers {
     }
 
     public static boolean isGreaterThanOrEqualTo (final Rational r, final long n) {
-        return isGreaterThan(r, n) || isEqualTo(r, n);
+        return Predicates.compare(r, n) >= 0;
     }
 
     public static boolean isGreaterThan (final Rational r, final long n) {
-        return r.isGreaterThan(toRational(n));
+        return Predicates.compare(r, n) > 0;
     }
 
     public static boolean isEqualTo (final Rational r, final long n) {
-        return r.equals(toRational(n));
+        return Predicates.compare(r, n) == 0;
     }
 
     public static int toInt (final Rational r) {
@@ -233,6 +256,10 @@ public class Numbers {
      * | y0 y1 |
      * </pre>
      * = {@code [x0*y1 - y0*x1]}
+     * <p>
+     * Only its sign is needed more often than not, which
+     * {@link Predicates#detSign(GeneratedPoint, GeneratedPoint)} works out
+     * cheaper.
      * @param p0
      * @param p1
      * @return
@@ -1,9 +1,18 @@
 package org.pseudosystems.geodaisia;
 
-import java.util.HashSet;
-import java.util.Set;
-
-public class Path<T> {
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A polyline of linked nodes, open or closed.
+ * <p>
+ * The two links of a node are not ordered: a path is walked from one end by
+ * always taking the link not come from, so that two paths are joined at any
+ * of their ends by linking two nodes, without turning either around. Only
+ * the ends of a path know it as their parent, so that joining takes constant
+ * time too.
+ */
+public class Path<T> implements Iterable<T> {
 
     public static class Node<T> {
         private Node<T> prev, next;
@@ -61,9 +70,13 @@ public class Path<T> {
             return (prev != null || next != null) && !(prev != null && next != null);
         }
 
+        public boolean hasFreeConnection () {
+            return prev == null || next == null;
+        }
+
         public void connect (final Node<T> to) {
             assert to != null;
-            assert hasOnlyOneConnection();
+            assert hasFreeConnection();
             if (prev == null)
                 prev = to;
             else {
@@ -75,13 +88,9 @@ public class Path<T> {
         public void repay (final Node<T> other) {
             assert other != null;
             assert other.isRelated(this);
-            assert !other.isPrevious(this) || next == null;
-            assert !other.isNext(this) || prev == null;
+            assert hasFreeConnection();
 
-            if (other.isPrevious(this))
-                next = other;
-            else
-                prev = other;
+            connect(other);
         }
 
         public void disconnect (final Node<T> other) {
@@ -110,17 +119,123 @@ public class Path<T> {
         public Node<T> getNext () {
             return next;
         }
+
+        /**
+         * @return the link other than the given one, or null if there is
+         *          none
+         */
+        public Node<T> getOther (final Node<T> from) {
+            return prev == from? next : prev;
+        }
     }
 
     private Node<T> first, last;
-    private final Set<Node<T>> nodes = new HashSet<>(50);
+    private int size;
+    private boolean closed;
 
+    /**
+     * @return whether n is an end of this path
+     */
     public boolean isMine (final Node<T> n) {
-        return nodes.contains(n);
+        return !closed && (n == first || n == last);
     }
 
+    /**
+     * Takes n in as a new end: either the first node of an empty path, or a
+     * node already linked to an end.
+     */
     public void adopt (final Node<T> n) {
-        final boolean added = nodes.add(n);
-        assert added;
+        assert !closed;
+        if (first == null)
+            first = last = n;
+        else
+        if (n.isRelated(last))
+            last = n;
+        else {
+            assert n.isRelated(first);
+            first = n;
+        }
+        ++size;
+    }
+
+    /**
+     * Takes in all nodes of other, whose end otherEnd has just been linked to
+     * end, an end of this path. Other is left empty.
+     */
+    public void concatenate (final Node<T> end, final Path<T> other, final Node<T> otherEnd) {
+        assert isMine(end) && other.isMine(otherEnd) && other != this;
+        assert end.isRelated(otherEnd);
+
+        final Node<T> far = end == last? first : last, otherFar = otherEnd == other.first? other.last : other.first;
+        first   = far;
+        last    = otherFar;
+        size    += other.size;
+        otherFar.adoptedBy(this);
+
+        other.first = other.last = null;
+        other.size  = 0;
+    }
+
+    /**
+     * Links the ends together, which must not be linked already.
+     */
+    public void close () {
+        assert !closed && size > 2;
+        first.connect(last);
+        last.repay(first);
+        closed = true;
+    }
+
+    public boolean isClosed () {
+        return closed;
+    }
+
+    public boolean isEmpty () {
+        return size == 0;
+    }
+
+    public int size () {
+        return size;
+    }
+
+    public Node<T> getFirst () {
+        return first;
+    }
+
+    public Node<T> getLast () {
+        return last;
+    }
+
+    /**
+     * Walks the path from its first node, each node once, so the last node
+     * of a closed path is linked back to the first.
+     */
+    @Override
+    public Iterator<T> iterator () {
+        return new Iterator<T>() {
+            private Node<T> from = closed? last : null, node = first;
+            private int left = size;
+
+            @Override
+            public boolean hasNext () {
+                return left > 0;
+            }
+
+            @Override
+            public T next () {
+                if (left == 0)
+                    throw new NoSuchElementException();
+                final Node<T> current = node;
+                node = current.getOther(from);
+                from = current;
+                --left;
+                return current.getData();
+            }
+
+            @Override
+            public void remove () {
+                throw new UnsupportedOperationException("Not supported.");
+            }
+        };
     }
 }
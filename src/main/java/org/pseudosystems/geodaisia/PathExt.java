@@ -8,9 +8,9 @@ public class PathExt {
     }
 
     public static <T> boolean areRelated (final Path<T> path, final Node<T> node) {
-        boolean related = path.isMine(node);
+        final boolean related = path.isMine(node);
+        // only the ends of a path are kept up to date with their parent
         assert !related || node.isParent(path);
-        assert related || !node.isParent(path);
 
         return related;
     }
@@ -24,26 +24,24 @@ public class PathExt {
     }
 
     public static <T> void adopt (final Path<T> path, final Node<T> node) {
-        assert !node.hasParent();
-        assert !areRelated(path, node);
+        assert node.isAlone();
+        assert path.isEmpty();
 
         path.adopt(node);
         node.adoptedBy(path);
     }
 
     public static <T> boolean isSaneNode (final Node<T> node) {
-        return    areRelated(node.getParent(), node)                                &&
-                (!node.hasPrevious() || areRelated(node.getPrevious(), node))    &&
+        return  (!node.hasPrevious() || areRelated(node.getPrevious(), node))    &&
                 (!node.hasNext() || areRelated(node.getNext(), node))            &&
-                (!node.hasPrevious() || node.isPrevious(node.getPrevious()))    &&
-                (!node.hasNext() || node.isNext(node.getNext()));
+                (!node.hasParent() || !areRelated(node.getParent(), node) || node.hasFreeConnection());
     }
 
     public static <T> void connect (final Path<T> path, final Node<T> newcomer, final Node<T> oldman) {
-        assert !areRelated(path, oldman);
+        assert areRelated(path, oldman);
         assert !areRelated(newcomer, oldman);
         assert newcomer.isAlone();
-        assert oldman.hasOnlyOneConnection();
+        assert oldman.hasFreeConnection();
 
         oldman.connect(newcomer);
         newcomer.repay(oldman);
@@ -51,11 +49,26 @@ public class PathExt {
         newcomer.adoptedBy(path);
     }
 
+    /**
+     * Links end, an end of path, to otherEnd, an end of other, and moves all
+     * nodes of other into path.
+     */
+    public static <T> void join (final Path<T> path, final Node<T> end, final Path<T> other, final Node<T> otherEnd) {
+        assert path != other;
+        assert areRelated(path, end);
+        assert areRelated(other, otherEnd);
+        assert !areRelated(end, otherEnd);
+
+        end.connect(otherEnd);
+        otherEnd.repay(end);
+        path.concatenate(end, other, otherEnd);
+        assert isSaneNode(path.getFirst()) && isSaneNode(path.getLast());
+    }
+
     public static <T> void disconnect (final Path<T> path, final Node<T> guy, final Node<T> from) {
         assert isSaneNode(from);
         assert isSaneNode(guy);
         assert areRelated(path, guy);
-        assert areRelated(path, from);
         assert areRelated(guy, from);
         assert from.isFullyRelated();
 
@@ -1,21 +1,39 @@
 package org.pseudosystems.geodaisia;
 
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.DataOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
 import org.jscience.mathematics.number.LargeInteger;
 
 import static org.pseudosystems.geodaisia.Constants.dot;
 import static org.pseudosystems.geodaisia.Constants.minusOne;
+import static org.pseudosystems.geodaisia.Constants.utf8;
 import static org.pseudosystems.geodaisia.Constants.ws;
 
 public class Persistance {
 
+    /**
+     * Receives the rows of a point file in j order, one at a time.
+     */
+    public interface RowConsumer {
+        void consumeRow (int j, List<? extends DeclaredPoint> row) throws IOException;
+    }
+
     private static final class PointLoading {
 
         private static final class Restrictions {
@@ -24,12 +42,23 @@ public class Persistance {
             private static final boolean StrictIOrdering = true;
 
             public static void checkRestrictions (final DeclaredPoint last, final int n, final int j, final int i) {
-                if (hasStrictNumbering() && !(last == null || n == last.getN() + 1))
-                    throw new IllegalArgumentException("Point #" + n + " given after point #" + last.getN());
-                if (hasStrictJOrdering() && !(last == null || j == last.getJ() || j == last.getJ() + 1))
-                    throw new IllegalArgumentException("Point #" + n + " with j=" + j + " given after point #" + last.getN() + " with j=" + last.getJ());
-                if (hasStrictIOrdering() && !(last == null || j  > last.getJ() || i == last.getI() + 1))
-                    throw new IllegalArgumentException("Point #" + n + " with i=" + i + " given after point #" + last.getN() + " with i=" + last.getI());
+                if (last == null)
+                    checkRestrictions(false, 0, 0, 0, n, j, i);
+                else
+                    checkRestrictions(true, last.getN(), last.getJ(), last.getI(), n, j, i);
+            }
+
+            /**
+             * @param hasLast whether there is a previous point at all, that is
+             *          whether lastn, lastj and lasti mean anything
+             */
+            public static void checkRestrictions (final boolean hasLast, final int lastn, final int lastj, final int lasti, final int n, final int j, final int i) {
+                if (hasStrictNumbering() && !(!hasLast || n == lastn + 1))
+                    throw new IllegalArgumentException("Point #" + n + " given after point #" + lastn);
+                if (hasStrictJOrdering() && !(!hasLast || j == lastj || j == lastj + 1))
+                    throw new IllegalArgumentException("Point #" + n + " with j=" + j + " given after point #" + lastn + " with j=" + lastj);
+                if (hasStrictIOrdering() && !(!hasLast || j  > lastj || i == lasti + 1))
+                    throw new IllegalArgumentException("Point #" + n + " with i=" + i + " given after point #" + lastn + " with i=" + lasti);
             }
 
             public static boolean hasStrictNumbering () {
@@ -64,12 +93,59 @@ public class Persistance {
             }
         }
 
+        /**
+         * Keeps track of the (n, j, i) of the first and last points loaded,
+         * for the restrictions to be checked against the next point, or
+         * across the seams of chunks loaded in parallel.
+         */
+        private static final class Marks {
+            public int      count   = 0;
+            public int      firstn, firstj, firsti,
+                            lastn, lastj, lasti;
+
+            public void check (final int n, final int j, final int i) {
+                Restrictions.checkRestrictions(count > 0, lastn, lastj, lasti, n, j, i);
+            }
+
+            public void checkSeam (final Marks next) {
+                if (next.count > 0)
+                    Restrictions.checkRestrictions(count > 0, lastn, lastj, lasti, next.firstn, next.firstj, next.firsti);
+            }
+
+            public void mark (final int n, final int j, final int i) {
+                if (count++ == 0) {
+                    firstn = n;
+                    firstj = j;
+                    firsti = i;
+                }
+                lastn = n;
+                lastj = j;
+                lasti = i;
+            }
+
+            public void markAll (final Marks next) {
+                if (next.count > 0) {
+                    if (count == 0) {
+                        firstn = next.firstn;
+                        firstj = next.firstj;
+                        firsti = next.firsti;
+                    }
+                    count += next.count;
+                    lastn = next.lastn;
+                    lastj = next.lastj;
+                    lasti = next.lasti;
+                }
+            }
+        }
+
         private static final class LoadAllPointsResult {
-            public final LinkedList<DeclaredPoint>  points;
+            public final PointGrid.Builder          points;
+            public final Marks                      marks;
             public final int                        j;
             public final int                        i;
-            public LoadAllPointsResult (final LinkedList<DeclaredPoint> points, final int j, final int i) {
+            public LoadAllPointsResult (final PointGrid.Builder points, final Marks marks, final int j, final int i) {
                 this.points   = points;
+                this.marks    = marks;
                 this.j        = j;
                 this.i        = i;
             }
@@ -77,6 +153,8 @@ public class Persistance {
 
         private interface Adjustment {
             LargeInteger apply (LargeInteger a);
+            /** @throws ArithmeticException if the result overflows a long */
+            long apply (long a);
         }
 
         private static abstract class BasicAdjustment implements Adjustment {
@@ -87,11 +165,17 @@ public class Persistance {
             }
 
             protected abstract LargeInteger performOn (LargeInteger li, long mod);
+            protected abstract long performOn (long l, long mod);
 
             @Override
             public LargeInteger apply (LargeInteger a) {
                 return performOn(a, mod);
             }
+
+            @Override
+            public long apply (long a) {
+                return performOn(a, mod);
+            }
         }
 
         private static final class AdditionAdjustment extends BasicAdjustment {
@@ -103,6 +187,11 @@ public class Persistance {
             protected LargeInteger performOn (LargeInteger li, long mod) {
                 return li.plus(mod);
             }
+
+            @Override
+            protected long performOn (long l, long mod) {
+                return Math.addExact(l, mod);
+            }
         }
 
         private static final class SubtractionAdjustment extends BasicAdjustment {
@@ -114,6 +203,11 @@ public class Persistance {
             protected LargeInteger performOn (LargeInteger li, long mod) {
                 return li.minus(mod);
             }
+
+            @Override
+            protected long performOn (long l, long mod) {
+                return Math.subtractExact(l, mod);
+            }
         }
 
         private static final class MultiplicationAdjustment extends BasicAdjustment {
@@ -125,6 +219,11 @@ public class Persistance {
             protected LargeInteger performOn (LargeInteger li, long mod) {
                 return li.times(mod);
             }
+
+            @Override
+            protected long performOn (long l, long mod) {
+                return Math.multiplyExact(l, mod);
+            }
         }
 
         private static enum AdjustableElement {x, y, z};
@@ -137,6 +236,18 @@ public class Persistance {
                     adjs.put(adji, new LinkedList<>());
             }
 
+            public Adjustments (final Adjustments other) {
+                for (final AdjustableElement adji: AdjustableElement.values())
+                    adjs.put(adji, new LinkedList<>(other.adjs.get(adji)));
+            }
+
+            /**
+             * @param line an adjustment line, such as {@code $x+160}
+             */
+            public void add (final String line) {
+                add(translateAdjustableElement(line.charAt(1)), makeAdjustment(line.charAt(2), Integer.parseInt(line.substring(3))));
+            }
+
             public void add (AdjustableElement adji, Adjustment adj) {
                 adjs.get(adji).add(adj);
             }
@@ -195,9 +306,462 @@ public class Persistance {
             return result;
         }
 
+        private static long applyAdjustments (final List<Adjustment> adjs, final long a) {
+            long result = a;
+            for (final Adjustment adj: adjs)
+                result = adj.apply(result);
+            return result;
+        }
+
+        /**
+         * Scans point entries straight out of a byte buffer, with the same
+         * semantics as the line based {@link #loadAllPoints(Reader)}.
+         * Numbers are accumulated into primitive longs; {@link LargeInteger}
+         * parsing is only used for values which overflow a long.
+         */
+        private static class MappedPointsScanner {
+            private final Adjustments               adjustments;
+            private final PointGrid.Builder         allpoints    = new PointGrid.Builder();
+            private final Marks                     marks        = new Marks();
+            private final int[]                     fieldStarts  = new int[6],
+                                                    fieldEnds    = new int[6];
+            private int                             maxj         = 0,
+                                                    maxi         = 0;
+            private boolean                         overflowed;
+
+            public MappedPointsScanner () {
+                this(new Adjustments());
+            }
+
+            /**
+             * @param adjustments the adjustments in force where scanning starts
+             */
+            public MappedPointsScanner (final Adjustments adjustments) {
+                this.adjustments = adjustments;
+            }
+
+            private static boolean isLineBreak (final byte b) {
+                return b == '\n' || b == '\r';
+            }
+
+            // same set as \s
+            private static boolean isWhitespace (final byte b) {
+                return b == ' ' || b == '\t' || b == '\n' || b == 0x0b || b == '\f' || b == '\r';
+            }
+
+            private static String decode (final ByteBuffer buf, final int from, final int to) {
+                final byte[] bytes = new byte[to - from];
+                for (int k = from; k < to; ++k)
+                    bytes[k - from] = buf.get(k);
+                return new String(bytes, utf8);
+            }
+
+            /**
+             * Scans all lines in [from, to). The range is assumed to end at a
+             * line boundary.
+             */
+            public void scan (final ByteBuffer buf, final int from, final int to) throws IOException {
+                int pos = from;
+                while (pos < to) {
+                    int eol = pos;
+                    while (eol < to && !isLineBreak(buf.get(eol)))
+                        ++eol;
+                    scanLine(buf, pos, eol);
+                    pos = eol + 1;
+                }
+            }
+
+            private void scanLine (final ByteBuffer buf, final int from, final int to) throws IOException {
+                int firstNonWs = from;
+                while (firstNonWs < to && isWhitespace(buf.get(firstNonWs)))
+                    ++firstNonWs;
+
+                // ignore comments and empty/whitspace lines
+                if (firstNonWs == to || buf.get(from) == '%')
+                    {} // ignore
+                // check for a command -- rare enough to go through Strings
+                else
+                if (buf.get(from) == '$') {
+                    final String line = decode(buf, from, to);
+                    adjustments.add(line);
+                }
+                else {
+                    int pos = from;
+                    do {
+                        int end = pos;
+                        while (end < to && !isWhitespace(buf.get(end)))
+                            ++end;
+                        scanEntry(buf, pos, end);
+                        pos = end;
+                        while (pos < to && isWhitespace(buf.get(pos)))
+                            ++pos;
+                    } while (pos < to);
+                }
+            }
+
+            private void scanEntry (final ByteBuffer buf, final int from, final int to) throws IOException {
+                // trailing empty fields are dropped, as with Pattern.split()
+                int end = to;
+                while (end > from && buf.get(end - 1) == '.')
+                    --end;
+
+                int fields = 0;
+                for (int start = from, k = from; k <= end; ++k)
+                    if (k == end || buf.get(k) == '.') {
+                        if (fields < 6) {
+                            fieldStarts[fields] = start;
+                            fieldEnds[fields] = k;
+                        }
+                        ++fields;
+                        start = k + 1;
+                    }
+                if (fields != 6)
+                    throw new IllegalArgumentException("entry is not 6 fields long (" + decode(buf, from, to) + ")");
+
+                final int j = parseInt(buf, fieldStarts[0], fieldEnds[0]);
+                final int i = parseInt(buf, fieldStarts[1], fieldEnds[1]);
+                final int n = parseInt(buf, fieldStarts[2], fieldEnds[2]);
+                final long x = parseCoordinate(adjustments.getX(), buf, fieldStarts[3], fieldEnds[3]);
+                boolean exact = overflowed;
+                final long y = parseCoordinate(adjustments.getY(), buf, fieldStarts[4], fieldEnds[4]);
+                exact |= overflowed;
+                final long z = parseCoordinate(adjustments.getZ(), buf, fieldStarts[5], fieldEnds[5]);
+                exact |= overflowed;
+
+                marks.check(n, j, i);
+                if (exact)
+                    accept(DeclaredPoint.create(
+                            parseExactCoordinate(adjustments.getX(), buf, fieldStarts[3], fieldEnds[3]),
+                            parseExactCoordinate(adjustments.getY(), buf, fieldStarts[4], fieldEnds[4]),
+                            parseExactCoordinate(adjustments.getZ(), buf, fieldStarts[5], fieldEnds[5]),
+                            j, i, n));
+                else
+                    accept(j, i, n, x, y, z);
+                marks.mark(n, j, i);
+
+                maxj = Math.max(maxj, j);
+                maxi = Math.max(maxi, i);
+            }
+
+            /**
+             * Called for every point scanned whose coordinates fit in a long,
+             * in order.
+             */
+            protected void accept (final int j, final int i, final int n, final long x, final long y, final long z) throws IOException {
+                allpoints.add(j, i, n, x, y, z);
+            }
+
+            /**
+             * Called, in order, for the points which have a coordinate that
+             * does not fit in a long.
+             */
+            protected void accept (final DeclaredPoint p) throws IOException {
+                allpoints.add(p);
+            }
+
+            /**
+             * Sets {@link #overflowed} instead of throwing when the value does
+             * not fit in a long.
+             */
+            private long parseLong (final ByteBuffer buf, final int from, final int to) {
+                int k = from;
+                boolean negative = false;
+                if (k < to && (buf.get(k) == '-' || buf.get(k) == '+'))
+                    negative = buf.get(k++) == '-';
+                if (k == to)
+                    throw new NumberFormatException("For input string: \"" + decode(buf, from, to) + "\"");
+
+                // accumulate negatively, so that Long.MIN_VALUE fits
+                long result = 0;
+                overflowed = false;
+                for (; k < to; ++k) {
+                    final int digit = buf.get(k) - '0';
+                    if (digit < 0 || digit > 9)
+                        throw new NumberFormatException("For input string: \"" + decode(buf, from, to) + "\"");
+                    if (!overflowed)
+                        if (result < Long.MIN_VALUE / 10 || result * 10 < Long.MIN_VALUE + digit)
+                            overflowed = true;
+                        else
+                            result = result * 10 - digit;
+                }
+                if (!negative && result == Long.MIN_VALUE)
+                    overflowed = true;
+
+                return negative? result : -result;
+            }
+
+            private int parseInt (final ByteBuffer buf, final int from, final int to) {
+                final long l = parseLong(buf, from, to);
+                if (overflowed || l < Integer.MIN_VALUE || l > Integer.MAX_VALUE)
+                    throw new NumberFormatException("For input string: \"" + decode(buf, from, to) + "\"");
+                return (int) l;
+            }
+
+            /**
+             * Sets {@link #overflowed} if the value, or any adjustment of it,
+             * does not fit in a long.
+             */
+            private long parseCoordinate (final List<Adjustment> adjs, final ByteBuffer buf, final int from, final int to) {
+                final long l = parseLong(buf, from, to);
+                if (!overflowed)
+                    try {
+                        return applyAdjustments(adjs, l);
+                    }
+                    catch (final ArithmeticException ex) {
+                        overflowed = true;
+                    }
+                return 0;
+            }
+
+            private LargeInteger parseExactCoordinate (final List<Adjustment> adjs, final ByteBuffer buf, final int from, final int to) {
+                return applyAdjustments(adjs, LargeInteger.valueOf(decode(buf, from, to)));
+            }
+
+            public LoadAllPointsResult getResult () {
+                return new LoadAllPointsResult(allpoints, marks, maxj, maxi);
+            }
+
+            /**
+             * Collects the adjustment lines in [from, to), in order.
+             */
+            public static List<String> scanAdjustmentLines (final ByteBuffer buf, final int from, final int to) {
+                final List<String> lines = new LinkedList<>();
+                int pos = from;
+                while (pos < to) {
+                    int eol = pos;
+                    while (eol < to && !isLineBreak(buf.get(eol)))
+                        ++eol;
+                    if (eol > pos && buf.get(pos) == '$')
+                        lines.add(decode(buf, pos, eol));
+                    pos = eol + 1;
+                }
+                return lines;
+            }
+        }
+
+        private static final long MaxMappingWindow = 1l << 30;
+
+        /**
+         * Last line break in [0, limit), or -1.
+         */
+        private static int lastLineBreak (final ByteBuffer buf, final int limit) {
+            int k = limit - 1;
+            while (k >= 0 && !MappedPointsScanner.isLineBreak(buf.get(k)))
+                --k;
+            return k;
+        }
+
+        private static LoadAllPointsResult loadAllPoints (final FileChannel channel) throws IOException {
+            final MappedPointsScanner scanner = new MappedPointsScanner();
+            forEachWindow(channel, scanner);
+            return scanner.getResult();
+        }
+
+        private static void forEachWindow (final FileChannel channel, final MappedPointsScanner scanner) throws IOException {
+            final long                  size        = channel.size();
+            long                        position    = 0;
+
+            // Map at most a window at a time and cut windows at line
+            // boundaries, so that files larger than 2GiB can be scanned too.
+            while (position < size) {
+                final long              length      = Math.min(MaxMappingWindow, size - position);
+                final MappedByteBuffer  buf         = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+                int                     end         = (int) length;
+
+                if (position + length < size) {
+                    end = lastLineBreak(buf, end) + 1;
+                    if (end == 0)
+                        throw new IOException("line at offset " + position + " is longer than " + MaxMappingWindow + " bytes");
+                }
+
+                scanner.scan(buf, 0, end);
+                position += end;
+            }
+        }
+
+        private static final long MinChunkSize = 1l << 20;
+
+        /**
+         * Smallest position at or after {@code position} which starts a line
+         * (or is the end of the channel).
+         */
+        private static long nextLineStart (final FileChannel channel, final long position) throws IOException {
+            final long          size    = channel.size();
+            final ByteBuffer    buf     = ByteBuffer.allocate(4096);
+            long                pos     = position;
+
+            if (pos == 0 || pos >= size)
+                return Math.min(pos, size);
+
+            // the line starts right here if the previous byte broke a line
+            --pos;
+            while (pos < size) {
+                buf.clear();
+                final int read = channel.read(buf, pos);
+                if (read <= 0)
+                    break;
+                for (int k = 0; k < read; ++k)
+                    if (MappedPointsScanner.isLineBreak(buf.get(k)))
+                        return pos + k + 1;
+                pos += read;
+            }
+
+            return size;
+        }
+
+        private static final class Chunk {
+            public final long start, end;
+            public Chunk (final long start, final long end) {
+                this.start  = start;
+                this.end    = end;
+            }
+
+            public MappedByteBuffer map (final FileChannel channel) throws IOException {
+                if (end - start > MaxMappingWindow)
+                    throw new IOException("line at offset " + start + " is longer than " + MaxMappingWindow + " bytes");
+                return channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+            }
+        }
+
+        private static List<Chunk> splitIntoChunks (final FileChannel channel, final int parallelism) throws IOException {
+            final long          size        = channel.size();
+            final long          chunkSize   = Math.min(MaxMappingWindow, Math.max(MinChunkSize, size / (parallelism * 4l) + 1));
+            final List<Chunk>   chunks      = new ArrayList<>();
+
+            for (long start = 0; start < size; ) {
+                final long end = nextLineStart(channel, start + chunkSize);
+                chunks.add(new Chunk(start, end));
+                start = end;
+            }
+
+            return chunks;
+        }
+
+        private static final class AdjustmentLinesScan extends RecursiveTask<List<String>> {
+            private static final long serialVersionUID = 1l;
+
+            private final FileChannel channel;
+            private final Chunk chunk;
+            public AdjustmentLinesScan (final FileChannel channel, final Chunk chunk) {
+                this.channel    = channel;
+                this.chunk      = chunk;
+            }
+
+            @Override
+            protected List<String> compute () {
+                try {
+                    final MappedByteBuffer buf = chunk.map(channel);
+                    return MappedPointsScanner.scanAdjustmentLines(buf, 0, buf.limit());
+                }
+                catch (final IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+            }
+        }
+
+        private static final class PointsScan extends RecursiveTask<LoadAllPointsResult> {
+            private static final long serialVersionUID = 1l;
+
+            private final FileChannel channel;
+            private final Chunk chunk;
+            private final Adjustments adjustments;
+            // kept aside, so that a violation at the seam with the previous
+            // chunk can be reported first
+            private RuntimeException failure;
+            public PointsScan (final FileChannel channel, final Chunk chunk, final Adjustments adjustments) {
+                this.channel        = channel;
+                this.chunk          = chunk;
+                this.adjustments    = adjustments;
+            }
+
+            @Override
+            protected LoadAllPointsResult compute () {
+                final MappedPointsScanner scanner = new MappedPointsScanner(adjustments);
+                try {
+                    final MappedByteBuffer buf = chunk.map(channel);
+                    scanner.scan(buf, 0, buf.limit());
+                }
+                catch (final IOException ex) {
+                    failure = new UncheckedIOException(ex);
+                }
+                catch (final RuntimeException ex) {
+                    failure = ex;
+                }
+                return scanner.getResult();
+            }
+
+            public RuntimeException getFailure () {
+                return failure;
+            }
+        }
+
+        /**
+         * Joins the task, rethrowing the exception it originally threw rather
+         * than the copy the fork-join framework makes for the joining thread.
+         */
+        private static <T> T joinUnchecked (final ForkJoinTask<T> task) throws IOException {
+            try {
+                return task.join();
+            }
+            catch (final RuntimeException ex) {
+                RuntimeException original = ex;
+                if (ex.getCause() != null && ex.getCause().getClass() == ex.getClass())
+                    original = (RuntimeException) ex.getCause();
+                if (original instanceof UncheckedIOException)
+                    throw ((UncheckedIOException) original).getCause();
+                throw original;
+            }
+        }
+
+        /**
+         * Scans line-aligned chunks of the channel on the given pool.
+         * Adjustment lines are collected in a first pass, so that every chunk
+         * starts with the adjustments in force at its beginning. Restrictions
+         * are checked within each chunk while scanning, and across chunk seams
+         * while merging (in file order, so that the first violation is the one
+         * reported).
+         */
+        private static List<LoadAllPointsResult> loadAllPoints (final FileChannel channel, final ForkJoinPool pool) throws IOException {
+            final List<Chunk>                   chunks      = splitIntoChunks(channel, pool.getParallelism());
+            final List<AdjustmentLinesScan>     adjscans    = new ArrayList<>(chunks.size());
+            final List<PointsScan>              pointscans  = new ArrayList<>(chunks.size());
+            final List<LoadAllPointsResult>     results     = new ArrayList<>(chunks.size());
+
+            for (final Chunk chunk: chunks) {
+                final AdjustmentLinesScan scan = new AdjustmentLinesScan(channel, chunk);
+                pool.execute(scan);
+                adjscans.add(scan);
+            }
+
+            // a chunk can be scanned as soon as all adjustments before it are known
+            final Adjustments adjustments = new Adjustments();
+            for (int k = 0; k < chunks.size(); ++k) {
+                final PointsScan scan = new PointsScan(channel, chunks.get(k), new Adjustments(adjustments));
+                pool.execute(scan);
+                pointscans.add(scan);
+                for (final String line: joinUnchecked(adjscans.get(k)))
+                    adjustments.add(line);
+            }
+
+            final Marks marks = new Marks();
+            for (final PointsScan scan: pointscans) {
+                final LoadAllPointsResult result = joinUnchecked(scan);
+                marks.checkSeam(result.marks);
+                marks.markAll(result.marks);
+                if (scan.getFailure() instanceof UncheckedIOException)
+                    throw ((UncheckedIOException) scan.getFailure()).getCause();
+                if (scan.getFailure() != null)
+                    throw scan.getFailure();
+                results.add(result);
+            }
+
+            return results;
+        }
+
         private static LoadAllPointsResult loadAllPoints (final Reader pointsReader) throws IOException {
             final Adjustments               adjustments  = new Adjustments();
-            final LinkedList<DeclaredPoint> allpoints    = new LinkedList<>();
+            final PointGrid.Builder         allpoints    = new PointGrid.Builder();
+            final Marks                     marks        = new Marks();
             final BufferedReader            r            = new BufferedReader(pointsReader);
             int                             maxj         = 0,
                                             maxi         = 0;
@@ -210,7 +774,7 @@ public class Persistance {
                 // check for a command
                 else
                 if (line.startsWith("$"))
-                    adjustments.add(translateAdjustableElement(line.charAt(1)), makeAdjustment(line.charAt(2), Integer.parseInt(line.substring(3))));
+                    adjustments.add(line);
                 else
                     for (final String entry: ws.split(line)) {
                         final String[] els = dot.split(entry);
@@ -224,43 +788,420 @@ public class Persistance {
                         final LargeInteger y = applyAdjustments(adjustments.getY(), LargeInteger.valueOf(els[4]));
                         final LargeInteger z = applyAdjustments(adjustments.getZ(), LargeInteger.valueOf(els[5]));
 
-                        Restrictions.checkRestrictions(allpoints.peekLast(), n, j, i);
-                        allpoints.addLast(DeclaredPoint.create(x, y, z, j, i, n));
+                        marks.check(n, j, i);
+                        allpoints.add(DeclaredPoint.create(x, y, z, j, i, n));
+                        marks.mark(n, j, i);
 
                         maxj = Math.max(maxj, j);
                         maxi = Math.max(maxi, i);
                     }
 
-            return new LoadAllPointsResult(allpoints, maxj, maxi);
+            return new LoadAllPointsResult(allpoints, marks, maxj, maxi);
+        }
+
+        private static DeclaredPoint newPlaceholder () {
+            return DeclaredPoint.create(minusOne, minusOne, minusOne, -1, -1, -1);
+        }
+
+        private static ArrayList<DeclaredPoint> newRow (final int i) {
+            final ArrayList<DeclaredPoint> row = new ArrayList<>(i);
+            for (int l = 0; l < i; ++l)
+                row.add(newPlaceholder());
+            return row;
+        }
+
+        /**
+         * Hands rows over as soon as they are complete, instead of collecting
+         * all points. Rows are indexed by i, with placeholders before the
+         * first declared point of the row.
+         */
+        private static final class RowScanner extends MappedPointsScanner {
+            private final RowConsumer               consumer;
+            private ArrayList<DeclaredPoint>        row          = new ArrayList<>();
+            private int                             j            = -1;
+
+            public RowScanner (final RowConsumer consumer) {
+                this.consumer = consumer;
+            }
+
+            @Override
+            protected void accept (final int j, final int i, final int n, final long x, final long y, final long z) throws IOException {
+                accept(DeclaredPoint.create(x, y, z, j, i, n));
+            }
+
+            @Override
+            protected void accept (final DeclaredPoint p) throws IOException {
+                if (p.getJ() != j)
+                    flush();
+                j = p.getJ();
+                while (row.size() < p.getI())
+                    row.add(newPlaceholder());
+                row.add(p);
+            }
+
+            public void flush () throws IOException {
+                if (!row.isEmpty()) {
+                    consumer.consumeRow(j, row);
+                    row = new ArrayList<>(row.size());
+                }
+            }
+        }
+
+        public static void streamPoints (final FileChannel channel, final RowConsumer consumer) throws IOException {
+            final RowScanner scanner = new RowScanner(consumer);
+            forEachWindow(channel, scanner);
+            scanner.flush();
+        }
+
+        private static PointGrid toGrid (final LoadAllPointsResult inf) {
+            return toGrid(java.util.Collections.singletonList(inf));
+        }
+
+        private static PointGrid toGrid (final List<LoadAllPointsResult> infs) {
+            PointGrid.Builder   points  = null;
+            int                 maxj    = 0,
+                                maxi    = 0;
+
+            // the first builder takes in the points of all the others
+            for (final LoadAllPointsResult inf: infs) {
+                maxj = Math.max(maxj, inf.j);
+                maxi = Math.max(maxi, inf.i);
+                if (points == null)
+                    points = inf.points;
+                else
+                    points.addAll(inf.points);
+            }
+            if (points == null)
+                points = new PointGrid.Builder();
+
+            return points.build(maxj + 1, maxi + 1);
+        }
+
+        public static PointGrid loadPoints (final Reader pointsReader) throws IOException {
+            return toGrid(loadAllPoints(pointsReader));
+        }
+
+        public static PointGrid loadPoints (final FileChannel pointsChannel) throws IOException {
+            return toGrid(loadAllPoints(pointsChannel));
+        }
+
+        public static PointGrid loadPoints (final FileChannel pointsChannel, final ForkJoinPool pool) throws IOException {
+            return toGrid(loadAllPoints(pointsChannel, pool));
+        }
+    }
+
+    /**
+     * A compact, columnar binary form of a loaded point grid, so that the
+     * text of a survey only needs to be parsed once.
+     * <pre>
+     * magic                int
+     * version              int
+     * rows, columns        int, int
+     * valid cells          int
+     * validity bitmap      long[ceil(rows * columns / 64)], row-major
+     * n                    int[valid cells]
+     * x, y, z              each: long byte-length, then zig-zag varint
+     *                      deltas from the previous valid cell
+     * </pre>
+     * All fixed-width values are big-endian. Cells without a valid point only
+     * take up their bit in the bitmap.
+     */
+    private static final class BinaryGrid {
+        public static final int Magic = 0x47445347; // "GDSG"
+        public static final int Version = 1;
+
+        private static long zigzag (final long l) {
+            return (l << 1) ^ (l >> 63);
+        }
+
+        private static long unzigzag (final long l) {
+            return (l >>> 1) ^ -(l & 1);
+        }
+
+        private static int varLongSize (final long l) {
+            return l == 0? 1 : (63 - Long.numberOfLeadingZeros(l)) / 7 + 1;
+        }
+
+        private static void writeVarLong (final DataOutputStream outs, final long l) throws IOException {
+            long rest = l;
+            while ((rest & ~0x7fl) != 0) {
+                outs.write((int) (rest & 0x7f) | 0x80);
+                rest >>>= 7;
+            }
+            outs.write((int) rest);
         }
 
-        private static ArrayList<ArrayList<DeclaredPoint>> newGrid (final int j, final int i) {
-            final ArrayList<ArrayList<DeclaredPoint>> grid = new ArrayList<>(j);
-            for (int k = 0; k < j; ++k) {
-                final ArrayList<DeclaredPoint> inner = new ArrayList<>(i);
-                grid.add(inner);
-                for (int l = 0; l < i; ++l)
-                    inner.add(DeclaredPoint.create(minusOne, minusOne, minusOne, -1, -1, -1));
+        private interface CoordinateGetter {
+            long get (PointGrid points, int k);
+        }
+
+        private static final CoordinateGetter[] Coordinates = {
+            new CoordinateGetter() { @Override public long get (final PointGrid points, final int k) { return points.getX(k); } },
+            new CoordinateGetter() { @Override public long get (final PointGrid points, final int k) { return points.getY(k); } },
+            new CoordinateGetter() { @Override public long get (final PointGrid points, final int k) { return points.getZ(k); } },
+        };
+
+        private static void writeDeltaColumn (final DataOutputStream outs, final PointGrid points, final CoordinateGetter coord) throws IOException {
+            long length = 0, previous = 0;
+            for (int k = 0; k < points.size(); ++k) {
+                final long value = coord.get(points, k);
+                length += varLongSize(zigzag(value - previous));
+                previous = value;
             }
 
-            return grid;
+            outs.writeLong(length);
+            previous = 0;
+            for (int k = 0; k < points.size(); ++k) {
+                final long value = coord.get(points, k);
+                writeVarLong(outs, zigzag(value - previous));
+                previous = value;
+            }
         }
 
-        public static List<? extends List<? extends DeclaredPoint>> loadPoints (final Reader pointsReader) throws IOException {
-            final LoadAllPointsResult inf = loadAllPoints(pointsReader);
-            final ArrayList<ArrayList<DeclaredPoint>> grid = newGrid(inf.j + 1, inf.i + 1);
+        public static void save (final PointGrid points, final OutputStream outs) throws IOException {
+            final DataOutputStream                  douts   = new DataOutputStream(new BufferedOutputStream(outs, 10240));
+            final int                               rows    = points.getRows(),
+                                                    columns = points.getColumns();
+            final long[]                            bitmap  = new long[(int) ((rows * (long) columns + 63) / 64)];
+
+            for (int k = 0; k < points.size(); ++k)
+                if (points.isExact(k))
+                    throw new IllegalArgumentException("Point #" + points.getN(k) + " has a coordinate which does not fit in a long");
+
+            for (int j = 0; j < rows; ++j)
+                for (int i = points.nextValid(j, 0); i != -1; i = points.nextValid(j, i + 1)) {
+                    final long cell = j * (long) columns + i;
+                    bitmap[(int) (cell >>> 6)] |= 1l << cell;
+                }
+
+            douts.writeInt(Magic);
+            douts.writeInt(Version);
+            douts.writeInt(rows);
+            douts.writeInt(columns);
+            douts.writeInt(points.size());
+            for (final long word: bitmap)
+                douts.writeLong(word);
+            for (int k = 0; k < points.size(); ++k)
+                douts.writeInt(points.getN(k));
+            for (final CoordinateGetter coord: Coordinates)
+                writeDeltaColumn(douts, points, coord);
+
+            douts.flush();
+        }
+
+        /**
+         * Sequential reads from a region of a channel, which is mapped a
+         * window at a time.
+         */
+        private static final class MappedSection {
+            private final FileChannel   channel;
+            private final long          end;
+            private long                bufStart;
+            private MappedByteBuffer    buf;
+
+            public MappedSection (final FileChannel channel, final long start, final long length) throws IOException {
+                this.channel    = channel;
+                this.end        = start + length;
+                if (end > channel.size())
+                    throw new IOException("truncated binary grid: section ends at " + end + " but file size is " + channel.size());
+                map(start);
+            }
+
+            private void map (final long start) throws IOException {
+                bufStart = start;
+                buf = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(PointLoading.MaxMappingWindow, end - start));
+            }
+
+            private void ensure (final int bytes) throws IOException {
+                if (buf.remaining() < bytes && bufStart + buf.limit() < end)
+                    map(bufStart + buf.position());
+            }
 
-            DeclaredPoint previousPoint = null;
-            for (final DeclaredPoint p: inf.points) {
-                assert(previousPoint == null || RestrictionsExt.allRestrictionsHold(previousPoint, p.getN(), p.getJ(), p.getI()));
-                grid.get(p.getJ()).set(p.getI(), p);
+            public long getPosition () {
+                return bufStart + buf.position();
             }
 
-            return grid;
+            public int readInt () throws IOException {
+                ensure(4);
+                return buf.getInt();
+            }
+
+            public long readLong () throws IOException {
+                ensure(8);
+                return buf.getLong();
+            }
+
+            public long readVarLong () throws IOException {
+                ensure(10);
+                long result = 0;
+                for (int shift = 0; ; shift += 7) {
+                    final byte b = buf.get();
+                    result |= (long) (b & 0x7f) << shift;
+                    if (b >= 0)
+                        return result;
+                    if (shift > 63)
+                        throw new IOException("malformed varint at offset " + getPosition());
+                }
+            }
+        }
+
+        public static boolean isBinaryGrid (final FileChannel channel) throws IOException {
+            final ByteBuffer buf = ByteBuffer.allocate(4);
+            while (buf.hasRemaining() && channel.read(buf, buf.position()) > 0)
+                {}
+            return !buf.hasRemaining() && buf.getInt(0) == Magic;
+        }
+
+        private interface CellConsumer {
+            void begin (int rows, int columns) throws IOException;
+            /** Called for declared cells only, in row-major order. */
+            void consumeCell (int j, int i, int n, long x, long y, long z) throws IOException;
+            void end () throws IOException;
+        }
+
+        private static void decode (final FileChannel channel, final CellConsumer consumer) throws IOException {
+            final MappedSection header = new MappedSection(channel, 0, 20);
+            if (header.readInt() != Magic)
+                throw new IOException("not a binary grid");
+            final int version = header.readInt();
+            if (version != Version)
+                throw new IOException("unsupported binary grid version " + version);
+            final int   rows        = header.readInt(),
+                        columns     = header.readInt(),
+                        valid       = header.readInt();
+            final int   bitmapWords = (int) ((rows * (long) columns + 63) / 64);
+
+            final MappedSection bitmap = new MappedSection(channel, 20, bitmapWords * 8l);
+            final MappedSection ns = new MappedSection(channel, 20 + bitmapWords * 8l, valid * 4l);
+            final MappedSection[] coords = new MappedSection[Coordinates.length];
+            long position = ns.end;
+            for (int k = 0; k < coords.length; ++k) {
+                final long length = new MappedSection(channel, position, 8).readLong();
+                coords[k] = new MappedSection(channel, position + 8, length);
+                position += 8 + length;
+            }
+
+            final long[] previous = new long[coords.length];
+            int loaded = 0;
+            consumer.begin(rows, columns);
+            for (int word = 0; word < bitmapWords; ++word)
+                for (long bits = bitmap.readLong(); bits != 0; bits &= bits - 1) {
+                    final long cell = word * 64l + Long.numberOfTrailingZeros(bits);
+                    for (int k = 0; k < coords.length; ++k)
+                        previous[k] += unzigzag(coords[k].readVarLong());
+                    final int j = (int) (cell / columns), i = (int) (cell % columns);
+                    consumer.consumeCell(j, i, ns.readInt(), previous[0], previous[1], previous[2]);
+                    ++loaded;
+                }
+
+            if (loaded != valid)
+                throw new IOException("binary grid declares " + valid + " valid cells but its bitmap has " + loaded);
+            consumer.end();
+        }
+
+        public static void stream (final FileChannel channel, final RowConsumer consumer) throws IOException {
+            decode(channel, new CellConsumer() {
+                private ArrayList<DeclaredPoint> row;
+                private int rows, columns, rowj;
+
+                @Override
+                public void begin (final int rows, final int columns) {
+                    this.rows = rows;
+                    this.columns = columns;
+                    row = PointLoading.newRow(columns);
+                }
+
+                private void flushUntil (final int j) throws IOException {
+                    for (; rowj < j; ++rowj) {
+                        consumer.consumeRow(rowj, row);
+                        row = PointLoading.newRow(columns);
+                    }
+                }
+
+                @Override
+                public void consumeCell (final int j, final int i, final int n, final long x, final long y, final long z) throws IOException {
+                    flushUntil(j);
+                    row.set(i, DeclaredPoint.create(x, y, z, j, i, n));
+                }
+
+                @Override
+                public void end () throws IOException {
+                    flushUntil(rows);
+                }
+            });
+        }
+
+        public static PointGrid load (final FileChannel channel) throws IOException {
+            final PointGrid.Builder builder = new PointGrid.Builder();
+            final PointGrid[] result = { null };
+            decode(channel, new CellConsumer() {
+                private int rows, columns;
+
+                @Override
+                public void begin (final int rows, final int columns) {
+                    this.rows = rows;
+                    this.columns = columns;
+                }
+
+                @Override
+                public void consumeCell (final int j, final int i, final int n, final long x, final long y, final long z) {
+                    builder.add(j, i, n, x, y, z);
+                }
+
+                @Override
+                public void end () {
+                    result[0] = builder.build(rows, columns);
+                }
+            });
+            return result[0];
         }
     }
 
-    public static List<? extends List<? extends DeclaredPoint>> loadPoints (final Reader pointsReader) throws IOException {
+    public static PointGrid loadPoints (final Reader pointsReader) throws IOException {
         return PointLoading.loadPoints(pointsReader);
     }
+
+    /**
+     * Same as {@link #loadPoints(Reader)}, but the input is memory-mapped and
+     * scanned without going through a character decoder.
+     */
+    public static PointGrid loadPoints (final FileChannel pointsChannel) throws IOException {
+        return PointLoading.loadPoints(pointsChannel);
+    }
+
+    /**
+     * Same as {@link #loadPoints(FileChannel)}, but the input is split at
+     * line boundaries and the pieces are scanned in parallel on the given
+     * pool.
+     */
+    public static PointGrid loadPoints (final FileChannel pointsChannel, final ForkJoinPool pool) throws IOException {
+        return PointLoading.loadPoints(pointsChannel, pool);
+    }
+
+    /**
+     * Saves a loaded point grid in the binary form read by
+     * {@link #loadBinaryPoints(FileChannel)}. All coordinates must fit in a long.
+     */
+    public static void saveBinaryPoints (final PointGrid points, final OutputStream outs) throws IOException {
+        BinaryGrid.save(points, outs);
+    }
+
+    /**
+     * Streams the rows of a text or binary point file, without keeping the
+     * whole grid in memory.
+     */
+    public static void streamPoints (final FileChannel pointsChannel, final RowConsumer consumer) throws IOException {
+        if (isBinaryPoints(pointsChannel))
+            BinaryGrid.stream(pointsChannel, consumer);
+        else
+            PointLoading.streamPoints(pointsChannel, consumer);
+    }
+
+    public static boolean isBinaryPoints (final FileChannel pointsChannel) throws IOException {
+        return BinaryGrid.isBinaryGrid(pointsChannel);
+    }
+
+    public static PointGrid loadBinaryPoints (final FileChannel pointsChannel) throws IOException {
+        return BinaryGrid.load(pointsChannel);
+    }
 }
@@ -1,21 +1,18 @@
 package org.pseudosystems.geodaisia;
 
-public class Point<C> {
+/**
+ * A point of the grid, by its indices; subclasses keep its coordinates, in
+ * whatever form they are at hand.
+ */
+public abstract class Point<C> {
 
-    private final C x, y, z;
     private final int j, i, n;
 
-    public C getX() {
-        return x;
-    }
+    public abstract C getX();
 
-    public C getY () {
-        return y;
-    }
+    public abstract C getY ();
 
-    public C getZ () {
-        return z;
-    }
+    public abstract C getZ ();
 
     public int getJ () {
         return j;
@@ -29,10 +26,7 @@ public class Point<C> {
         return n;
     }
 
-    protected Point (final C x, final C y, final C z, int j, int i, int n) {
-        this.x = x;
-        this.y = y;
-        this.z = z;
+    protected Point (int j, int i, int n) {
         this.j = j;
         this.i = i;
         this.n = n;
@@ -44,6 +38,6 @@ public class Point<C> {
     }
 
     public String toCoordString () {
-        return "(" + x + ',' + y + ',' + z + ')';
+        return "(" + getX() + ',' + getY() + ',' + getZ() + ')';
     }
 }
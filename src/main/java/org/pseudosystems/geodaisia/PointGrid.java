@@ -0,0 +1,239 @@
+package org.pseudosystems.geodaisia;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import org.jscience.mathematics.number.LargeInteger;
+
+import static org.pseudosystems.geodaisia.Constants.maxLong;
+import static org.pseudosystems.geodaisia.Constants.minLong;
+
+/**
+ * The grid of valid declared points, unboxed into flat arrays.
+ * <p>
+ * The valid cells are those occupied in a {@link SparseGrid}, and their
+ * coordinates are kept in {@code long} columns, indexed by the rank the
+ * sparse grid gives each cell. Empty cells cost two bits.
+ * <p>
+ * Points with a coordinate which does not fit in a long are kept exactly, as
+ * {@link DeclaredPoint}s, next to the columns. Their column entries are
+ * meaningless; {@link #isExact(int)} tells them apart.
+ */
+public class PointGrid {
+
+    private final SparseGrid                    cells;
+    private final long[]                        xs, ys, zs;
+    private final int[]                         ns;
+    private final Map<Integer, DeclaredPoint>   exact;
+
+    private PointGrid (final SparseGrid cells, final long[] xs, final long[] ys, final long[] zs, final int[] ns, final Map<Integer, DeclaredPoint> exact) {
+        this.cells          = cells;
+        this.xs             = xs;
+        this.ys             = ys;
+        this.zs             = zs;
+        this.ns             = ns;
+        this.exact          = exact;
+        assert(cells.size() == ns.length);
+    }
+
+    public int getRows () {
+        return cells.getRows();
+    }
+
+    public int getColumns () {
+        return cells.getColumns();
+    }
+
+    /**
+     * @return the number of valid cells
+     */
+    public int size () {
+        return ns.length;
+    }
+
+    public boolean isValid (final int j, final int i) {
+        return cells.isOccupied(j, i);
+    }
+
+    /**
+     * @return the index of (j, i) in the columns, or -1 if the cell is not
+     *          valid
+     */
+    public int indexOf (final int j, final int i) {
+        return cells.indexOf(j, i);
+    }
+
+    /**
+     * @return the first valid column of row j at or after column i, or -1
+     */
+    public int nextValid (final int j, final int i) {
+        return cells.nextOccupied(j, i);
+    }
+
+    public boolean isExact (final int k) {
+        return !exact.isEmpty() && exact.containsKey(k);
+    }
+
+    public long getX (final int k) {
+        assert(!isExact(k));
+        return xs[k];
+    }
+
+    public long getY (final int k) {
+        assert(!isExact(k));
+        return ys[k];
+    }
+
+    public long getZ (final int k) {
+        assert(!isExact(k));
+        return zs[k];
+    }
+
+    public int getN (final int k) {
+        return ns[k];
+    }
+
+    private DeclaredPoint getPoint (final int k, final int j, final int i) {
+        final DeclaredPoint result;
+
+        if (isExact(k))
+            result = exact.get(k);
+        else
+            result = DeclaredPoint.create(xs[k], ys[k], zs[k], j, i, ns[k]);
+
+        assert(result.getJ() == j && result.getI() == i);
+        return result;
+    }
+
+    /**
+     * @return the point at (j, i), materialised, or null if the cell is not
+     *          valid
+     */
+    public DeclaredPoint get (final int j, final int i) {
+        final int k = indexOf(j, i);
+        return k == -1? null : getPoint(k, j, i);
+    }
+
+    /**
+     * @return all valid points, in row-major order, materialised one at a
+     *          time
+     */
+    public Iterable<DeclaredPoint> getPoints () {
+        return new Iterable<DeclaredPoint>() {
+            @Override
+            public Iterator<DeclaredPoint> iterator () {
+                return new Iterator<DeclaredPoint>() {
+                    private int k = 0, j = 0, i = -1;
+
+                    @Override
+                    public boolean hasNext () {
+                        return k < size();
+                    }
+
+                    @Override
+                    public DeclaredPoint next () {
+                        if (!hasNext())
+                            throw new NoSuchElementException();
+                        for (i = nextValid(j, i + 1); i == -1; i = nextValid(++j, 0))
+                            {}
+                        return getPoint(k++, j, i);
+                    }
+
+                    @Override
+                    public void remove () {
+                        throw new UnsupportedOperationException("Not supported.");
+                    }
+                };
+            }
+        };
+    }
+
+    private static boolean fitsInLong (final LargeInteger li) {
+        return !(li.isLessThan(minLong) || li.isGreaterThan(maxLong));
+    }
+
+    /**
+     * Collects points, which must be added in row-major order. Points which
+     * are not valid (see {@link Points#isPointValid(DeclaredPoint)}) are
+     * dropped.
+     */
+    public static class Builder {
+        private long[]                              xs          = new long[64],
+                                                    ys          = new long[64],
+                                                    zs          = new long[64];
+        private int[]                               ns          = new int[64],
+                                                    js          = new int[64],
+                                                    is          = new int[64];
+        private final Map<Integer, DeclaredPoint>   exact       = new HashMap<>();
+        private int                                 size        = 0;
+
+        private void grow () {
+            final int capacity = ns.length * 2;
+            xs = Arrays.copyOf(xs, capacity);
+            ys = Arrays.copyOf(ys, capacity);
+            zs = Arrays.copyOf(zs, capacity);
+            ns = Arrays.copyOf(ns, capacity);
+            js = Arrays.copyOf(js, capacity);
+            is = Arrays.copyOf(is, capacity);
+        }
+
+        private void checkOrder (final int j, final int i) {
+            if (j < 0 || i < 0)
+                throw new IllegalArgumentException("Point [" + j + "," + i + "] is not on the grid");
+            if (size > 0 && !(j > js[size - 1] || j == js[size - 1] && i > is[size - 1]))
+                throw new IllegalArgumentException("Point [" + j + "," + i + "] given after point [" + js[size - 1] + "," + is[size - 1] + "]");
+        }
+
+        public void add (final int j, final int i, final int n, final long x, final long y, final long z) {
+            checkOrder(j, i);
+            if (x < 0 || y < 0)
+                return;
+            if (size == ns.length)
+                grow();
+            xs[size] = x;
+            ys[size] = y;
+            zs[size] = z;
+            ns[size] = n;
+            js[size] = j;
+            is[size] = i;
+            ++size;
+        }
+
+        /**
+         * Adds a point exactly, whether its coordinates fit in a long or not.
+         */
+        public void add (final DeclaredPoint p) {
+            if (fitsInLong(p.getX()) && fitsInLong(p.getY()) && fitsInLong(p.getZ()))
+                add(p.getJ(), p.getI(), p.getN(), p.getX().longValue(), p.getY().longValue(), p.getZ().longValue());
+            else {
+                checkOrder(p.getJ(), p.getI());
+                if (!Points.isPointValid(p))
+                    return;
+                add(p.getJ(), p.getI(), p.getN(), 0, 0, 0);
+                exact.put(size - 1, p);
+            }
+        }
+
+        /**
+         * Appends all points of another builder, which must come after the
+         * points of this one.
+         */
+        public void addAll (final Builder other) {
+            for (int k = 0; k < other.size; ++k) {
+                final DeclaredPoint p = other.exact.get(k);
+                if (p != null)
+                    add(p);
+                else
+                    add(other.js[k], other.is[k], other.ns[k], other.xs[k], other.ys[k], other.zs[k]);
+            }
+        }
+
+        public PointGrid build (final int rows, final int columns) {
+            return new PointGrid(SparseGrid.of(rows, columns, js, is, size),
+                    Arrays.copyOf(xs, size), Arrays.copyOf(ys, size), Arrays.copyOf(zs, size), Arrays.copyOf(ns, size),
+                    new HashMap<>(exact));
+        }
+    }
+}
@@ -0,0 +1,263 @@
+package org.pseudosystems.geodaisia;
+
+/**
+ * A 2-d tree over the crossings of a level, which are taken out of it as they
+ * are chained into a path.
+ * <p>
+ * {@link #removeClosest(GeneratedPoint)} finds the same point as
+ * {@link Points#findClosest(Iterable, GeneratedPoint)} would over the points
+ * still in the tree, iterated in the order they were given: the closest one,
+ * the first given among equally close ones, and the first one still in the
+ * tree if it coincides with the point searched from. The tree only prunes on
+ * double coordinates, with some slack, and compares candidates as
+ * {@link Points#findClosest(Iterable, GeneratedPoint)} does.
+ * <p>
+ * The tree is implicit: subtrees are ranges of {@link #points}, split at their
+ * middle, alternately on x and y. A point taken out stays in place, but it
+ * no longer counts in {@link #alive}, so that empty subtrees are skipped.
+ */
+public class PointTree {
+
+    // relative to the largest coordinate, more than doubles may be off by
+    private static final double     Slack       = 1e-9;
+
+    private final GeneratedPoint[]  points;
+    private final double[]          xs, ys;
+    // the order each point was given in, and the position of each in points
+    private final int[]             ranks, positions;
+    // points still in the subtree split at each position
+    private final int[]             alive;
+    private final boolean[]         removed;
+    private final double            tolerance;
+    private int                     first       = 0,
+                                    size;
+
+    /**
+     * @param given the points, in the order ties are broken in
+     */
+    public PointTree (final Iterable<? extends GeneratedPoint> given) {
+        this(toArray(given));
+    }
+
+    private PointTree (final GeneratedPoint[] given) {
+        this(given, coordinates(given, true), coordinates(given, false));
+    }
+
+    /**
+     * Takes the arrays over, rather than copying them.
+     *
+     * @param given the points, in the order ties are broken in
+     * @param givenXs the x of each point, as {@link GeneratedPoint#getDoubleX()}
+     * @param givenYs the y of each point, as {@link GeneratedPoint#getDoubleY()}
+     */
+    PointTree (final GeneratedPoint[] given, final double[] givenXs, final double[] givenYs) {
+        final int n = given.length;
+        assert(givenXs.length == n && givenYs.length == n);
+
+        points      = given;
+        xs          = givenXs;
+        ys          = givenYs;
+        ranks       = new int[n];
+        positions   = new int[n];
+        alive       = new int[n];
+        removed     = new boolean[n];
+        size        = n;
+
+        double magnitude = 0;
+        int k;
+        for (k = 0; k < n; ++k) {
+            ranks[k]    = k;
+            magnitude   = Math.max(magnitude, Math.max(Math.abs(xs[k]), Math.abs(ys[k])));
+        }
+        // without finite coordinates nothing is pruned
+        tolerance = Double.isNaN(magnitude) || Double.isInfinite(magnitude)? Double.POSITIVE_INFINITY : Slack * magnitude;
+
+        build(0, n, true);
+        for (k = 0; k < n; ++k)
+            positions[ranks[k]] = k;
+    }
+
+    private static GeneratedPoint[] toArray (final Iterable<? extends GeneratedPoint> given) {
+        int n = 0;
+        for (final GeneratedPoint p: given)
+            ++n;
+
+        final GeneratedPoint[] result = new GeneratedPoint[n];
+        n = 0;
+        for (final GeneratedPoint p: given)
+            result[n++] = p;
+        return result;
+    }
+
+    private static double[] coordinates (final GeneratedPoint[] given, final boolean onX) {
+        final double[] result = new double[given.length];
+        for (int k = 0; k < given.length; ++k)
+            result[k] = onX? given[k].getDoubleX() : given[k].getDoubleY();
+        return result;
+    }
+
+    private double key (final int k, final boolean onX) {
+        return onX? xs[k] : ys[k];
+    }
+
+    private void swap (final int a, final int b) {
+        final GeneratedPoint    p   = points[a];
+        final double            x   = xs[a],
+                                y   = ys[a];
+        final int               r   = ranks[a];
+
+        points[a]   = points[b];
+        xs[a]       = xs[b];
+        ys[a]       = ys[b];
+        ranks[a]    = ranks[b];
+        points[b]   = p;
+        xs[b]       = x;
+        ys[b]       = y;
+        ranks[b]    = r;
+    }
+
+    /**
+     * Moves the point which sorts at mid into place, with no larger key
+     * before and no smaller key after it.
+     */
+    private void select (int lo, int hi, final int mid, final boolean onX) {
+        while (hi - lo > 1) {
+            final double pivot = key((lo + hi) >>> 1, onX);
+            int a = lo, b = hi - 1;
+
+            while (a <= b) {
+                while (Double.compare(key(a, onX), pivot) < 0)
+                    ++a;
+                while (Double.compare(key(b, onX), pivot) > 0)
+                    --b;
+                if (a <= b)
+                    swap(a++, b--);
+            }
+
+            if (mid <= b)
+                hi = b + 1;
+            else
+            if (mid >= a)
+                lo = a;
+            else
+                return;
+        }
+    }
+
+    private void build (final int lo, final int hi, final boolean onX) {
+        if (lo < hi) {
+            final int mid = (lo + hi) >>> 1;
+            select(lo, hi, mid, onX);
+            alive[mid] = hi - lo;
+            build(lo, mid, !onX);
+            build(mid + 1, hi, !onX);
+        }
+    }
+
+    public boolean isEmpty () {
+        return size == 0;
+    }
+
+    private GeneratedPoint remove (final int position) {
+        int lo = 0, hi = points.length, mid = (lo + hi) >>> 1;
+
+        assert(!removed[position]);
+        removed[position] = true;
+        while (mid != position) {
+            --alive[mid];
+            if (position < mid)
+                hi = mid;
+            else
+                lo = mid + 1;
+            mid = (lo + hi) >>> 1;
+        }
+        --alive[mid];
+        --size;
+
+        while (first < points.length && removed[positions[first]])
+            ++first;
+
+        return points[position];
+    }
+
+    /**
+     * Takes the first given point still in the tree out of it.
+     */
+    public GeneratedPoint removeFirst () {
+        assert(!isEmpty());
+        return remove(positions[first]);
+    }
+
+    private static boolean isCoincident (final GeneratedPoint p, final GeneratedPoint q) {
+        return p.isExact()? Predicates.isCoincident(p, q) : Double.isNaN(Points.squaredDistance(p, q));
+    }
+
+    private static boolean isCloser (final GeneratedPoint p, final GeneratedPoint a, final GeneratedPoint b) {
+        return p.isExact()? Predicates.compareDistances(p, a, b) < 0 : Points.squaredDistance(p, a) < Points.squaredDistance(p, b);
+    }
+
+    private final class Search {
+        private final GeneratedPoint    from;
+        private final double            x, y;
+        private int                     best        = -1;
+        private double                  distance    = Double.POSITIVE_INFINITY;
+
+        private Search (final GeneratedPoint from) {
+            this.from   = from;
+            this.x      = from.getDoubleX();
+            this.y      = from.getDoubleY();
+        }
+
+        private void consider (final int k) {
+            final GeneratedPoint    p   = points[k];
+            final double            dx  = xs[k] - x,
+                                    dy  = ys[k] - y;
+
+            if (Math.sqrt(dx * dx + dy * dy) > distance + tolerance)
+                return;
+            if ((best == -1 || isCloser(from, p, points[best]) || ranks[k] < ranks[best] && !isCloser(from, points[best], p))
+                    && !isCoincident(from, p)) {
+                best        = k;
+                distance    = Math.sqrt(Points.squaredDistance(from, p));
+            }
+        }
+
+        private void search (final int lo, final int hi, final boolean onX) {
+            if (lo >= hi)
+                return;
+
+            final int mid = (lo + hi) >>> 1;
+            if (alive[mid] == 0)
+                return;
+
+            if (!removed[mid])
+                consider(mid);
+
+            final double diff = (onX? x : y) - key(mid, onX);
+            if (diff < 0) {
+                search(lo, mid, !onX);
+                if (!(-diff > distance + tolerance))
+                    search(mid + 1, hi, !onX);
+            }
+            else {
+                search(mid + 1, hi, !onX);
+                if (!(diff > distance + tolerance))
+                    search(lo, mid, !onX);
+            }
+        }
+    }
+
+    /**
+     * Takes the point to chain p to (see above) out of the tree.
+     */
+    public GeneratedPoint removeClosest (final GeneratedPoint p) {
+        assert(!isEmpty());
+        if (isCoincident(p, points[positions[first]]))
+            return removeFirst();
+
+        final Search search = new Search(p);
+        search.search(0, points.length, true);
+        assert(search.best != -1);
+        return remove(search.best);
+    }
+}
@@ -165,14 +165,154 @@ public class Points {
         return null;
     }
 
-    public static GeneratedPoint findClosest (final Iterable<? extends GeneratedPoint> points, final GeneratedPoint p) {
+    /**
+     * The square of the distance, in doubles. Only exact enough for
+     * {@link Arithmetic#fast} points.
+     * <p>
+     * Coincident points are NaN apart, as with {@link #distance(GeneratedPoint, GeneratedPoint)}
+     * (where the square root of zero comes out as NaN), so that they are
+     * neither closest to each other nor within any distance either.
+     */
+    public static double squaredDistance (final GeneratedPoint p1, final GeneratedPoint p2) {
+        final double    dx  = p2.getDoubleX() - p1.getDoubleX(),
+                        dy  = p2.getDoubleY() - p1.getDoubleY(),
+                        dz  = p2.getDoubleZ() - p1.getDoubleZ(),
+                        d   = dx * dx + dy * dy + dz * dz;
+        return d == 0? Double.NaN : d;
+    }
+
+    /**
+     * An exact squared distance, num / den with den &gt; 0, or a
+     * {@link Rational} when it does not fit in longs.
+     */
+    public static final class SquaredDistance implements Comparable<SquaredDistance> {
+        private final long      num, den;
+        private final Rational  exact;
+
+        private SquaredDistance (final long num, final long den) {
+            assert(den > 0 && num >= 0);
+            this.num    = num;
+            this.den    = den;
+            this.exact  = null;
+        }
+
+        private SquaredDistance (final Rational exact) {
+            assert(!exact.isNegative());
+            this.num    = 0;
+            this.den    = 0;
+            this.exact  = exact;
+        }
+
+        public boolean isZero () {
+            return exact == null? num == 0 : exact.isZero();
+        }
+
+        public Rational toRational () {
+            return exact == null? Rational.valueOf(num, den) : exact;
+        }
+
+        @Override
+        public int compareTo (final SquaredDistance other) {
+            if (exact == null && other.exact == null)
+                try {
+                    return Long.compare(Math.multiplyExact(num, other.den), Math.multiplyExact(other.num, den));
+                }
+                catch (final ArithmeticException ex) {
+                    // compared as rationals below
+                }
+            return toRational().compareTo(other.toRational());
+        }
+
+        public boolean isAtMost (final long squared) {
+            if (exact == null)
+                try {
+                    return num <= Math.multiplyExact(squared, den);
+                }
+                catch (final ArithmeticException ex) {
+                    // compared as rationals below
+                }
+            return toRational().compareTo(Numbers.toRational(squared)) <= 0;
+        }
+    }
+
+    /**
+     * The exact square of the distance of crossings kept in longs (see
+     * {@link CrossingPoint}), worked out in longs.
+     * @return the squared distance, or null if a point is not kept in longs,
+     *          or if the longs overflow
+     */
+    public static SquaredDistance squaredDistanceInLongs (final GeneratedPoint p1, final GeneratedPoint p2) {
+        if (p1 instanceof CrossingPoint && p2 instanceof CrossingPoint)
+            try {
+                final CrossingPoint c1  = (CrossingPoint) p1,
+                                    c2  = (CrossingPoint) p2;
+                final long  d1  = c1.getDenominator(),
+                            d2  = c2.getDenominator(),
+                            dz  = Math.subtractExact(c2.getLongZ(), c1.getLongZ());
+                final long  dx, dy, d;
+
+                if (d1 == d2) {
+                    dx  = Math.subtractExact(c2.getXNumerator(), c1.getXNumerator());
+                    dy  = Math.subtractExact(c2.getYNumerator(), c1.getYNumerator());
+                    d   = d1;
+                }
+                else {
+                    dx  = Math.subtractExact(Math.multiplyExact(c2.getXNumerator(), d1), Math.multiplyExact(c1.getXNumerator(), d2));
+                    dy  = Math.subtractExact(Math.multiplyExact(c2.getYNumerator(), d1), Math.multiplyExact(c1.getYNumerator(), d2));
+                    d   = Math.multiplyExact(d1, d2);
+                }
+
+                final long  dd  = Math.multiplyExact(d, d);
+                return new SquaredDistance(
+                        Math.addExact(Math.addExact(Math.multiplyExact(dx, dx), Math.multiplyExact(dy, dy)), Math.multiplyExact(Math.multiplyExact(dz, dz), dd)),
+                        dd);
+            }
+            catch (final ArithmeticException ex) {
+                // null below
+            }
+
+        return null;
+    }
+
+    /**
+     * The exact square of the distance, without taking any square root, in
+     * longs as far as {@link #squaredDistanceInLongs(GeneratedPoint, GeneratedPoint)}
+     * goes.
+     */
+    public static SquaredDistance squaredDistanceExactly (final GeneratedPoint p1, final GeneratedPoint p2) {
+        final SquaredDistance result = squaredDistanceInLongs(p1, p2);
+        if (result != null)
+            return result;
+
+        final Rational  dx  = p2.getX().minus(p1.getX()),
+                        dy  = p2.getY().minus(p1.getY()),
+                        dz  = p2.getZ().minus(p1.getZ());
+        return new SquaredDistance(dx.times(dx).plus(dy.times(dy)).plus(dz.times(dz)));
+    }
+
+    /**
+     * Exact if both points are, and in doubles otherwise. Coincident points
+     * are never within any distance (see {@link #squaredDistance(GeneratedPoint, GeneratedPoint)}).
+     */
+    public static boolean isWithinDistance (final GeneratedPoint p1, final GeneratedPoint p2, final long distance) {
+        final boolean result;
+
+        if (p1.isExact() && p2.isExact())
+            result = !Predicates.isCoincident(p1, p2) && Predicates.isWithinDistance(p1, p2, distance);
+        else
+            result = squaredDistance(p1, p2) <= (double) distance * distance;
+
+        return result;
+    }
+
+    private static GeneratedPoint findClosestApproximately (final Iterable<? extends GeneratedPoint> points, final GeneratedPoint p) {
         GeneratedPoint closest = points.iterator().next();
-        Real mindist = distance(p, closest);
+        double mindist = squaredDistance(p, closest);
 
         for (final GeneratedPoint other: points)
             if (other != p) {
-                final Real dist = distance(p, other);
-                if (dist.isLessThan(mindist)) {
+                final double dist = squaredDistance(p, other);
+                if (dist < mindist) {
                     mindist = dist;
                     closest = other;
                 }
@@ -181,6 +321,24 @@ public class Points {
         return closest;
     }
 
+    /**
+     * Exact if p is, and in doubles otherwise.
+     */
+    public static GeneratedPoint findClosest (final Iterable<? extends GeneratedPoint> points, final GeneratedPoint p) {
+        if (!p.isExact())
+            return findClosestApproximately(points, p);
+
+        GeneratedPoint closest = points.iterator().next();
+        boolean coincident = Predicates.isCoincident(p, closest);
+
+        // coincident points are incomparable, as NaN distances would be
+        for (final GeneratedPoint other: points)
+            if (other != p && !coincident && Predicates.compareDistances(p, other, closest) < 0 && !Predicates.isCoincident(p, other))
+                closest = other;
+
+        return closest;
+    }
+
     public static class LineDepthComparator implements Comparator<Line> {
         private final ZPointComparator comp = new ZPointComparator();
         @Override
@@ -0,0 +1,206 @@
+package org.pseudosystems.geodaisia;
+
+import org.jscience.mathematics.number.LargeInteger;
+import org.jscience.mathematics.number.Rational;
+import org.pseudosystems.geodaisia.Points.SquaredDistance;
+
+/**
+ * Exact predicates, filtered in the manner of Shewchuk's adaptive
+ * predicates: each is first evaluated in doubles, along with a bound on the
+ * error of that evaluation, and only evaluated exactly when the double result
+ * is within the bound of the threshold, ie. when it might be wrong.
+ * <p>
+ * Coordinates are taken into doubles from a long numerator and denominator,
+ * so each is within 3u (u = 2<sup>-53</sup>) of its exact value,
+ * relatively. Those which do not fit in longs are not filtered at all. Since
+ * the doubles then lie between 2<sup>-63</sup> and 2<sup>63</sup> (or are
+ * zero), nothing below under- or overflows, and every rounding is within u.
+ * The bounds below allow for the input error on top of the rounding of the
+ * evaluation, with some slack for the terms of second order.
+ * <p>
+ * Distances between crossings kept in longs are cheaper to work out exactly
+ * in longs (see {@link Points#squaredDistanceInLongs(GeneratedPoint, GeneratedPoint)})
+ * than filtered, so the filter only comes in when the longs do not do.
+ */
+public class Predicates {
+
+    private static final double U           = Math.ulp(1.0) / 2;
+    // |x0*y1 - y0*x1|: 2*3u + u per product, u for the difference
+    private static final double DetBound    = 16 * U;
+    // (bx-ax)*(cy-ay) - (by-ay)*(cx-ax): 2*(3u + u) per difference and u per
+    // product, u for the difference, relative to the sums of magnitudes
+    private static final double OrientBound = 16 * U;
+    // dx*dx + dy*dy + dz*dz: 2*(3u + u) + u per square, u per sum, relative
+    // to the squared sums of magnitudes
+    private static final double DistBound   = 16 * U;
+    // largest distance whose square is exact in doubles
+    private static final long   MaxDistance = 1l << 26;
+
+    private Predicates () {
+    }
+
+    private static boolean fitsInLong (final LargeInteger li) {
+        return li.bitLength() < 64;
+    }
+
+    /**
+     * @return r in doubles, within 3u of it, or NaN if r does not fit in
+     *          longs
+     */
+    private static double toDouble (final Rational r) {
+        return fitsInLong(r.getDividend()) && fitsInLong(r.getDivisor())?
+                (double) r.getDividend().longValue() / (double) r.getDivisor().longValue()
+                : Double.NaN;
+    }
+
+    private static double getX (final GeneratedPoint p) {
+        return p instanceof CrossingPoint? (double) ((CrossingPoint) p).getXNumerator() / (double) ((CrossingPoint) p).getDenominator() : toDouble(p.getX());
+    }
+
+    private static double getY (final GeneratedPoint p) {
+        return p instanceof CrossingPoint? (double) ((CrossingPoint) p).getYNumerator() / (double) ((CrossingPoint) p).getDenominator() : toDouble(p.getY());
+    }
+
+    private static double getZ (final GeneratedPoint p) {
+        return p instanceof CrossingPoint? (double) ((CrossingPoint) p).getLongZ() : toDouble(p.getZ());
+    }
+
+    private static int signum (final Rational r) {
+        return r.compareTo(Rational.ZERO);
+    }
+
+    /**
+     * @return the sign of r - n
+     */
+    public static int compare (final Rational r, final long n) {
+        final double    q   = toDouble(r),
+                        d   = q - n;
+
+        // q within 3u of r, n within u of (double) n
+        if (Math.abs(d) > 8 * U * (Math.abs(q) + Math.abs((double) n)))
+            return d < 0? -1 : 1;
+
+        // the divisor is positive
+        return r.getDividend().compareTo(r.getDivisor().times(n));
+    }
+
+    /**
+     * @return the sign of {@link Numbers#det(GeneratedPoint, GeneratedPoint)}
+     */
+    public static int detSign (final GeneratedPoint p0, final GeneratedPoint p1) {
+        final double    a       = getX(p0) * getY(p1),
+                        b       = getY(p0) * getX(p1),
+                        det     = a - b;
+
+        if (Math.abs(det) > DetBound * (Math.abs(a) + Math.abs(b)))
+            return det < 0? -1 : 1;
+
+        return signum(Numbers.det(p0, p1));
+    }
+
+    /**
+     * @return 1 if a, b and c turn counterclockwise (with y growing upwards),
+     *          -1 if clockwise and 0 if they are collinear
+     */
+    public static int orientation (final GeneratedPoint a, final GeneratedPoint b, final GeneratedPoint c) {
+        final double    ax      = getX(a), ay = getY(a),
+                        bx      = getX(b), by = getY(b),
+                        cx      = getX(c), cy = getY(c),
+                        left    = (bx - ax) * (cy - ay),
+                        right   = (by - ay) * (cx - ax),
+                        det     = left - right,
+                        bound   = OrientBound * (
+                                (Math.abs(ax) + Math.abs(bx)) * (Math.abs(ay) + Math.abs(cy))
+                                + (Math.abs(ay) + Math.abs(by)) * (Math.abs(ax) + Math.abs(cx)));
+
+        if (Math.abs(det) > bound)
+            return det < 0? -1 : 1;
+
+        final Rational  rax     = a.getX(), ray = a.getY();
+        return signum(b.getX().minus(rax).times(c.getY().minus(ray))
+                .minus(b.getY().minus(ray).times(c.getX().minus(rax))));
+    }
+
+    private static double square (final double d) {
+        return d * d;
+    }
+
+    /**
+     * The squared distance of p2 from p1 in doubles, followed by the bound on
+     * its error, into result at offset.
+     */
+    private static void squaredDistance (final double[] p1, final GeneratedPoint p2, final double[] result, final int offset) {
+        final double    x   = getX(p2),
+                        y   = getY(p2),
+                        z   = getZ(p2);
+
+        result[offset]      = square(x - p1[0]) + square(y - p1[1]) + square(z - p1[2]);
+        result[offset + 1]  = DistBound * (
+                square(Math.abs(p1[0]) + Math.abs(x))
+                + square(Math.abs(p1[1]) + Math.abs(y))
+                + square(Math.abs(p1[2]) + Math.abs(z)));
+    }
+
+    private static double[] getCoordinates (final GeneratedPoint p) {
+        return new double[] { getX(p), getY(p), getZ(p) };
+    }
+
+    /**
+     * Exactly whether p1 and p2 are the same point.
+     */
+    public static boolean isCoincident (final GeneratedPoint p1, final GeneratedPoint p2) {
+        final SquaredDistance   l   = Points.squaredDistanceInLongs(p1, p2);
+        final double[]          d   = new double[2];
+
+        if (l != null)
+            return l.isZero();
+
+        squaredDistance(getCoordinates(p1), p2, d, 0);
+        // NaN, for coordinates which do not fit, is not greater
+        if (d[0] > d[1])
+            return false;
+
+        return Points.squaredDistanceExactly(p1, p2).isZero();
+    }
+
+    /**
+     * @return the sign of |p - a| - |p - b|
+     */
+    public static int compareDistances (final GeneratedPoint p, final GeneratedPoint a, final GeneratedPoint b) {
+        final SquaredDistance   la  = Points.squaredDistanceInLongs(p, a),
+                                lb  = Points.squaredDistanceInLongs(p, b);
+        if (la != null && lb != null)
+            return la.compareTo(lb);
+
+        final double[]          c   = getCoordinates(p),
+                                d   = new double[4];
+
+        squaredDistance(c, a, d, 0);
+        squaredDistance(c, b, d, 2);
+        final double diff = d[0] - d[2];
+        if (Math.abs(diff) > d[1] + d[3])
+            return diff < 0? -1 : 1;
+
+        return Points.squaredDistanceExactly(p, a).compareTo(Points.squaredDistanceExactly(p, b));
+    }
+
+    /**
+     * Exactly whether |p1 - p2| &lt;= distance.
+     */
+    public static boolean isWithinDistance (final GeneratedPoint p1, final GeneratedPoint p2, final long distance) {
+        final SquaredDistance l = Points.squaredDistanceInLongs(p1, p2);
+
+        if (l != null)
+            return l.isAtMost(distance * distance);
+        if (Math.abs(distance) < MaxDistance) {
+            final double[] d = new double[2];
+
+            squaredDistance(getCoordinates(p1), p2, d, 0);
+            final double diff = d[0] - square(distance);
+            if (Math.abs(diff) > d[1])
+                return diff < 0;
+        }
+
+        return Points.squaredDistanceExactly(p1, p2).isAtMost(distance * distance);
+    }
+}
@@ -1,24 +1,17 @@
 package org.pseudosystems.geodaisia;
 
 import java.io.IOException;
-import java.io.Writer;
-import org.jscience.mathematics.number.LargeInteger;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
 import org.jscience.mathematics.number.Rational;
-import org.jscience.mathematics.number.Real;
-
-import static org.pseudosystems.geodaisia.Numbers.isEqualTo;
-import static org.pseudosystems.geodaisia.Numbers.plus;
-import static org.pseudosystems.geodaisia.Numbers.toLong;
-import static org.pseudosystems.geodaisia.Numbers.toReal;
-import static org.pseudosystems.geodaisia.Numbers.isLessThan;
-import static org.pseudosystems.geodaisia.Numbers.toRational;
-import static org.pseudosystems.geodaisia.Numbers.isGreaterThan;
-import static org.pseudosystems.geodaisia.Numbers.max;
-import static org.pseudosystems.geodaisia.Numbers.times;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
 
 public class Renderer {
 
-    private static final long    MARGIN_X = 1l,
+    static final long           MARGIN_X = 1l,
                                 MARGIN_Y = 1l,
                                 TEXT_X_OFF = 2l,
                                 TEXT_Y_OFF = -4l;
@@ -32,73 +25,29 @@ public class Renderer {
             + "    <svg x=\"0cm\" y=\"0cm\">\n"
             + "";
     public static final String SVG_FOOTER = "</svg></svg>";
-    private final static Rational errorCorrection = Rational.valueOf(107l, 100l).inverse();
+    final static Rational errorCorrection = Rational.valueOf(107l, 100l).inverse();
+    final static double errorCorrectionDouble = errorCorrection.doubleValue();
 
     public static String pointIndexToString (final int i) {
         return i == -1? "?" : Integer.toString(i);
     }
 
+    /**
+     * @return the markup a fresh {@link SvgWriter} without a stream kept
+     */
+    private static String toString (final SvgWriter svg) {
+        return new String(svg.toByteArray(), US_ASCII);
+    }
+
     public static String pointToSvg (final DeclaredPoint p) {
-        assert(Points.isPointValid(p));
-        final StringBuilder bob0        = new StringBuilder(1024),
-                            bob1        = new StringBuilder(1024);
-        final LargeInteger  x           = p.getX(),
-                            y           = p.getY(),
-                            z           = p.getZ();
-        final Rational      dispx       = plus(times(errorCorrection, x), MARGIN_X),
-                            dispy       = plus(times(errorCorrection, y), MARGIN_Y),
-                            textx       = plus(dispx, TEXT_X_OFF),
-                            texty       = isLessThan(plus(dispy, TEXT_Y_OFF), 4l)? toRational(4l) : plus(dispy, TEXT_Y_OFF);
-        final int           n           = p.getN(),
-                            j           = p.getJ(),
-                            i           = p.getI();
-        final String        xstr        = String.format("%03d", toLong(x)),
-                            ystr        = String.format("%03d", toLong(y)),
-                            zstr        = String.format("%04d", toLong(z)),
-                            dispxstr    = toReal(dispx).toString(),
-                            dispystr    = toReal(dispy).toString(),
-                            textxstr    = toReal(textx).toString(),
-                            textystr    = toReal(texty).toString(),
-                            nstr        = String.format("%02d", n),
-                            jstr        = String.format("%02d", j),
-                            istr        = String.format("%02d", i),
-                            anchor      = isLessThan(textx, 5l)? "left" : isGreaterThan(textx, 270l)? "right" : "center";
-
-        assert(n >= -1);
-        assert(j >= -1);
-        assert(i >= -1);
-        assert(j == -1 || i > -1);
-        assert(i == -1 || j > -1);
-
-        bob0.append("\n\t<circle cx=\"").append(dispxstr).append("mm\" cy=\"").append(dispystr).append("mm\" r=\"0.5mm\"");
-
-        if (n > -1)
-            bob1.append("\n\t<title>point[").append(n).append("]</title>");
-        if (j > -1)
-            bob1.append("\n\t\t<desc>(").append(j).append(',').append(i).append(")</desc>");
-
-        if (bob1.length() > 0)
-            bob0.append('>').append(bob1).append("\n\t</circle>");
-        else
-            bob0.append("/>");
-
-        if (false)
-            bob0.append("\n\t<text text-anchor=\"").append(anchor).append("\" font-family=\"monospace\" font-size=\"8px\" x=\"").append(textxstr).append("mm\" y=\"").append(textystr).append("mm\">")
-                    .append("<tspan fill=\"#a05050\">").append(nstr).append(":</tspan>")
-                    .append("<tspan fill=\"#5050a0\">[").append(jstr).append(',').append(istr).append("]</tspan>")
-                    .append("<tspan dy=\"2ex\" dx=\"-7.5em\" fill=\"#305030\">(").append(xstr).append(',').append(ystr).append(',').append(zstr).append(")</tspan>")
-                    .append("\n\t</text>");
-        else {
-            final Rational    textx0 = isGreaterThan(dispx, 270l)? toRational(270l) : dispx,
-                            texty0 = isLessThan(dispy, 4l)? toRational(4l) : dispy;
-            final String    textx0str =    toReal(textx0).toString(),
-                            texty0str = toReal(texty0).toString();
-            bob0.append("\n\t<text text-anchor=\"").append(anchor).append("\" font-family=\"sans-serif\" font-size=\"8px\" x=\"").append(textx0str).append("mm\" y=\"").append(texty0str).append("mm\">")
-                    .append("<tspan fill=\"#305030\">").append(zstr).append("</tspan></text>");
+        final SvgWriter svg = new SvgWriter();
+        try {
+            svg.writePoint(p);
         }
-
-
-        return bob0.toString();
+        catch (final IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        return toString(svg);
     }
 
     public static String pointToSvg (final GeneratedPoint p) {
@@ -108,102 +57,92 @@ public class Renderer {
         return pointToSvg(p.getPoint(), p.getColour());
     }
     public static String pointToSvg (final GeneratedPoint p, final Colour c) {
-        final StringBuilder bob0        = new StringBuilder(1024);
-        final Rational      x           = p.getX(),
-                            y           = p.getY(),
-                            z           = p.getZ(),
-                            dispx       = plus(times(x, errorCorrection), MARGIN_X),
-                            dispy       = plus(times(y, errorCorrection), MARGIN_Y),
-                            textx       = plus(dispx, TEXT_X_OFF),
-                            texty       = max(plus(dispy, TEXT_Y_OFF), 0l);
-        final Real          realdispx   = toReal(dispx),
-                            realdispy   = toReal(dispy),
-                            realz       = toReal(z),
-                            realtextx   = toReal(textx),
-                            realtexty   = toReal(texty);
-        // generated points are supposed to have exact heights
-        final LargeInteger  intz        = realz.round();
-        assert(isEqualTo(realz, intz));
-        final long          longz       = toLong(intz);
-        final String        strlongz    = String.format("%d", (longz/10)%100);
-
-        if (false) System.err.println(""
-                + "x = " + x + "\n"
-                + "y = " + y + "\n"
-                + "z = " + z + "\n"
-                + "dispx = " + dispx + "\n"
-                + "dispy = " + dispy + "\n"
-                + "textx = " + textx + "\n"
-                + "texty = " + texty + "\n"
-                + "realdispx = " + realdispx + "\n"
-                + "realdispy = " + realdispy + "\n"
-                + "realz = " + realz + "\n"
-                + "realtextx = " + realtextx + "\n"
-                + "realtexty = " + realtexty + "\n"
-                + "intz = " + intz + "\n"
-                + "longz = " + longz + "\n"
-                + "strlongz = " + strlongz + "\n"
-                + "assert(realz(" + realz + ") == intz(" + intz + ")) = " + isEqualTo(realz, intz) + "\n"
-                + "toReal(intz(" + intz + ")) = " + toReal(intz) + "\n"
-                + "assert(realdispy(" + realdispy+ ") == intdispy(" + realdispy.round() + ")) = " + isEqualTo(realdispy, realdispy.round()) + "\n"
-                );
-
-        bob0.append("\n\t<circle cx=\"").append(realdispx).append("mm\" cy=\"").append(realdispy).append("mm\" r=\"0.3mm\" fill=\"#").append(c.toRgbString()).append("\" />");
-
-        if (true) {
-            bob0.append("\n\t\t<text text-anchor=\"middle\" font-family=\"monospace\" font-size=\"7px\" font-weight=\"lighter\" fill=\"#").append(c.toRgbString()).append("\" x=\"")
-                    .append(realtextx).append("mm\" y=\"").append(realtexty).append("mm\" dy=\"4ex\" dx=\"-2em\">")
-                    .append(strlongz)
-                    .append("</text>");
+        final SvgWriter svg = new SvgWriter();
+        try {
+            svg.writePoint(p, c);
         }
-
-        return bob0.toString();
+        catch (final IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        return toString(svg);
     }
 
     public static String lineToSvg (final ColourfulLine vline) {
-        final StringBuilder bob0        = new StringBuilder(1024);
-        final Line          line        = vline.getLine();
-        final Rational      x1          = line.getBeginning().getX(),
-                            y1          = line.getBeginning().getY(),
-                            x2          = line.getEnd().getX(),
-                            y2          = line.getEnd().getY(),
-                            dispx1      = plus(x1, MARGIN_X),
-                            dispy1      = plus(y1, MARGIN_Y),
-                            dispx2      = plus(x2, MARGIN_X),
-                            dispy2      = plus(y2, MARGIN_Y);
-        final Real          realdispx1  = toReal(dispx1),
-                            realdispy1  = toReal(dispy1),
-                            realdispx2  = toReal(dispx2),
-                            realdispy2  = toReal(dispy2);
-
-        bob0.append("\n\t<line x1=\"").append(realdispx1)
-                .append("mm\" y1=\"").append(realdispy1)
-                .append("mm\" x2=\"").append(realdispx2)
-                .append("mm\" y2=\"").append(realdispy2)
-                .append("mm\" stroke-width=\"0.2mm\" stroke=\"#").append(vline.getColour().toRgbString()).append("\" />");
-
-        return bob0.toString();
+        return lineToSvg(vline, 0);
     }
 
-    public static void writePointsToSvg (final Writer w, final Iterable<? extends DeclaredPoint> declared, final Iterable<? extends ColourfulGeneratedPoint> generated) throws IOException {
-        for (final ColourfulGeneratedPoint p: generated)
-            w.append(pointToSvg(p)).append("\n");
+    /**
+     * @param tier of contours the line is at (see
+     *          {@link SvgWriter#writeLine(ColourfulLine, int)})
+     */
+    public static String lineToSvg (final ColourfulLine vline, final int tier) {
+        final SvgWriter svg = new SvgWriter();
+        try {
+            svg.writeLine(vline, tier);
+        }
+        catch (final IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        return toString(svg);
+    }
+
+    private static int getTier (final GeneratedPoint p, final Contours contours) {
+        return p instanceof CrossingPoint? contours.getTier(((CrossingPoint) p).getLongZ()) : contours.getTier(p.getZ());
+    }
+
+    /**
+     * Writes the crossings as the cells list them, those of a side shared
+     * by two cells twice, in the colour of their level.
+     *
+     * @param colours by level of the crossings (see
+     *          {@link IntermediatePointsGenerator#colourisePoints(CrossingBuffer)})
+     */
+    public static void writePointsToSvg (final SvgWriter svg, final Iterable<? extends DeclaredPoint> declared, final CrossingBuffer generated, final Colour[] colours) throws IOException {
+        for (final CrossingBuffer.Cursor c = generated.occurrences(); c.next();) {
+            svg.writePoint(c.getPoint(), colours[c.getLevel()]);
+            svg.write('\n');
+        }
 
         for (final DeclaredPoint p: declared)
-            if (Points.isPointValid(p))
-                w.append(pointToSvg(p)).append("\n");
+            if (Points.isPointValid(p)) {
+                svg.writePoint(p);
+                svg.write('\n');
+            }
     }
 
-    public static void writeLinesToSvg (final Writer w, final Iterable<? extends ColourfulLine> lines) throws IOException {
-        for (final ColourfulLine line: lines)
-            w.append(lineToSvg(line)).append("\n");
+    public static void writePointsToSvg (final SvgWriter svg, final PointGrid declared, final CrossingBuffer generated, final Colour[] colours) throws IOException {
+        writePointsToSvg(svg, declared.getPoints(), generated, colours);
     }
 
-    public static void writeSvgHeader (final Writer w) throws IOException {
-        w.write(SVG_HEADER);
+    /**
+     * Lines at the levels of coarser tiers of contours, the index contours,
+     * are drawn thicker.
+     */
+    public static void writeLinesToSvg (final SvgWriter svg, final Iterable<? extends ColourfulLine> lines, final Contours contours) throws IOException {
+        for (final ColourfulLine line: lines) {
+            svg.writeLine(line, getTier(line.getLine().getBeginning(), contours));
+            svg.write('\n');
+        }
     }
 
-    public static void writeSvgFooter(final Writer w) throws IOException {
-        w.write(SVG_FOOTER);
+    /**
+     * Writes each polyline as a path, grouped by level, each group in the
+     * colour of its level and as thick as a line of its tier of contours.
+     *
+     * @param levels polylines by height (see
+     *          {@link Leveler#generateLevelLines(Iterable)})
+     * @param colours which must cover all heights
+     */
+    public static void writePathsToSvg (final SvgWriter svg, final SortedMap<? extends Rational, ? extends List<? extends Path<GeneratedPoint>>> levels, final Map<? super Rational, ? extends Colour> colours, final Contours contours) throws IOException {
+        for (final Map.Entry<? extends Rational, ? extends List<? extends Path<GeneratedPoint>>> entry: levels.entrySet()) {
+            if (entry.getValue().isEmpty())
+                continue;
+            final Colour    colour  = colours.get(entry.getKey());
+            assert(colour != null);
+            svg.writePathsStart(contours.getTier(entry.getKey()), colour);
+            for (final Path<GeneratedPoint> path: entry.getValue())
+                svg.writePath(path);
+            svg.writePathsEnd();
+        }
     }
 }
@@ -0,0 +1,115 @@
+package org.pseudosystems.geodaisia;
+
+/**
+ * The occupied cells of a grid of which only some cells hold a point, as
+ * irregular survey coverage leaves it.
+ * <p>
+ * Every row has an occupancy bitset of its own, and a running count of the
+ * bits set before each bitset word maps an occupied cell to its rank among
+ * the occupied cells, in row-major order. Grids keep what each cell holds in
+ * compact arrays indexed by that rank, as {@link PointGrid} does, so empty
+ * cells cost two bits, and runs of them are skipped over a word at a time.
+ */
+public class SparseGrid {
+
+    private final int       rows, columns, wordsPerRow;
+    private final long[]    occupancy;
+    // number of occupied cells before each occupancy word
+    private final int[]     ranks;
+    private final int       size;
+
+    private SparseGrid (final int rows, final int columns, final long[] occupancy) {
+        this.rows           = rows;
+        this.columns        = columns;
+        this.wordsPerRow    = wordsPerRow(columns);
+        this.occupancy      = occupancy;
+        this.ranks          = new int[occupancy.length];
+
+        int rank = 0;
+        for (int w = 0; w < occupancy.length; ++w) {
+            ranks[w] = rank;
+            rank += Long.bitCount(occupancy[w]);
+        }
+        this.size           = rank;
+    }
+
+    private static int wordsPerRow (final int columns) {
+        return (columns + 63) >>> 6;
+    }
+
+    /**
+     * @param js the rows of the occupied cells
+     * @param is their columns, in row-major order together with js
+     * @param size the number of occupied cells in js and is
+     * @throws IllegalArgumentException if a cell is outside of the grid
+     */
+    public static SparseGrid of (final int rows, final int columns, final int[] js, final int[] is, final int size) {
+        final int       wordsPerRow = wordsPerRow(columns);
+        final long[]    occupancy   = new long[rows * wordsPerRow];
+
+        for (int k = 0; k < size; ++k) {
+            if (js[k] >= rows || is[k] >= columns)
+                throw new IllegalArgumentException("Point [" + js[k] + "," + is[k] + "] is outside of a " + rows + "x" + columns + " grid");
+            occupancy[js[k] * wordsPerRow + (is[k] >>> 6)] |= 1l << is[k];
+        }
+
+        final SparseGrid result = new SparseGrid(rows, columns, occupancy);
+        assert(result.size == size);
+        return result;
+    }
+
+    public int getRows () {
+        return rows;
+    }
+
+    public int getColumns () {
+        return columns;
+    }
+
+    /**
+     * @return the number of occupied cells
+     */
+    public int size () {
+        return size;
+    }
+
+    public boolean isOccupied (final int j, final int i) {
+        return j >= 0 && i >= 0 && j < rows && i < columns
+                && (occupancy[j * wordsPerRow + (i >>> 6)] & (1l << i)) != 0;
+    }
+
+    /**
+     * @return the rank of (j, i) among the occupied cells, or -1 if it is
+     *          not occupied
+     */
+    public int indexOf (final int j, final int i) {
+        int result = -1;
+
+        if (isOccupied(j, i)) {
+            final int w = j * wordsPerRow + (i >>> 6);
+            result = ranks[w] + Long.bitCount(occupancy[w] & ((1l << i) - 1));
+        }
+
+        return result;
+    }
+
+    /**
+     * @return the first occupied column of row j at or after column i, or -1
+     */
+    public int nextOccupied (final int j, final int i) {
+        if (j < 0 || j >= rows || i >= columns)
+            return -1;
+
+        final int   from    = Math.max(i, 0);
+        int         w       = from >>> 6;
+        long        word    = occupancy[j * wordsPerRow + w] & (-1l << from);
+
+        while (word == 0) {
+            if (++w == wordsPerRow)
+                return -1;
+            word = occupancy[j * wordsPerRow + w];
+        }
+
+        return (w << 6) + Long.numberOfTrailingZeros(word);
+    }
+}
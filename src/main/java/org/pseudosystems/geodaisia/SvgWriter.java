@@ -0,0 +1,534 @@
+package org.pseudosystems.geodaisia;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import org.jscience.mathematics.number.LargeInteger;
+import org.jscience.mathematics.number.Rational;
+import org.jscience.mathematics.number.Real;
+
+import static org.pseudosystems.geodaisia.Numbers.isEqualTo;
+import static org.pseudosystems.geodaisia.Numbers.isGreaterThan;
+import static org.pseudosystems.geodaisia.Numbers.isLessThan;
+import static org.pseudosystems.geodaisia.Numbers.max;
+import static org.pseudosystems.geodaisia.Numbers.plus;
+import static org.pseudosystems.geodaisia.Numbers.toLargeInt;
+import static org.pseudosystems.geodaisia.Numbers.toLong;
+import static org.pseudosystems.geodaisia.Numbers.toRational;
+import static org.pseudosystems.geodaisia.Numbers.toReal;
+import static org.pseudosystems.geodaisia.Numbers.times;
+import static org.pseudosystems.geodaisia.Renderer.MARGIN_X;
+import static org.pseudosystems.geodaisia.Renderer.MARGIN_Y;
+import static org.pseudosystems.geodaisia.Renderer.TEXT_X_OFF;
+import static org.pseudosystems.geodaisia.Renderer.TEXT_Y_OFF;
+import static org.pseudosystems.geodaisia.Renderer.errorCorrection;
+import static org.pseudosystems.geodaisia.Renderer.errorCorrectionDouble;
+
+/**
+ * Writes the markup of {@link Renderer} straight into a reusable buffer of
+ * ASCII bytes (see {@link AsciiWriter}): the markup is all ASCII, so no
+ * element is built as a string and nothing is encoded on the way out. The
+ * markup is that which Renderer used to build in strings, byte for byte,
+ * which SvgWriterTest keeps a reference of.
+ * <p>
+ * Colours are written digit by digit, and exact coordinates are copied out
+ * of the text of their {@link Real}, as {@link Real#toString()} prints it,
+ * since only it knows its own digits.
+ * <p>
+ * With a number of decimals, coordinates are written with that many
+ * instead, scaled and rounded by a {@link FixedFormat} (see
+ * {@link #SvgWriter(OutputStream, int)}), which is faster and shorter. Paths
+ * are always written so, with {@link #PathDecimals} unless told otherwise.
+ * <p>
+ * Without a stream, the buffer grows instead, so that pieces of markup can be
+ * kept (see {@link #toByteArray()}) and written again later.
+ */
+public class SvgWriter extends AsciiWriter {
+
+    // coordinates printed as they are, rather than to a number of decimals
+    public static final int         AsPrinted       = -1;
+    // of paths, unless told otherwise: a hundredth of a millimetre
+    public static final int         PathDecimals    = 2;
+
+    private static final int        Capacity        = 1 << 16,
+                                    PieceCapacity   = 256;
+    private static final byte[]     Hex             = ascii("0123456789abcdef"),
+                                    Header          = ascii(Renderer.SVG_HEADER),
+                                    Footer          = ascii(Renderer.SVG_FOOTER),
+                                    CircleX         = ascii("\n\t<circle cx=\""),
+                                    CircleY         = ascii("mm\" cy=\""),
+                                    DeclaredRadius  = ascii("mm\" r=\"0.5mm\""),
+                                    TitleStart      = ascii("\n\t<title>point["),
+                                    TitleEnd        = ascii("]</title>"),
+                                    DescStart       = ascii("\n\t\t<desc>("),
+                                    DescEnd         = ascii(")</desc>"),
+                                    CircleEnd       = ascii("\n\t</circle>"),
+                                    DeclaredText    = ascii("\n\t<text text-anchor=\""),
+                                    DeclaredTextX   = ascii("\" font-family=\"sans-serif\" font-size=\"8px\" x=\""),
+                                    TextY           = ascii("mm\" y=\""),
+                                    DeclaredLabel   = ascii("mm\"><tspan fill=\"#305030\">"),
+                                    DeclaredEnd     = ascii("</tspan></text>"),
+                                    Left            = ascii("left"),
+                                    Right           = ascii("right"),
+                                    Center          = ascii("center"),
+                                    GeneratedRadius = ascii("mm\" r=\"0.3mm\" fill=\"#"),
+                                    ElementEnd      = ascii("\" />"),
+                                    GeneratedText   = ascii("\n\t\t<text text-anchor=\"middle\" font-family=\"monospace\" font-size=\"7px\" font-weight=\"lighter\" fill=\"#"),
+                                    GeneratedTextX  = ascii("\" x=\""),
+                                    GeneratedLabel  = ascii("mm\" dy=\"4ex\" dx=\"-2em\">"),
+                                    TextEnd         = ascii("</text>"),
+                                    LineX1          = ascii("\n\t<line x1=\""),
+                                    LineY1          = ascii("mm\" y1=\""),
+                                    LineX2          = ascii("mm\" x2=\""),
+                                    LineY2          = ascii("mm\" y2=\""),
+                                    LineWidth       = ascii("mm\" stroke-width=\""),
+                                    LineStroke      = ascii("mm\" stroke=\"#"),
+                                    // paths are drawn in millimetres, at 96
+                                    // pixels to the inch
+                                    PathsStart      = ascii("\n\t<g transform=\"scale(3.7795275591)\" fill=\"none\" stroke-width=\""),
+                                    PathsStroke     = ascii("\" stroke=\"#"),
+                                    PathsOpen       = ascii("\">\n"),
+                                    PathsEnd        = ascii("\t</g>\n"),
+                                    PathStart       = ascii("\t\t<path d=\"M"),
+                                    PathEnd         = ascii("\" />\n");
+
+    // the coordinates of the element being written: the exact ones, or null
+    // for the doubles
+    private final Real[]        reals           = new Real[4];
+    private final double[]      doubles         = new double[4];
+    // or, to a number of decimals, scaled by the formats, null as printed:
+    // the large ones, or null for the longs
+    private boolean             fixed;
+    private final LargeInteger[] larges         = new LargeInteger[4];
+    private final long[]        fixeds          = new long[4];
+    private final FixedFormat   pointXs, pointYs,
+                                lineXs, lineYs;
+    // lines are written as printed, only paths through the formats
+    private final boolean       linesAsPrinted;
+    // the scaled points of the path being written, large ones if they do
+    // not fit in longs
+    private long[]              pathXs          = new long[64],
+                                pathYs          = new long[64];
+    private LargeInteger[]      largePathXs     = new LargeInteger[0],
+                                largePathYs     = new LargeInteger[0];
+
+    /**
+     * @param outs where the buffer is written out to, whenever it fills up
+     *          and when flushed
+     */
+    public SvgWriter (final OutputStream outs) {
+        this(outs, AsPrinted);
+    }
+
+    /**
+     * @param decimals of the millimetres of every coordinate, or
+     *          {@link #AsPrinted}
+     */
+    public SvgWriter (final OutputStream outs, final int decimals) {
+        this(outs, Capacity, decimals);
+    }
+
+    /**
+     * Keeps all markup in memory, for {@link #toByteArray()}.
+     */
+    public SvgWriter () {
+        this(AsPrinted);
+    }
+
+    public SvgWriter (final int decimals) {
+        this(null, PieceCapacity, decimals);
+    }
+
+    private SvgWriter (final OutputStream outs, final int capacity, final int decimals) {
+        super(outs, capacity);
+        linesAsPrinted = decimals == AsPrinted;
+        if (decimals == AsPrinted)
+            pointXs = pointYs = null;
+        else {
+            pointXs = new FixedFormat(decimals, errorCorrection, MARGIN_X);
+            pointYs = new FixedFormat(decimals, errorCorrection, MARGIN_Y);
+        }
+        // lines are not corrected
+        lineXs  = new FixedFormat(decimals == AsPrinted? PathDecimals : decimals, Rational.ONE, MARGIN_X);
+        lineYs  = new FixedFormat(decimals == AsPrinted? PathDecimals : decimals, Rational.ONE, MARGIN_Y);
+    }
+
+    private void write (final Real r) throws IOException {
+        write(r.toText());
+    }
+
+    private void setCoordinates (final long a, final long b, final long c, final long d) {
+        fixed = true;
+        Arrays.fill(larges, null);
+        fixeds[0] = a;
+        fixeds[1] = b;
+        fixeds[2] = c;
+        fixeds[3] = d;
+    }
+
+    private void setCoordinates (final LargeInteger a, final LargeInteger b, final LargeInteger c, final LargeInteger d) {
+        fixed = true;
+        larges[0] = a;
+        larges[1] = b;
+        larges[2] = c;
+        larges[3] = d;
+    }
+
+    private void setCoordinates (final double a, final double b, final double c, final double d) {
+        fixed = false;
+        Arrays.fill(reals, null);
+        doubles[0] = a;
+        doubles[1] = b;
+        doubles[2] = c;
+        doubles[3] = d;
+    }
+
+    private void setCoordinates (final Real a, final Real b, final Real c, final Real d) {
+        fixed = false;
+        reals[0] = a;
+        reals[1] = b;
+        reals[2] = c;
+        reals[3] = d;
+    }
+
+    /**
+     * Writes coordinate k as it prints, be it a {@link Real} or a double, or
+     * to the decimals of the formats.
+     */
+    private void writeCoordinate (final int k) throws IOException {
+        if (fixed)
+            if (larges[k] != null)
+                writeFixed(larges[k], lineXs.getDecimals());
+            else
+                writeFixed(fixeds[k], lineXs.getDecimals());
+        else
+        if (reals[k] != null)
+            write(reals[k]);
+        else
+            write(doubles[k]);
+    }
+
+    private void write (final Colour c) throws IOException {
+        final int rgb = c.getRgb();
+        for (int shift = 20; shift >= 0; shift -= 4)
+            write(Hex[rgb >>> shift & 0xf]);
+    }
+
+    /**
+     * As {@link Renderer#pointToSvg(DeclaredPoint)}.
+     */
+    public void writePoint (final DeclaredPoint p) throws IOException {
+        assert(Points.isPointValid(p));
+        final int           n           = p.getN(),
+                            j           = p.getJ(),
+                            i           = p.getI();
+        final byte[]        anchor;
+
+        assert(n >= -1);
+        assert(j >= -1);
+        assert(i >= -1);
+        assert(j == -1 || i > -1);
+        assert(i == -1 || j > -1);
+
+        if (pointXs != null) {
+            try {
+                final long          unit        = pointXs.getUnit(),
+                                    dispx       = pointXs.scale(p.getX()),
+                                    dispy       = pointYs.scale(p.getY());
+                setCoordinates(dispx, dispy, Math.min(dispx, 270l * unit), Math.max(dispy, 4l * unit));
+            }
+            catch (final ArithmeticException ex) {
+                final LargeInteger  unit        = LargeInteger.valueOf(pointXs.getUnit()),
+                                    dispx       = pointXs.scaleLarge(p.getX()),
+                                    dispy       = pointYs.scaleLarge(p.getY()),
+                                    right       = unit.times(270),
+                                    top         = unit.times(4);
+                setCoordinates(dispx, dispy, dispx.isGreaterThan(right)? right : dispx, dispy.isLessThan(top)? top : dispy);
+            }
+            // of the exact text x, which rounding could move across
+            anchor = pointXs.compare(p.getX(), 5l - TEXT_X_OFF) < 0? Left : pointXs.compare(p.getX(), 270l - TEXT_X_OFF) > 0? Right : Center;
+        }
+        else {
+            final Rational  dispx       = plus(times(errorCorrection, p.getX()), MARGIN_X),
+                            dispy       = plus(times(errorCorrection, p.getY()), MARGIN_Y),
+                            textx       = plus(dispx, TEXT_X_OFF);
+            setCoordinates(toReal(dispx), toReal(dispy), toReal(isGreaterThan(dispx, 270l)? toRational(270l) : dispx), toReal(isLessThan(dispy, 4l)? toRational(4l) : dispy));
+            anchor = isLessThan(textx, 5l)? Left : isGreaterThan(textx, 270l)? Right : Center;
+        }
+
+        write(CircleX);
+        writeCoordinate(0);
+        write(CircleY);
+        writeCoordinate(1);
+        write(DeclaredRadius);
+
+        if (n > -1 || j > -1) {
+            write('>');
+            if (n > -1) {
+                write(TitleStart);
+                write(n, 0);
+                write(TitleEnd);
+            }
+            if (j > -1) {
+                write(DescStart);
+                write(j, 0);
+                write(',');
+                write(i, 0);
+                write(DescEnd);
+            }
+            write(CircleEnd);
+        }
+        else {
+            write('/');
+            write('>');
+        }
+
+        write(DeclaredText);
+        write(anchor);
+        write(DeclaredTextX);
+        writeCoordinate(2);
+        write(TextY);
+        writeCoordinate(3);
+        write(DeclaredLabel);
+        write(toLong(p.getZ()), 4);
+        write(DeclaredEnd);
+    }
+
+    /**
+     * As {@link Renderer#pointToSvg(GeneratedPoint, Colour)}.
+     */
+    public void writePoint (final GeneratedPoint p, final Colour c) throws IOException {
+        if (pointXs != null) {
+            final long              z           = p instanceof CrossingPoint? ((CrossingPoint) p).getLongZ() : toLong(toLargeInt(p.getZ()));
+            try {
+                final long          unit        = pointXs.getUnit(),
+                                    dispx       = pointXs.scaleX(p),
+                                    dispy       = pointYs.scaleY(p);
+                setCoordinates(dispx, dispy, Math.addExact(dispx, TEXT_X_OFF * unit), Math.max(Math.addExact(dispy, TEXT_Y_OFF * unit), 0));
+            }
+            catch (final ArithmeticException ex) {
+                final LargeInteger  unit        = LargeInteger.valueOf(pointXs.getUnit()),
+                                    dispx       = pointXs.scaleLargeX(p),
+                                    dispy       = pointYs.scaleLargeY(p),
+                                    texty       = dispy.plus(unit.times(TEXT_Y_OFF));
+                setCoordinates(dispx, dispy, dispx.plus(unit.times(TEXT_X_OFF)), texty.isNegative()? LargeInteger.ZERO : texty);
+            }
+            writeGeneratedPoint(z, c);
+            return;
+        }
+
+        if (!p.isExact()) {
+            final double    dispx       = p.getDoubleX() * errorCorrectionDouble + MARGIN_X,
+                            dispy       = p.getDoubleY() * errorCorrectionDouble + MARGIN_Y;
+            // heights stay exact
+            setCoordinates(dispx, dispy, dispx + TEXT_X_OFF, Math.max(dispy + TEXT_Y_OFF, 0));
+            writeGeneratedPoint(toLong(toLargeInt(p.getZ())), c);
+            return;
+        }
+
+        final Rational      dispx       = plus(times(p.getX(), errorCorrection), MARGIN_X),
+                            dispy       = plus(times(p.getY(), errorCorrection), MARGIN_Y);
+        final Real          realz       = toReal(p.getZ());
+        // generated points are supposed to have exact heights
+        final LargeInteger  intz        = realz.round();
+        assert(isEqualTo(realz, intz));
+
+        setCoordinates(toReal(dispx), toReal(dispy), toReal(plus(dispx, TEXT_X_OFF)), toReal(max(plus(dispy, TEXT_Y_OFF), 0l)));
+        writeGeneratedPoint(toLong(intz), c);
+    }
+
+    /**
+     * Writes a crossing at the coordinates set: its centre, and where its
+     * label goes.
+     */
+    private void writeGeneratedPoint (final long z, final Colour c) throws IOException {
+        write(CircleX);
+        writeCoordinate(0);
+        write(CircleY);
+        writeCoordinate(1);
+        write(GeneratedRadius);
+        write(c);
+        write(ElementEnd);
+
+        write(GeneratedText);
+        write(c);
+        write(GeneratedTextX);
+        writeCoordinate(2);
+        write(TextY);
+        writeCoordinate(3);
+        write(GeneratedLabel);
+        write((z / 10) % 100, 0);
+        write(TextEnd);
+    }
+
+    /**
+     * As {@link Renderer#lineToSvg(ColourfulLine, int)}: the stroke width is
+     * that of the given tier (see {@link #writeStrokeWidth(int)}).
+     */
+    public void writeLine (final ColourfulLine vline, final int tier) throws IOException {
+        final GeneratedPoint    p1  = vline.getLine().getBeginning(),
+                                p2  = vline.getLine().getEnd();
+
+        if (!linesAsPrinted)
+            try {
+                setCoordinates(lineXs.scaleX(p1), lineYs.scaleY(p1), lineXs.scaleX(p2), lineYs.scaleY(p2));
+            }
+            catch (final ArithmeticException ex) {
+                setCoordinates(lineXs.scaleLargeX(p1), lineYs.scaleLargeY(p1), lineXs.scaleLargeX(p2), lineYs.scaleLargeY(p2));
+            }
+        else
+        if (!p1.isExact() || !p2.isExact())
+            setCoordinates(p1.getDoubleX() + MARGIN_X, p1.getDoubleY() + MARGIN_Y, p2.getDoubleX() + MARGIN_X, p2.getDoubleY() + MARGIN_Y);
+        else
+            setCoordinates(toReal(plus(p1.getX(), MARGIN_X)), toReal(plus(p1.getY(), MARGIN_Y)), toReal(plus(p2.getX(), MARGIN_X)), toReal(plus(p2.getY(), MARGIN_Y)));
+
+        write(LineX1);
+        writeCoordinate(0);
+        write(LineY1);
+        writeCoordinate(1);
+        write(LineX2);
+        writeCoordinate(2);
+        write(LineY2);
+        writeCoordinate(3);
+        write(LineWidth);
+        writeStrokeWidth(tier);
+        write(LineStroke);
+        write(vline.getColour());
+        write(ElementEnd);
+    }
+
+    /**
+     * Starts a group of the paths of a level (see {@link #writePath(Path)}),
+     * in millimetres, which all share its stroke.
+     *
+     * @param tier of contours the level is at (see
+     *          {@link #writeStrokeWidth(int)})
+     */
+    public void writePathsStart (final int tier, final Colour c) throws IOException {
+        write(PathsStart);
+        writeStrokeWidth(tier);
+        write(PathsStroke);
+        write(c);
+        write(PathsOpen);
+    }
+
+    /**
+     * Writes the stroke width of lines at the given tier of contours (see
+     * {@link Contours#getTier(Rational)}), in millimetres: 0.2 for the
+     * finest, and 0.2 more for each coarser one.
+     */
+    private void writeStrokeWidth (final int tier) throws IOException {
+        final int tenths = 2 * (1 + Math.max(tier, 0));
+        write(tenths / 10, 0);
+        write('.');
+        write(tenths % 10, 0);
+    }
+
+    public void writePathsEnd () throws IOException {
+        write(PathsEnd);
+    }
+
+    /**
+     * Writes a polyline as a path, within a group of paths: from its first
+     * point to each next one by how far it moves, the points rounded to the
+     * decimals of paths first, so that rounding does not add up, and written
+     * without trailing zeros. Moves which rounding makes nothing are left
+     * out, and so is a path left with none.
+     * <p>
+     * Points, or moves, which do not fit in longs are worked out in large
+     * integers instead, for the whole path.
+     */
+    public void writePath (final Path<GeneratedPoint> path) throws IOException {
+        if (pathXs.length < path.size()) {
+            pathXs  = new long[Math.max(path.size(), pathXs.length * 2)];
+            pathYs  = new long[pathXs.length];
+        }
+        int n = 0;
+        try {
+            for (final GeneratedPoint p: path) {
+                pathXs[n]   = lineXs.scaleX(p);
+                pathYs[n]   = lineYs.scaleY(p);
+                if (n == 0 || pathXs[n] != pathXs[n - 1] || pathYs[n] != pathYs[n - 1])
+                    ++n;
+            }
+            // into moves, before anything is written
+            for (int k = n - 1; k > 0; --k) {
+                pathXs[k]   = Math.subtractExact(pathXs[k], pathXs[k - 1]);
+                pathYs[k]   = Math.subtractExact(pathYs[k], pathYs[k - 1]);
+            }
+        }
+        catch (final ArithmeticException ex) {
+            writeLargePath(path);
+            return;
+        }
+        if (n < 2)
+            return;
+
+        write(PathStart);
+        writeTrimmed(pathXs[0], lineXs.getDecimals());
+        writeMove(pathYs[0], true);
+        write('l');
+        for (int k = 1; k < n; ++k) {
+            writeMove(pathXs[k], k > 1);
+            writeMove(pathYs[k], true);
+        }
+        if (path.isClosed())
+            write('z');
+        write(PathEnd);
+    }
+
+    /**
+     * As {@link #writePath(Path)}, in large integers.
+     */
+    private void writeLargePath (final Path<GeneratedPoint> path) throws IOException {
+        if (largePathXs.length < path.size()) {
+            largePathXs = new LargeInteger[Math.max(path.size(), pathXs.length)];
+            largePathYs = new LargeInteger[largePathXs.length];
+        }
+        int n = 0;
+        for (final GeneratedPoint p: path) {
+            largePathXs[n]  = lineXs.scaleLargeX(p);
+            largePathYs[n]  = lineYs.scaleLargeY(p);
+            if (n == 0 || !largePathXs[n].equals(largePathXs[n - 1]) || !largePathYs[n].equals(largePathYs[n - 1]))
+                ++n;
+        }
+        if (n < 2)
+            return;
+
+        write(PathStart);
+        writeTrimmed(largePathXs[0], lineXs.getDecimals());
+        writeMove(largePathYs[0], true);
+        write('l');
+        for (int k = 1; k < n; ++k) {
+            writeMove(largePathXs[k].minus(largePathXs[k - 1]), k > 1);
+            writeMove(largePathYs[k].minus(largePathYs[k - 1]), true);
+        }
+        if (path.isClosed())
+            write('z');
+        write(PathEnd);
+    }
+
+    /**
+     * Writes a coordinate of a path, after a space if it follows another one
+     * and it has no sign to separate it.
+     */
+    private void writeMove (final long d, final boolean separated) throws IOException {
+        if (separated && d >= 0)
+            write(' ');
+        writeTrimmed(d, lineXs.getDecimals());
+    }
+
+    private void writeMove (final LargeInteger d, final boolean separated) throws IOException {
+        if (separated && !d.isNegative())
+            write(' ');
+        writeTrimmed(d, lineXs.getDecimals());
+    }
+
+    public void writeHeader () throws IOException {
+        write(Header);
+    }
+
+    public void writeFooter () throws IOException {
+        write(Footer);
+    }
+}
@@ -0,0 +1,141 @@
+package org.pseudosystems.geodaisia;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import org.jscience.mathematics.number.Rational;
+
+/**
+ * Writes features as a stream of records, each a geometry in little-endian
+ * well-known binary (WKB) with a few properties ahead of it, through a
+ * reusable buffer which is written out whenever it fills up.
+ * <p>
+ * The stream starts with the magic bytes {@code GDWK} and a version, 1, as
+ * a 32 bit integer. Each record is then, all little-endian:
+ * <ul>
+ * <li>its length, as a 32 bit integer, not counting itself,</li>
+ * <li>its kind, a byte: {@link #PointRecord}, {@link #CrossingRecord} or
+ *      {@link #ContourRecord},</li>
+ * <li>the tier of a contour line, a signed byte, -1 for none and for
+ *      points,</li>
+ * <li>the height, as a double,</li>
+ * <li>the geometry: a WKB Point, or a LineString for a contour line, closed
+ *      ones ending where they start.</li>
+ * </ul>
+ * Coordinates are written as the doubles nearest to them.
+ */
+public class WkbWriter implements FeatureWriter {
+
+    public static final byte        PointRecord     = 0,
+                                    CrossingRecord  = 1,
+                                    ContourRecord   = 2;
+    public static final int         Version         = 1;
+
+    private static final int        Capacity        = 1 << 16;
+    private static final byte[]     Magic           = {'G', 'D', 'W', 'K'};
+    // of the little-endian byte order, and of the geometry types
+    private static final byte       LittleEndian    = 1;
+    private static final int        WkbPoint        = 1,
+                                    WkbLineString   = 2;
+    // the length, kind, tier and height, and the order and type of the
+    // geometry
+    private static final int        RecordHeader    = 4 + 1 + 1 + 8,
+                                    GeometryHeader  = 1 + 4,
+                                    Position        = 8 + 8;
+
+    private final OutputStream  outs;
+    private final ByteBuffer    buffer          = ByteBuffer.allocate(Capacity).order(ByteOrder.LITTLE_ENDIAN);
+
+    public WkbWriter (final OutputStream outs) {
+        this.outs = outs;
+    }
+
+    /**
+     * Makes room for n more bytes, writing the buffer out if need be.
+     */
+    private void ensure (final int n) throws IOException {
+        assert(n <= Capacity);
+        if (buffer.remaining() < n)
+            drain();
+    }
+
+    private void drain () throws IOException {
+        outs.write(buffer.array(), 0, buffer.position());
+        buffer.clear();
+    }
+
+    private void writeRecordHeader (final int geometryLength, final byte kind, final int tier, final double height) throws IOException {
+        assert(tier >= -1 && tier <= Byte.MAX_VALUE);
+        ensure(RecordHeader + GeometryHeader);
+        buffer.putInt(RecordHeader - 4 + geometryLength);
+        buffer.put(kind);
+        buffer.put((byte) tier);
+        buffer.putDouble(height);
+    }
+
+    private void writePosition (final double x, final double y) throws IOException {
+        ensure(Position);
+        buffer.putDouble(x);
+        buffer.putDouble(y);
+    }
+
+    private void writePoint (final byte kind, final double x, final double y, final double height) throws IOException {
+        writeRecordHeader(GeometryHeader + Position, kind, -1, height);
+        buffer.put(LittleEndian);
+        buffer.putInt(WkbPoint);
+        writePosition(x, y);
+    }
+
+    @Override
+    public void writeStart () throws IOException {
+        ensure(Magic.length + 4);
+        buffer.put(Magic);
+        buffer.putInt(Version);
+    }
+
+    @Override
+    public void writePoint (final DeclaredPoint p) throws IOException {
+        writePoint(PointRecord, p.getX().doubleValue(), p.getY().doubleValue(), p.getZ().doubleValue());
+    }
+
+    @Override
+    public void writeCrossing (final GeneratedPoint p) throws IOException {
+        writePoint(CrossingRecord, p.getDoubleX(), p.getDoubleY(), p.getDoubleZ());
+    }
+
+    @Override
+    public void writeContour (final Rational height, final int tier, final Path<GeneratedPoint> path) throws IOException {
+        final int count = path.size() + (path.isClosed()? 1 : 0);
+
+        writeRecordHeader(GeometryHeader + 4 + count * Position, ContourRecord, tier, height.doubleValue());
+        buffer.put(LittleEndian);
+        buffer.putInt(WkbLineString);
+        ensure(4);
+        buffer.putInt(count);
+        GeneratedPoint start = null;
+        for (final GeneratedPoint p: path) {
+            if (start == null)
+                start = p;
+            writePosition(p.getDoubleX(), p.getDoubleY());
+        }
+        if (path.isClosed())
+            writePosition(start.getDoubleX(), start.getDoubleY());
+    }
+
+    @Override
+    public void writeEnd () throws IOException {
+    }
+
+    @Override
+    public void flush () throws IOException {
+        drain();
+        outs.flush();
+    }
+
+    @Override
+    public void close () throws IOException {
+        drain();
+        outs.close();
+    }
+}
@@ -0,0 +1,95 @@
+package org.pseudosystems.geodaisia;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.math.BigInteger;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import junit.framework.TestCase;
+
+/**
+ * Differential test of the two arithmetics: the same grid must give the
+ * same cells, sides and crossings, at the same heights, and the same level
+ * lines, with coordinates within {@link Arithmetic#Tolerance} of each other.
+ */
+public class ArithmeticTest extends TestCase {
+
+    private static PointGrid load (final String points) throws IOException {
+        return Persistance.loadPoints(new StringReader(points));
+    }
+
+    /**
+     * @return a rows by columns grid, spaced by step from offset and moved
+     *          by up to half a step, of heights between 0 and 1000, all
+     *          made up by a seeded random
+     */
+    private static String grid (final long seed, final int rows, final int columns, final String offset, final long step) {
+        final Random            random  = new Random(seed);
+        final StringBuilder     result  = new StringBuilder();
+        final BigInteger        origin  = new BigInteger(offset);
+
+        int n = 0;
+        for (int j = 0; j < rows; ++j)
+            for (int i = 0; i < columns; ++i)
+                result.append(j).append('.').append(i).append('.').append(n++).append('.')
+                        .append(origin.add(BigInteger.valueOf(i * step + step / 2000 * random.nextInt(1000)))).append('.')
+                        .append(origin.add(BigInteger.valueOf(j * step + step / 2000 * random.nextInt(1000)))).append('.')
+                        .append(random.nextInt(1000)).append('\n');
+        return result.toString();
+    }
+
+    private static void assertClose (final GeneratedPoint exact, final GeneratedPoint fast) {
+        assertEquals(exact.getZ(), fast.getZ());
+        assertEquals(exact.getDoubleX(), fast.getDoubleX(), Arithmetic.Tolerance * Math.max(1, Math.abs(exact.getDoubleX())));
+        assertEquals(exact.getDoubleY(), fast.getDoubleY(), Arithmetic.Tolerance * Math.max(1, Math.abs(exact.getDoubleY())));
+    }
+
+    private static void assertSameCrossingsAndLines (final PointGrid points, final Contours contours) {
+        final CrossingBuffer    exact   = IntermediatePointsGenerator.generateAllIntermediateHeightPoints(points, Arithmetic.exact, contours),
+                                fast    = IntermediatePointsGenerator.generateAllIntermediateHeightPoints(points, Arithmetic.fast, contours);
+
+        assertTrue(exact.size() > 0);
+        // throws on the first difference in topology or in coordinates
+        assertTrue(Arithmetic.compare(exact, fast) <= Arithmetic.Tolerance);
+
+        final List<? extends Line>  exactLines  = ContourEngine.marching.generateLines(exact, 0, null),
+                                    fastLines   = ContourEngine.marching.generateLines(fast, 0, null);
+        assertEquals(exactLines.size(), fastLines.size());
+        final Iterator<? extends Line> fastLine = fastLines.iterator();
+        for (final Line line: exactLines) {
+            final Line other = fastLine.next();
+            assertClose(line.getBeginning(), other.getBeginning());
+            assertClose(line.getEnd(), other.getEnd());
+        }
+    }
+
+    public void testSmallGrid () throws IOException {
+        assertSameCrossingsAndLines(load(grid(1, 12, 15, "0", 10)), Contours.Default);
+    }
+
+    public void testFineIntervals () throws IOException {
+        assertSameCrossingsAndLines(load(grid(2, 10, 10, "1000", 40)), new Contours(3, 1, 5));
+    }
+
+    /**
+     * Near the top of the longs, exact interpolation overflows them and
+     * falls back to large integers. Doubles only keep about 16 digits, so
+     * points are spaced far enough apart, relative to their coordinates,
+     * for doubles to tell the crossings apart: closer than that, fast
+     * arithmetic runs crossings together, and lines with them.
+     */
+    public void testCoordinatesNearLongRange () throws IOException {
+        assertSameCrossingsAndLines(load(grid(3, 8, 8, Long.toString(Long.MAX_VALUE / 4), 1000000000000l)), Contours.Default);
+    }
+
+    /**
+     * Past the longs, points are kept exact as they are loaded; spaced as
+     * above.
+     */
+    public void testCoordinatesPastLongRange () throws IOException {
+        final PointGrid points = load(grid(4, 8, 8, "100000000000000000000000", 100000000000000000l));
+        assertTrue(points.isExact(0));
+        assertSameCrossingsAndLines(points, Contours.Default);
+    }
+}
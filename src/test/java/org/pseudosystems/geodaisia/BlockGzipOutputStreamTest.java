@@ -0,0 +1,195 @@
+package org.pseudosystems.geodaisia;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import junit.framework.TestCase;
+
+/**
+ * Round trip of block gzip through {@link GZIPInputStream}, which checks the
+ * checksum and size of the trailer too: blocks short of the dictionary,
+ * flushed in the middle of the stream, must still refer back across each
+ * other, and blocks beyond the first must pick up where it left off. A sync
+ * flush must be complete, however small the buffer it starts out in.
+ */
+public class BlockGzipOutputStreamTest extends TestCase {
+
+    private ForkJoinPool pool;
+
+    @Override
+    protected void setUp () {
+        pool = new ForkJoinPool(4);
+    }
+
+    @Override
+    protected void tearDown () {
+        pool.shutdown();
+    }
+
+    /**
+     * @return n bytes of a few words, picked by a seeded random, so that
+     *          deflate finds matches both near and far back
+     */
+    private static byte[] text (final long seed, final int n) {
+        final String[]  words   = {"<line x1=\"", "\" y1=\"", "\" stroke=\"#", "604040", "0.2mm", "\"/>\n", "123.456", "-7.5"};
+        final Random    random  = new Random(seed);
+        final byte[]    result  = new byte[n];
+        for (int k = 0; k < n;) {
+            final String word = random.nextInt(8) == 0? Integer.toString(random.nextInt()) : words[random.nextInt(words.length)];
+            for (int c = 0; c < word.length() && k < n; ++c)
+                result[k++] = (byte) word.charAt(c);
+        }
+        return result;
+    }
+
+    private static byte[] gunzip (final byte[] gz) throws IOException {
+        final ByteArrayOutputStream result  = new ByteArrayOutputStream();
+        final byte[]                buffer  = new byte[8192];
+        try (final InputStream ins = new GZIPInputStream(new ByteArrayInputStream(gz))) {
+            for (int n; (n = ins.read(buffer)) != -1;)
+                result.write(buffer, 0, n);
+        }
+        return result.toByteArray();
+    }
+
+    private static int readInt (final byte[] b, final int off) {
+        return (b[off] & 0xff) | (b[off + 1] & 0xff) << 8 | (b[off + 2] & 0xff) << 16 | (b[off + 3] & 0xff) << 24;
+    }
+
+    /**
+     * Writes data in pieces of the given lengths, cycled, flushing after
+     * each if asked to, and checks that it comes back the same, and that the
+     * trailer holds its checksum and its size modulo 2^32.
+     */
+    private void assertRoundTrip (final byte[] data, final int[] pieces, final boolean flushing) throws IOException {
+        final ByteArrayOutputStream gz = new ByteArrayOutputStream();
+        try (final BlockGzipOutputStream outs = new BlockGzipOutputStream(gz, pool)) {
+            for (int off = 0, k = 0; off < data.length; ++k) {
+                final int n = Math.min(pieces[k % pieces.length], data.length - off);
+                if (n == 1)
+                    outs.write(data[off]);
+                else
+                    outs.write(data, off, n);
+                off += n;
+                if (flushing)
+                    outs.flush();
+            }
+        }
+
+        final byte[] bytes = gz.toByteArray();
+        assertTrue(Arrays.equals(data, gunzip(bytes)));
+
+        final CRC32 crc = new CRC32();
+        crc.update(data);
+        assertEquals((int) crc.getValue(), readInt(bytes, bytes.length - 8));
+        assertEquals(data.length, readInt(bytes, bytes.length - 4));
+    }
+
+    public void testEmpty () throws IOException {
+        assertRoundTrip(new byte[0], new int[] {1}, false);
+    }
+
+    public void testFlushedEmpty () throws IOException {
+        final ByteArrayOutputStream gz = new ByteArrayOutputStream();
+        try (final BlockGzipOutputStream outs = new BlockGzipOutputStream(gz, pool)) {
+            outs.flush();
+            outs.flush();
+        }
+        assertEquals(0, gunzip(gz.toByteArray()).length);
+    }
+
+    public void testSingleByte () throws IOException {
+        assertRoundTrip(new byte[] {'x'}, new int[] {1}, false);
+    }
+
+    public void testFlushMidStream () throws IOException {
+        final byte[]                data    = text(1, 100000);
+        final ByteArrayOutputStream gz      = new ByteArrayOutputStream();
+        try (final BlockGzipOutputStream outs = new BlockGzipOutputStream(gz, pool)) {
+            outs.write(data, 0, 40000);
+            outs.flush();
+            // all of the first part must be out by now, and inflate as far
+            final int flushed = gz.size();
+            final byte[] head = new byte[40000];
+            try (final InputStream ins = new GZIPInputStream(new ByteArrayInputStream(Arrays.copyOf(gz.toByteArray(), flushed)))) {
+                for (int off = 0, n; off < head.length; off += n)
+                    assertTrue((n = ins.read(head, off, head.length - off)) > 0);
+            }
+            assertTrue(Arrays.equals(Arrays.copyOf(data, 40000), head));
+            outs.write(data, 40000, data.length - 40000);
+        }
+        assertTrue(Arrays.equals(data, gunzip(gz.toByteArray())));
+    }
+
+    /**
+     * Each flush makes a block shorter than the dictionary, whose tail is
+     * then pieced together from several blocks before it.
+     */
+    public void testBlocksShorterThanTheDictionary () throws IOException {
+        assertRoundTrip(text(2, 200000), new int[] {1, 700, 5000, 12, 31000, 3}, true);
+    }
+
+    public void testSeveralBlocks () throws IOException {
+        assertRoundTrip(text(3, 1500000), new int[] {100000, 77777, 1, 300000}, false);
+    }
+
+    /**
+     * Random bytes do not deflate, so every block comes out larger than it
+     * went in.
+     */
+    public void testIncompressibleBlocks () throws IOException {
+        final byte[] data = new byte[600000];
+        new Random(4).nextBytes(data);
+        assertRoundTrip(data, new int[] {65536, 150000}, true);
+    }
+
+    /**
+     * Deflates data in three blocks, each primed with what came before it,
+     * into buffers of the given capacity at first, and inflates them back
+     * as one raw stream.
+     */
+    private static void assertBlocksInflate (final byte[] data, final int capacity) throws DataFormatException {
+        final int                   third   = data.length / 3;
+        final ByteArrayOutputStream raw     = new ByteArrayOutputStream();
+        final byte[]                first   = Arrays.copyOf(data, third),
+                                    second  = Arrays.copyOfRange(data, third, 2 * third),
+                                    last    = Arrays.copyOfRange(data, 2 * third, data.length);
+        final byte[]                a       = BlockGzipOutputStream.deflate(first, first.length, null, false, capacity),
+                                    b       = BlockGzipOutputStream.deflate(second, second.length, first, false, capacity),
+                                    c       = BlockGzipOutputStream.deflate(last, last.length, Arrays.copyOf(data, 2 * third), true, capacity);
+        raw.write(a, 0, a.length);
+        raw.write(b, 0, b.length);
+        raw.write(c, 0, c.length);
+
+        final Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(raw.toByteArray());
+            final byte[] result = new byte[data.length];
+            int n = 0;
+            while (n < result.length && !inflater.finished())
+                n += inflater.inflate(result, n, result.length - n);
+            assertEquals(data.length, n);
+            assertTrue(Arrays.equals(data, result));
+        }
+        finally {
+            inflater.end();
+        }
+    }
+
+    public void testFlushOutgrowsItsBuffer () throws DataFormatException {
+        final byte[] random = new byte[30000];
+        new Random(5).nextBytes(random);
+        for (final int capacity: new int[] {1, 5, 64, 4096}) {
+            assertBlocksInflate(text(6, 90000), capacity);
+            assertBlocksInflate(random, capacity);
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package org.pseudosystems.geodaisia;
+
+import java.util.Random;
+import junit.framework.TestCase;
+import org.jscience.mathematics.number.LargeInteger;
+import org.jscience.mathematics.number.Rational;
+
+/**
+ * Checks the filtered signs of {@link Predicates} against the exact ones,
+ * on points in general position, which the doubles decide, and on points
+ * exactly or all but collinear, which they cannot, and the intersection of
+ * segments built on them.
+ */
+public class PredicatesTest extends TestCase {
+
+    private static GeneratedPoint point (final Rational x, final Rational y) {
+        return GeneratedPoint.create(x, y, Rational.ZERO);
+    }
+
+    private static GeneratedPoint point (final long x, final long y) {
+        return GeneratedPoint.create(x, y, 0l);
+    }
+
+    private static Rational rational (final long dividend, final long divisor) {
+        return Rational.valueOf(dividend, divisor);
+    }
+
+    private static int signum (final Rational r) {
+        return r.compareTo(Rational.ZERO);
+    }
+
+    private static int exactOrientation (final GeneratedPoint a, final GeneratedPoint b, final GeneratedPoint c) {
+        return signum(b.getX().minus(a.getX()).times(c.getY().minus(a.getY()))
+                .minus(b.getY().minus(a.getY()).times(c.getX().minus(a.getX()))));
+    }
+
+    /**
+     * @return a point of thirds and sevenths, which doubles do not hold
+     *          exactly
+     */
+    private static GeneratedPoint awkward (final Random random) {
+        return point(rational(random.nextInt(2000) - 1000, 3), rational(random.nextInt(2000) - 1000, 7));
+    }
+
+    /**
+     * @return a + t (b - a), exactly on the line through a and b
+     */
+    private static GeneratedPoint along (final GeneratedPoint a, final GeneratedPoint b, final Rational t) {
+        return point(a.getX().plus(t.times(b.getX().minus(a.getX()))), a.getY().plus(t.times(b.getY().minus(a.getY()))));
+    }
+
+    public void testDetSign () {
+        final Random random = new Random(1);
+
+        assertEquals(1, Predicates.detSign(point(1, 0), point(0, 1)));
+        assertEquals(-1, Predicates.detSign(point(0, 1), point(1, 0)));
+        assertEquals(0, Predicates.detSign(point(2, 4), point(3, 6)));
+        for (int n = 0; n < 1000; ++n) {
+            final GeneratedPoint p0 = awkward(random), p1 = awkward(random);
+            assertEquals(signum(Numbers.det(p0, p1)), Predicates.detSign(p0, p1));
+            // a multiple of p0, whose determinant with it is exactly zero
+            final GeneratedPoint p2 = along(point(0, 0), p0, rational(random.nextInt(1000) + 1, 11));
+            assertEquals(0, Predicates.detSign(p0, p2));
+        }
+    }
+
+    public void testOrientation () {
+        final Random            random  = new Random(2);
+        final Rational          tiny    = Rational.valueOf(LargeInteger.ONE, LargeInteger.valueOf(10).pow(30));
+
+        assertEquals(1, Predicates.orientation(point(0, 0), point(1, 0), point(0, 1)));
+        assertEquals(-1, Predicates.orientation(point(0, 0), point(0, 1), point(1, 0)));
+        assertEquals(0, Predicates.orientation(point(0, 0), point(1, 1), point(5, 5)));
+        for (int n = 0; n < 1000; ++n) {
+            final GeneratedPoint    a   = awkward(random),
+                                    b   = awkward(random),
+                                    c   = awkward(random);
+            assertEquals(exactOrientation(a, b, c), Predicates.orientation(a, b, c));
+
+            final GeneratedPoint    on  = along(a, b, rational(random.nextInt(3000) - 1000, 997));
+            assertEquals(exactOrientation(a, b, on), Predicates.orientation(a, b, on));
+            if (!a.getX().equals(b.getX()) || !a.getY().equals(b.getY()))
+                assertEquals(0, Predicates.orientation(a, b, on));
+            if (!a.getX().equals(b.getX())) {
+                // off a line which is not upright, far below what the
+                // doubles can tell apart
+                final GeneratedPoint off = point(on.getX(), on.getY().plus(tiny));
+                assertEquals(exactOrientation(a, b, off), Predicates.orientation(a, b, off));
+                assertTrue(Predicates.orientation(a, b, off) != 0);
+            }
+        }
+    }
+
+    private static Line line (final GeneratedPoint a, final GeneratedPoint b) {
+        return new Line(a, b);
+    }
+
+    public void testIntersect () {
+        // crossing, and touching at an end or in the middle
+        assertTrue(Geometry.intersect(line(point(0, 0), point(4, 4)), line(point(0, 4), point(4, 0))));
+        assertTrue(Geometry.intersect(line(point(0, 0), point(4, 4)), line(point(4, 4), point(8, 0))));
+        assertTrue(Geometry.intersect(line(point(0, 0), point(4, 0)), line(point(2, 0), point(2, 5))));
+        // apart, parallel, and on one line but apart
+        assertFalse(Geometry.intersect(line(point(0, 0), point(1, 1)), line(point(3, 0), point(2, 1))));
+        assertFalse(Geometry.intersect(line(point(0, 0), point(4, 0)), line(point(0, 1), point(4, 1))));
+        assertFalse(Geometry.intersect(line(point(0, 0), point(1, 1)), line(point(2, 2), point(3, 3))));
+        // on one line and overlapping
+        assertTrue(Geometry.intersect(line(point(0, 0), point(2, 2)), line(point(3, 3), point(1, 1))));
+
+        // an awkward segment, and one through a point exactly on it, or all
+        // but on it
+        final Random random = new Random(3);
+        for (int n = 0; n < 200; ++n) {
+            final GeneratedPoint    a   = awkward(random),
+                                    b   = awkward(random),
+                                    on  = along(a, b, rational(random.nextInt(99) + 1, 100)),
+                                    c   = awkward(random);
+            if (exactOrientation(a, b, c) == 0)
+                continue;
+            assertTrue(Geometry.intersect(line(a, b), line(c, on)));
+            final GeneratedPoint    off = along(c, on, rational(999999999, 1000000000));
+            assertFalse(Geometry.intersect(line(a, b), line(c, off)));
+        }
+    }
+}
@@ -0,0 +1,245 @@
+package org.pseudosystems.geodaisia;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import junit.framework.TestCase;
+import org.jscience.mathematics.number.LargeInteger;
+import org.jscience.mathematics.number.Rational;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static org.pseudosystems.geodaisia.Numbers.isGreaterThan;
+import static org.pseudosystems.geodaisia.Numbers.isLessThan;
+import static org.pseudosystems.geodaisia.Numbers.max;
+import static org.pseudosystems.geodaisia.Numbers.plus;
+import static org.pseudosystems.geodaisia.Numbers.times;
+import static org.pseudosystems.geodaisia.Numbers.toLong;
+import static org.pseudosystems.geodaisia.Numbers.toRational;
+import static org.pseudosystems.geodaisia.Numbers.toReal;
+import static org.pseudosystems.geodaisia.Renderer.MARGIN_X;
+import static org.pseudosystems.geodaisia.Renderer.MARGIN_Y;
+import static org.pseudosystems.geodaisia.Renderer.TEXT_X_OFF;
+import static org.pseudosystems.geodaisia.Renderer.TEXT_Y_OFF;
+import static org.pseudosystems.geodaisia.Renderer.errorCorrection;
+
+/**
+ * Compares the markup of an {@link SvgWriter} byte for byte with that of a
+ * reference, which builds it in Strings the way Renderer did before the
+ * writer, for the points and lines of a fixture grid: with coordinates as
+ * their exact values print, and rounded half up to a number of decimals.
+ */
+public class SvgWriterTest extends TestCase {
+
+    /**
+     * How the reference writes a coordinate.
+     */
+    private interface Format {
+        String format (Rational r);
+    }
+
+    private static final Format AsPrinted = new Format() {
+        @Override
+        public String format (final Rational r) {
+            return toReal(r).toString();
+        }
+    };
+
+    private static Format fixed (final int decimals) {
+        return new Format() {
+            @Override
+            public String format (final Rational r) {
+                // the fixture is all positive, where half up is half up
+                return new BigDecimal(r.getDividend().toString()).divide(new BigDecimal(r.getDivisor().toString()), decimals, RoundingMode.HALF_UP).toPlainString();
+            }
+        };
+    }
+
+    private static String declaredToSvg (final DeclaredPoint p, final Format f) {
+        final Rational      dispx       = plus(times(errorCorrection, p.getX()), MARGIN_X),
+                            dispy       = plus(times(errorCorrection, p.getY()), MARGIN_Y),
+                            textx       = plus(dispx, TEXT_X_OFF),
+                            textx0      = isGreaterThan(dispx, 270l)? toRational(270l) : dispx,
+                            texty0      = isLessThan(dispy, 4l)? toRational(4l) : dispy;
+        final String        anchor      = isLessThan(textx, 5l)? "left" : isGreaterThan(textx, 270l)? "right" : "center";
+        final StringBuilder bob0        = new StringBuilder(),
+                            bob1        = new StringBuilder();
+
+        bob0.append("\n\t<circle cx=\"").append(f.format(dispx)).append("mm\" cy=\"").append(f.format(dispy)).append("mm\" r=\"0.5mm\"");
+        if (p.getN() > -1)
+            bob1.append("\n\t<title>point[").append(p.getN()).append("]</title>");
+        if (p.getJ() > -1)
+            bob1.append("\n\t\t<desc>(").append(p.getJ()).append(',').append(p.getI()).append(")</desc>");
+        if (bob1.length() > 0)
+            bob0.append('>').append(bob1).append("\n\t</circle>");
+        else
+            bob0.append("/>");
+        bob0.append("\n\t<text text-anchor=\"").append(anchor).append("\" font-family=\"sans-serif\" font-size=\"8px\" x=\"").append(f.format(textx0)).append("mm\" y=\"").append(f.format(texty0)).append("mm\">")
+                .append("<tspan fill=\"#305030\">").append(String.format("%04d", toLong(p.getZ()))).append("</tspan></text>");
+        return bob0.toString();
+    }
+
+    private static String generatedToSvg (final GeneratedPoint p, final Colour c, final Format f) {
+        final Rational      dispx       = plus(times(p.getX(), errorCorrection), MARGIN_X),
+                            dispy       = plus(times(p.getY(), errorCorrection), MARGIN_Y),
+                            textx       = plus(dispx, TEXT_X_OFF),
+                            texty       = max(plus(dispy, TEXT_Y_OFF), 0l);
+        final long          z           = toLong(p.getZ().getDividend());
+
+        return "\n\t<circle cx=\"" + f.format(dispx) + "mm\" cy=\"" + f.format(dispy) + "mm\" r=\"0.3mm\" fill=\"#" + c.toRgbString() + "\" />"
+                + "\n\t\t<text text-anchor=\"middle\" font-family=\"monospace\" font-size=\"7px\" font-weight=\"lighter\" fill=\"#" + c.toRgbString() + "\" x=\""
+                + f.format(textx) + "mm\" y=\"" + f.format(texty) + "mm\" dy=\"4ex\" dx=\"-2em\">" + (z / 10) % 100 + "</text>";
+    }
+
+    private static String lineToSvg (final ColourfulLine vline, final Format f) {
+        final Line line = vline.getLine();
+        return "\n\t<line x1=\"" + f.format(plus(line.getBeginning().getX(), MARGIN_X))
+                + "mm\" y1=\"" + f.format(plus(line.getBeginning().getY(), MARGIN_Y))
+                + "mm\" x2=\"" + f.format(plus(line.getEnd().getX(), MARGIN_X))
+                + "mm\" y2=\"" + f.format(plus(line.getEnd().getY(), MARGIN_Y))
+                + "mm\" stroke-width=\"0.2mm\" stroke=\"#" + vline.getColour().toRgbString() + "\" />";
+    }
+
+    /**
+     * @return a rows by columns grid, 10 apart and moved by up to 5, of
+     *          heights between 0 and 100, made up by a seeded random, with
+     *          points at the edges of the text bounds too
+     */
+    private static PointGrid grid (final long seed, final int rows, final int columns) throws IOException {
+        final Random        random  = new Random(seed);
+        final StringBuilder result  = new StringBuilder();
+        int n = 0;
+        for (int j = 0; j < rows; ++j)
+            for (int i = 0; i < columns; ++i)
+                result.append(j).append('.').append(i).append('.').append(n++).append('.')
+                        .append(i * 30 + random.nextInt(6)).append('.')
+                        .append(j * 10 + random.nextInt(6)).append('.')
+                        .append(random.nextInt(100)).append('\n');
+        return Persistance.loadPoints(new StringReader(result.toString()));
+    }
+
+    private static String toString (final SvgWriter svg) {
+        return new String(svg.toByteArray(), US_ASCII);
+    }
+
+    private static void assertSameMarkup (final int decimals, final Format f) throws IOException {
+        final PointGrid             points      = grid(7, 5, 11);
+        final CrossingBuffer        generated   = IntermediatePointsGenerator.generateAllIntermediateHeightPoints(points, Arithmetic.exact, Contours.Default);
+        final List<GeneratedPoint>  crossings   = new ArrayList<>();
+        for (final CrossingBuffer.Cursor c = generated.occurrences(); c.next();)
+            crossings.add(c.getPoint());
+        final List<? extends Line>  lines       = ContourEngine.marching.generateLines(generated, 0, null);
+        final Colour                colour      = Colour.rgb(0x604040);
+        final SvgWriter             svg         = new SvgWriter(decimals);
+
+        assertFalse(crossings.isEmpty());
+        assertFalse(lines.isEmpty());
+
+        for (final DeclaredPoint p: points.getPoints())
+            if (Points.isPointValid(p)) {
+                svg.writePoint(p);
+                assertEquals(declaredToSvg(p, f), toString(svg));
+                svg.reset();
+            }
+        for (final GeneratedPoint p: crossings) {
+            svg.writePoint(p, colour);
+            assertEquals(generatedToSvg(p, colour, f), toString(svg));
+            svg.reset();
+        }
+        for (final Line line: lines) {
+            final ColourfulLine vline = ColourfulLine.create(line, colour);
+            svg.writeLine(vline, 0);
+            assertEquals(lineToSvg(vline, f), toString(svg));
+            svg.reset();
+        }
+    }
+
+    public void testAsPrinted () throws IOException {
+        assertSameMarkup(SvgWriter.AsPrinted, AsPrinted);
+    }
+
+    public void testFixedDecimals () throws IOException {
+        for (final int decimals: new int[] {0, 1, 3, FixedFormat.MaxDecimals})
+            assertSameMarkup(decimals, fixed(decimals));
+    }
+
+    private interface Writing {
+        void write (SvgWriter svg) throws IOException;
+    }
+
+    private static String written (final Writing writing) throws IOException {
+        final SvgWriter svg = new SvgWriter();
+        writing.write(svg);
+        return toString(svg);
+    }
+
+    /**
+     * Writes n both as a long and as a large integer, which must agree.
+     */
+    private static void assertFixed (final String expected, final long n, final int decimals, final boolean trimmed) throws IOException {
+        assertEquals(expected, written(new Writing() {
+            @Override
+            public void write (final SvgWriter svg) throws IOException {
+                if (trimmed)
+                    svg.writeTrimmed(n, decimals);
+                else
+                    svg.writeFixed(n, decimals);
+            }
+        }));
+        assertEquals(expected, written(new Writing() {
+            @Override
+            public void write (final SvgWriter svg) throws IOException {
+                if (trimmed)
+                    svg.writeTrimmed(LargeInteger.valueOf(n), decimals);
+                else
+                    svg.writeFixed(LargeInteger.valueOf(n), decimals);
+            }
+        }));
+    }
+
+    public void testWriteFixed () throws IOException {
+        assertFixed("12.345", 12345, 3, false);
+        assertFixed("-12.345", -12345, 3, false);
+        assertFixed("0.005", 5, 3, false);
+        assertFixed("-0.005", -5, 3, false);
+        assertFixed("0.050", 50, 3, false);
+        assertFixed("-0.050", -50, 3, false);
+        assertFixed("0.000", 0, 3, false);
+        assertFixed("-1.000", -1000, 3, false);
+        assertFixed("-7", -7, 0, false);
+        assertFixed("0.000000001", 1, 9, false);
+        assertFixed("-92233720.36854775808", Long.MIN_VALUE, 11, false);
+    }
+
+    public void testWriteTrimmed () throws IOException {
+        assertFixed("12.345", 12345, 3, true);
+        assertFixed("-12.34", -12340, 3, true);
+        assertFixed("0.005", 5, 3, true);
+        assertFixed("-0.005", -5, 3, true);
+        assertFixed("0.05", 50, 3, true);
+        assertFixed("-0.05", -50, 3, true);
+        assertFixed("0", 0, 3, true);
+        assertFixed("-1", -1000, 3, true);
+        assertFixed("-7", -7, 0, true);
+        assertFixed("-0.000000001", -1, 9, true);
+    }
+
+    public void testWriteLargerThanLongs () throws IOException {
+        final LargeInteger n = LargeInteger.valueOf("-123456789012345678901234567890");
+        assertEquals("-123456789012345678901.234567890", written(new Writing() {
+            @Override
+            public void write (final SvgWriter svg) throws IOException {
+                svg.writeFixed(n, 9);
+            }
+        }));
+        assertEquals("-123456789012345678901.23456789", written(new Writing() {
+            @Override
+            public void write (final SvgWriter svg) throws IOException {
+                svg.writeTrimmed(n, 9);
+            }
+        }));
+    }
+}